@@ -1,4 +1,24 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.stream.IntStream;
 
 public class AntColonyOptimization {
@@ -11,15 +31,66 @@ public class AntColonyOptimization {
     private static final double BETA = 5.0;  // Вес видимости (обратное расстояние)
     private static final double RHO = 0.1;   // Коэффициент испарения феромона
     private static final double Q = 100.0;   // Количество откладываемого феромона
+    private static final int EXCHANGE_INTERVAL = 20; // Период обмена лучшими маршрутами между колониями
+    private static final int NUM_NEIGHBORS = 15; // Размер списка кандидатов (ближайших соседей)
+    private static final int DENSE_LIMIT = 5000; // Больше этого числа городов матрицы n×n не строятся
+    private static final int ELITE_WEIGHT = 5;   // Вес лучшего маршрута в элитной стратегии
+    private static final int RANK_WIDTH = 6;     // Число рангов в ранговой стратегии
+    private static final double P_BEST = 0.05;   // Вероятность построить лучший маршрут при сходимости (MAX-MIN)
+    private static final int GLOBAL_BEST_PERIOD = 10; // Как часто в MAX-MIN откладывает лучший за все время
+    private static final double MIN_DISTANCE = 1e-9; // Нижняя граница расстояния в видимости 1/d
     
+    // Способ построения маршрута
+    public enum ConstructionMode {
+        FULL_SCAN,      // Исходный перебор всех непосещенных городов
+        CANDIDATE_LIST  // Только ближайшие соседи по таблице выбора, полный перебор как запасной вариант
+    }
+    
+    // Способ хранения расстояний и феромона
+    public enum Storage {
+        DENSE,   // Полные матрицы n×n
+        LAZY,    // Полная матрица с отложенным испарением: обновление стоит O(числа откладываний)
+        COMPACT  // Феромон только на ребрах-кандидатах вне кучи, O(n·k) памяти
+    }
+    
+    // Кто и сколько откладывает феромона после итерации
+    public enum UpdateStrategy {
+        ANT_SYSTEM, // Все муравьи, Q / L
+        ELITIST,    // Все муравьи и лучший за все время маршрут с весом ELITE_WEIGHT
+        RANK_BASED, // RANK_WIDTH - 1 лучших муравьев с убывающим весом и лучший за все время
+        MAX_MIN     // Только лучший муравей, уровни ограничены [tauMin, tauMax]
+    }
+    
+    private long seed;
     private int numCities;
-    private double[][] distances;
-    private double[][] pheromones;
+    private DistanceMatrix distances;
+    private PheromoneMatrix pheromones;
+    private ChoiceTable choiceTable;
+    private int[][] nearestNeighbors;
+    private ConstructionMode constructionMode = ConstructionMode.FULL_SCAN;
+    private UpdateStrategy updateStrategy = UpdateStrategy.ANT_SYSTEM;
+    private int[] rankOrder;   // Порядок муравьев по длине маршрута, без выделений на итерации
+    private int iteration;
+    private long updateNanos;  // Суммарное время обновления феромона
+    private boolean localSearchEnabled;
+    private final LocalSearchStats localSearchStats = new LocalSearchStats();
     private List<Ant> ants;
     private int[] bestTour;
     private double bestTourLength = Double.MAX_VALUE;
+    private double iterationBestLength;  // Лучшая и средняя длина маршрута последней итерации
+    private double iterationMeanLength;
+    private ProgressListener listener = ProgressListener.none();
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // Задача из файла: TSPLIB (.tsp) или двоичный файл координат
+        if (args.length > 0 && !args[0].equals("bench")) {
+            AntColonyOptimization aco = new AntColonyOptimization(TspFiles.load(Paths.get(args[0])), 42);
+            aco.setListener(ProgressListener.sampled(10));
+            aco.solve(ForkJoinPool.commonPool());
+            System.out.println("Длина маршрута: " + aco.getBestTourLength());
+            return;
+        }
+        
         // Создаем случайные координаты городов
         int numCities = 20;
         double[][] cities = generateRandomCities(numCities, 100, 100);
@@ -29,19 +100,126 @@ public class AntColonyOptimization {
         
         // Запускаем алгоритм
         AntColonyOptimization aco = new AntColonyOptimization(distances);
+        aco.setListener(ProgressListener.sampled(10));
         aco.solve();
         
         // Выводим результаты
         System.out.println("Лучший маршрут: " + Arrays.toString(aco.getBestTour()));
-        System.out.println("Длина маршрута: " + aco.getBestTourLength()));
+        System.out.println("Длина маршрута: " + aco.getBestTourLength());
+        
+        // Замер масштабирования параллельного режима по числу ядер
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkScaling(calculateDistances(generateRandomCities(300, 1000, 1000)), 42);
+            benchmarkConstruction(calculateDistances(generateRandomCities(2000, 10000, 10000)), 42);
+            benchmarkStorage(generateRandomCities(20000, 100000, 100000), 42);
+            benchmarkLocalSearch(calculateDistances(generateRandomCities(500, 10000, 10000)), 42);
+            benchmarkLoading(generateRandomCities(100000, 1000000, 1000000));
+            benchmarkUpdate(calculateDistances(generateRandomCities(1000, 10000, 10000)), 42);
+        }
     }
     
     public AntColonyOptimization(double[][] distances) {
+        this(distances, random.nextLong());
+    }
+    
+    // Конструктор с фиксированным зерном: результат воспроизводим при любом числе потоков
+    public AntColonyOptimization(double[][] distances, long seed) {
+        this(new DenseDistances(distances), seed, Storage.DENSE);
+    }
+    
+    // Города заданы координатами: матрица расстояний не нужна, а для больших задач
+    // феромон хранится только на ребрах-кандидатах
+    public AntColonyOptimization(Coordinates cities, long seed) {
+        this(cities, seed, cities.size() > DENSE_LIMIT ? Storage.COMPACT : Storage.LAZY);
+    }
+    
+    // В режиме COMPACT сразу строятся списки кандидатов, а феромон хранится только на них
+    public AntColonyOptimization(DistanceMatrix distances, long seed, Storage storage) {
+        this.seed = seed;
         this.distances = distances;
-        this.numCities = distances.length;
-        this.pheromones = new double[numCities][numCities];
-        initializePheromones();
+        this.numCities = distances.size();
+        if (storage == Storage.COMPACT) {
+            nearestNeighbors = computeNearestNeighbors(distances, Math.min(NUM_NEIGHBORS, numCities - 1));
+            pheromones = new CandidatePheromones(nearestNeighbors, 1.0 / numCities);
+            constructionMode = ConstructionMode.CANDIDATE_LIST;
+        } else if (storage == Storage.LAZY) {
+            pheromones = new LazyPheromones(numCities, 1.0 / numCities);
+        } else {
+            pheromones = new DensePheromones(numCities, 1.0 / numCities);
+        }
         initializeAnts();
+        rankOrder = new int[NUM_ANTS];
+    }
+    
+    public void setUpdateStrategy(UpdateStrategy updateStrategy) {
+        this.updateStrategy = updateStrategy;
+        if (updateStrategy != UpdateStrategy.MAX_MIN) {
+            pheromones.setBounds(0.0, Double.MAX_VALUE);
+        }
+    }
+    
+    public void setConstructionMode(ConstructionMode constructionMode) {
+        this.constructionMode = constructionMode;
+        if (constructionMode == ConstructionMode.CANDIDATE_LIST && nearestNeighbors == null) {
+            nearestNeighbors = computeNearestNeighbors(distances, Math.min(NUM_NEIGHBORS, numCities - 1));
+        }
+    }
+    
+    // Улучшение каждого построенного маршрута 2-opt, затем Or-opt (по спискам соседей)
+    public void setLocalSearch(boolean enabled) {
+        this.localSearchEnabled = enabled;
+        if (enabled && nearestNeighbors == null) {
+            nearestNeighbors = computeNearestNeighbors(distances, Math.min(NUM_NEIGHBORS, numCities - 1));
+        }
+        for (Ant ant : ants) {
+            ant.localSearch = enabled ? new LocalSearch(distances, nearestNeighbors) : null;
+        }
+    }
+    
+    public LocalSearchStats getLocalSearchStats() {
+        return localSearchStats;
+    }
+    
+    // k ближайших соседей каждого города (вставкой в упорядоченный массив из k элементов)
+    private static int[][] computeNearestNeighbors(DistanceMatrix distances, int k) {
+        int n = distances.size();
+        int[][] neighbors = new int[n][k];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            int[] row = neighbors[i];
+            double[] nearest = new double[k];
+            Arrays.fill(nearest, Double.MAX_VALUE);
+            for (int j = 0; j < n; j++) {
+                if (j == i) {
+                    continue;
+                }
+                double d = distances.get(i, j);
+                if (d >= nearest[k - 1]) {
+                    continue;
+                }
+                int r = k - 1;
+                while (r > 0 && nearest[r - 1] > d) {
+                    nearest[r] = nearest[r - 1];
+                    row[r] = row[r - 1];
+                    r--;
+                }
+                nearest[r] = d;
+                row[r] = j;
+            }
+        });
+        return neighbors;
+    }
+    
+    private void computeChoiceInfo() {
+        if (choiceTable == null) {
+            if (pheromones instanceof CandidatePheromones) {
+                choiceTable = new CandidateChoiceTable(distances, (CandidatePheromones) pheromones, nearestNeighbors);
+            } else if (pheromones instanceof LazyPheromones) {
+                choiceTable = new LazyChoiceTable(distances, (LazyPheromones) pheromones, nearestNeighbors);
+            } else {
+                choiceTable = new DenseChoiceTable(distances, pheromones, nearestNeighbors);
+            }
+        }
+        choiceTable.refresh();
     }
     
     private static double[][] generateRandomCities(int numCities, int maxX, int maxY) {
@@ -70,74 +248,373 @@ public class AntColonyOptimization {
         return distances;
     }
     
-    private void initializePheromones() {
-        double initialPheromone = 1.0 / numCities;
-        for (int i = 0; i < numCities; i++) {
-            Arrays.fill(pheromones[i], initialPheromone);
-        }
-    }
-    
     private void initializeAnts() {
+        // Каждый муравей получает собственный генератор, выделенный из зерна колонии,
+        // поэтому результат не зависит от порядка выполнения задач в пуле
+        SplittableRandom seeds = new SplittableRandom(seed);
         ants = new ArrayList<>();
         for (int i = 0; i < NUM_ANTS; i++) {
-            ants.add(new Ant(numCities));
+            ants.add(new Ant(numCities, seeds.split()));
         }
     }
     
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+    
     public void solve() {
+        solve(null);
+    }
+    
+    // Параллельный режим: маршруты строятся в пуле с перехватом задач (work-stealing)
+    public void solve(ForkJoinPool pool) {
         for (int iter = 0; iter < NUM_ITERATIONS; iter++) {
-            // Каждый муравей строит маршрут
+            runIteration(pool);
+            listener.onIteration(iter, bestTourLength, iterationBestLength, iterationMeanLength);
+        }
+    }
+    
+    private void runIteration(ForkJoinPool pool) {
+        if (constructionMode == ConstructionMode.CANDIDATE_LIST) {
+            computeChoiceInfo();
+        }
+        
+        // Каждый муравей строит (и при необходимости улучшает) маршрут
+        buildTours(pool);
+        if (localSearchEnabled) {
             for (Ant ant : ants) {
-                ant.buildTour(distances, pheromones, ALPHA, BETA);
+                localSearchStats.add(ant.localSearch);
             }
-            
-            // Обновляем феромоны
-            updatePheromones();
-            
-            // Проверяем на лучший маршрут
+        }
+        
+        // Проверяем на лучший маршрут (в порядке муравьев, чтобы результат был детерминирован)
+        boolean improved = false;
+        iterationBestLength = Double.MAX_VALUE;
+        double totalLength = 0.0;
+        for (Ant ant : ants) {
+            iterationBestLength = Math.min(iterationBestLength, ant.getTourLength());
+            totalLength += ant.getTourLength();
+            if (ant.getTourLength() < bestTourLength) {
+                bestTourLength = ant.getTourLength();
+                bestTour = ant.getTour().clone();
+                improved = true;
+            }
+        }
+        iterationMeanLength = totalLength / ants.size();
+        
+        // Обновляем феромоны (элитная, ранговая и MAX-MIN стратегии учитывают лучший маршрут этой итерации)
+        long start = System.nanoTime();
+        updatePheromones(improved);
+        updateNanos += System.nanoTime() - start;
+        iteration++;
+        
+        // Готовим муравьев к следующей итерации
+        for (Ant ant : ants) {
+            ant.clear();
+        }
+    }
+    
+    private void buildTours(ForkJoinPool pool) {
+        if (pool == null) {
             for (Ant ant : ants) {
-                if (ant.getTourLength() < bestTourLength) {
-                    bestTourLength = ant.getTourLength();
-                    bestTour = ant.getTour().clone();
-                }
+                buildTour(ant);
             }
+            return;
+        }
+        // Муравьи только читают матрицы, поэтому их можно запускать независимо
+        pool.submit(() -> IntStream.range(0, ants.size()).parallel()
+                .forEach(i -> buildTour(ants.get(i)))).join();
+    }
+    
+    private void buildTour(Ant ant) {
+        if (constructionMode == ConstructionMode.CANDIDATE_LIST) {
+            ant.buildTour(distances, choiceTable, nearestNeighbors);
+        } else {
+            ant.buildTour(distances, pheromones, ALPHA, BETA);
+        }
+        // Локальный поиск выполняется в той же задаче, то есть параллельно по муравьям
+        if (ant.localSearch != null) {
+            ant.improveTour();
+        }
+    }
+    
+    // Несколько независимых колоний, которые через каждые EXCHANGE_INTERVAL итераций
+    // передают свой лучший маршрут соседней колонии по кольцу
+    public static AntColonyOptimization solveMultiColony(double[][] distances, int numColonies, long seed, ForkJoinPool pool) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        AntColonyOptimization[] colonies = new AntColonyOptimization[numColonies];
+        for (int c = 0; c < numColonies; c++) {
+            colonies[c] = new AntColonyOptimization(distances, seeds.nextLong());
+        }
+        
+        for (int iter = 0; iter < NUM_ITERATIONS; iter++) {
+            pool.submit(() -> IntStream.range(0, numColonies).parallel()
+                    .forEach(c -> colonies[c].runIteration(pool))).join();
             
-            // Выводим информацию о текущей итерации
-            if (iter % 10 == 0) {
-                System.out.printf("Итерация %d: Лучшая длина = %.2f%n", iter, bestTourLength);
+            if ((iter + 1) % EXCHANGE_INTERVAL == 0) {
+                exchangeBestTours(colonies);
             }
-            
-            // Готовим муравьев к следующей итерации
-            for (Ant ant : ants) {
-                ant.clear();
+        }
+        
+        AntColonyOptimization best = colonies[0];
+        for (AntColonyOptimization colony : colonies) {
+            if (colony.bestTourLength < best.bestTourLength) {
+                best = colony;
             }
         }
+        return best;
     }
     
-    private void updatePheromones() {
-        // Испарение феромона
-        for (int i = 0; i < numCities; i++) {
-            for (int j = 0; j < numCities; j++) {
-                pheromones[i][j] *= (1.0 - RHO);
+    private static void exchangeBestTours(AntColonyOptimization[] colonies) {
+        // Сначала фиксируем лучшие маршруты всех колоний, затем раздаем их,
+        // чтобы обмен не зависел от порядка обхода
+        int[][] tours = new int[colonies.length][];
+        double[] lengths = new double[colonies.length];
+        for (int c = 0; c < colonies.length; c++) {
+            tours[c] = colonies[c].bestTour;
+            lengths[c] = colonies[c].bestTourLength;
+        }
+        for (int c = 0; c < colonies.length; c++) {
+            int from = (c + colonies.length - 1) % colonies.length;
+            colonies[c].acceptTour(tours[from], lengths[from]);
+        }
+    }
+    
+    // Маршрут соседней колонии усиливается феромоном так же, как маршрут своего муравья
+    private void acceptTour(int[] tour, double tourLength) {
+        depositTour(tour, Q / tourLength);
+        if (tourLength < bestTourLength) {
+            bestTourLength = tourLength;
+            bestTour = tour.clone();
+        }
+    }
+    
+    // Сравнение времени построения маршрутов исходным перебором и по спискам кандидатов
+    private static void benchmarkConstruction(double[][] distances, long seed) {
+        int iterations = 5;
+        System.out.println("Режим          | мс на итерацию | Средняя длина маршрута");
+        for (ConstructionMode mode : ConstructionMode.values()) {
+            AntColonyOptimization aco = new AntColonyOptimization(distances, seed);
+            aco.setConstructionMode(mode);
+            double totalLength = 0.0;
+            long start = System.nanoTime();
+            for (int iter = 0; iter < iterations; iter++) {
+                if (mode == ConstructionMode.CANDIDATE_LIST) {
+                    aco.computeChoiceInfo();
+                }
+                aco.buildTours(null);
+                for (Ant ant : aco.ants) {
+                    totalLength += ant.getTourLength();
+                    ant.clear();
+                }
+            }
+            double time = (System.nanoTime() - start) / 1e6 / iterations;
+            System.out.printf("%-14s | %14.1f | %.2f%n", mode, time, totalLength / (iterations * NUM_ANTS));
+        }
+    }
+    
+    // Затраты памяти и времени итерации в компактном режиме, где плотные матрицы не поместились бы
+    private static void benchmarkStorage(double[][] cities, long seed) {
+        int n = cities.length;
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        long start = System.nanoTime();
+        AntColonyOptimization aco = new AntColonyOptimization(new CoordinateDistances(cities), seed, Storage.COMPACT);
+        double setupTime = (System.nanoTime() - start) / 1e6;
+        System.gc();
+        long used = runtime.totalMemory() - runtime.freeMemory() - before;
+        
+        start = System.nanoTime();
+        aco.runIteration(ForkJoinPool.commonPool());
+        double iterationTime = (System.nanoTime() - start) / 1e6;
+        
+        start = System.nanoTime();
+        aco.pheromones.evaporate(1.0 - RHO);
+        double evaporationTime = (System.nanoTime() - start) / 1e6;
+        
+        System.out.printf("Городов: %d, плотные матрицы заняли бы %.1f МБ%n", n, 2.0 * n * n * Double.BYTES / (1 << 20));
+        System.out.printf("COMPACT: куча %.1f МБ + вне кучи %.1f МБ, подготовка %.1f мс, итерация %.1f мс, испарение %.3f мс%n",
+                used / (double) (1 << 20), (double) n * NUM_NEIGHBORS * Double.BYTES / (1 << 20),
+                setupTime, iterationTime, evaporationTime);
+    }
+    
+    // Сколько итераций и времени нужно с локальным поиском, чтобы достичь результата
+    // NUM_ITERATIONS итераций без него
+    private static void benchmarkLocalSearch(double[][] distances, long seed) {
+        AntColonyOptimization plain = new AntColonyOptimization(distances, seed);
+        plain.setConstructionMode(ConstructionMode.CANDIDATE_LIST);
+        long start = System.nanoTime();
+        for (int iter = 0; iter < NUM_ITERATIONS; iter++) {
+            plain.runIteration(null);
+        }
+        double plainTime = (System.nanoTime() - start) / 1e6;
+        
+        AntColonyOptimization improved = new AntColonyOptimization(distances, seed);
+        improved.setConstructionMode(ConstructionMode.CANDIDATE_LIST);
+        improved.setLocalSearch(true);
+        int iterations = 0;
+        start = System.nanoTime();
+        while (iterations < NUM_ITERATIONS && improved.bestTourLength > plain.bestTourLength) {
+            improved.runIteration(null);
+            iterations++;
+        }
+        double improvedTime = (System.nanoTime() - start) / 1e6;
+        
+        System.out.printf("Без локального поиска: %d итераций, %.1f мс, длина %.2f%n",
+                NUM_ITERATIONS, plainTime, plain.bestTourLength);
+        System.out.printf("С 2-opt/Or-opt: %d итераций, %.1f мс, длина %.2f%n",
+                iterations, improvedTime, improved.bestTourLength);
+        System.out.println(improved.getLocalSearchStats());
+    }
+    
+    // Разбор текстового TSPLIB и отображение двоичного файла: время и занятая куча
+    private static void benchmarkLoading(double[][] cities) throws IOException {
+        CoordinateDistances coordinates = new CoordinateDistances(cities);
+        Path tsp = Files.createTempFile("aco", ".tsp");
+        Path binary = Files.createTempFile("aco", ".tspb");
+        try {
+            TspFiles.writeTsplib(tsp, coordinates);
+            TspFiles.writeBinary(binary, coordinates);
+            System.out.printf("Городов: %d, сами координаты занимают %.2f МБ%n",
+                    cities.length, 2.0 * cities.length * Double.BYTES / (1 << 20));
+            for (Path path : new Path[] {tsp, binary}) {
+                Runtime runtime = Runtime.getRuntime();
+                System.gc();
+                long before = runtime.totalMemory() - runtime.freeMemory();
+                long start = System.nanoTime();
+                Coordinates loaded = TspFiles.load(path);
+                double time = (System.nanoTime() - start) / 1e6;
+                long used = runtime.totalMemory() - runtime.freeMemory() - before;
+                System.out.printf("%s: %.1f мс, куча +%.2f МБ, последний город (%.1f, %.1f)%n",
+                        path.getFileName(), time, used / (double) (1 << 20),
+                        loaded.x(loaded.size() - 1), loaded.y(loaded.size() - 1));
+            }
+        } finally {
+            Files.deleteIfExists(tsp);
+            Files.deleteIfExists(binary);
+        }
+    }
+    
+    // Время обновления феромона, время всей итерации (таблица выбора, построение маршрутов,
+    // обновление) и скорость сходимости для хранилищ и стратегий откладывания
+    private static void benchmarkUpdate(double[][] distances, long seed) {
+        Storage[] storages = {Storage.DENSE, Storage.LAZY, Storage.LAZY, Storage.LAZY, Storage.LAZY};
+        UpdateStrategy[] strategies = {UpdateStrategy.ANT_SYSTEM, UpdateStrategy.ANT_SYSTEM,
+            UpdateStrategy.ELITIST, UpdateStrategy.RANK_BASED, UpdateStrategy.MAX_MIN};
+        double target = 0.0;
+        System.out.println("Хранилище | Стратегия  | мс на обновление | мс на итерацию | Лучшая длина | Итераций до длины AS/DENSE");
+        for (int v = 0; v < storages.length; v++) {
+            AntColonyOptimization aco = new AntColonyOptimization(new DenseDistances(distances), seed, storages[v]);
+            aco.setConstructionMode(ConstructionMode.CANDIDATE_LIST);
+            aco.setUpdateStrategy(strategies[v]);
+            double[] history = new double[NUM_ITERATIONS];
+            long start = System.nanoTime();
+            for (int iter = 0; iter < NUM_ITERATIONS; iter++) {
+                aco.runIteration(null);
+                history[iter] = aco.bestTourLength;
             }
+            double iterationTime = (System.nanoTime() - start) / 1e6 / NUM_ITERATIONS;
+            if (v == 0) {
+                target = aco.bestTourLength;
+            }
+            int reached = -1;
+            for (int iter = NUM_ITERATIONS - 1; iter >= 0 && history[iter] <= target; iter--) {
+                reached = iter + 1;
+            }
+            System.out.printf("%-9s | %-10s | %16.3f | %14.3f | %12.2f | %s%n", storages[v], strategies[v],
+                    aco.updateNanos / 1e6 / NUM_ITERATIONS, iterationTime, aco.bestTourLength,
+                    reached < 0 ? "не достигнута" : reached);
+        }
+    }
+    
+    private static void benchmarkScaling(double[][] distances, long seed) {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        double baseTime = 0.0;
+        System.out.println("Потоки | Время, мс | Ускорение | Лучшая длина");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            AntColonyOptimization aco = new AntColonyOptimization(distances, seed);
+            long start = System.nanoTime();
+            aco.solve(pool);
+            double time = (System.nanoTime() - start) / 1e6;
+            pool.shutdown();
+            if (threads == 1) {
+                baseTime = time;
+            }
+            System.out.printf("%6d | %9.1f | %9.2f | %.2f%n", threads, time, baseTime / time, aco.getBestTourLength());
         }
+    }
+    
+    private void updatePheromones(boolean bestImproved) {
+        // Испарение феромона (время пропорционально числу хранимых ребер,
+        // а в ленивом хранилище — постоянно)
+        pheromones.evaporate(1.0 - RHO);
         
         // Добавление нового феромона
-        for (Ant ant : ants) {
-            double contribution = Q / ant.getTourLength();
-            int[] tour = ant.getTour();
-            for (int i = 0; i < numCities - 1; i++) {
-                int from = tour[i];
-                int to = tour[i + 1];
-                pheromones[from][to] += contribution;
-                pheromones[to][from] += contribution;
+        switch (updateStrategy) {
+            case ANT_SYSTEM:
+                for (Ant ant : ants) {
+                    depositTour(ant.getTour(), Q / ant.getTourLength());
+                }
+                break;
+            case ELITIST:
+                for (Ant ant : ants) {
+                    depositTour(ant.getTour(), Q / ant.getTourLength());
+                }
+                depositTour(bestTour, ELITE_WEIGHT * Q / bestTourLength);
+                break;
+            case RANK_BASED:
+                rankAnts();
+                for (int r = 0; r < RANK_WIDTH - 1 && r < ants.size(); r++) {
+                    Ant ant = ants.get(rankOrder[r]);
+                    depositTour(ant.getTour(), (RANK_WIDTH - 1 - r) * Q / ant.getTourLength());
+                }
+                depositTour(bestTour, RANK_WIDTH * Q / bestTourLength);
+                break;
+            case MAX_MIN:
+                if (bestImproved) {
+                    updateBounds();
+                }
+                if (iteration % GLOBAL_BEST_PERIOD == 0) {
+                    depositTour(bestTour, Q / bestTourLength);
+                } else {
+                    rankAnts();
+                    Ant iterationBest = ants.get(rankOrder[0]);
+                    depositTour(iterationBest.getTour(), Q / iterationBest.getTourLength());
+                }
+                break;
+        }
+    }
+    
+    // Сортировка вставками по длине маршрута: муравьев немного, и массив переиспользуется
+    private void rankAnts() {
+        for (int i = 0; i < rankOrder.length; i++) {
+            int ant = i;
+            double length = ants.get(i).getTourLength();
+            int j = i;
+            while (j > 0 && ants.get(rankOrder[j - 1]).getTourLength() > length) {
+                rankOrder[j] = rankOrder[j - 1];
+                j--;
             }
-            // Замыкаем цикл (возвращаемся в начальный город)
-            int last = tour[numCities - 1];
-            int first = tour[0];
-            pheromones[last][first] += contribution;
-            pheromones[first][last] += contribution;
+            rankOrder[j] = ant;
+        }
+    }
+    
+    // Границы MAX-MIN ACS (Штютцле и Хоос) по текущему лучшему маршруту
+    private void updateBounds() {
+        double tauMax = Q / (RHO * bestTourLength);
+        double root = Math.pow(P_BEST, 1.0 / numCities);
+        double tauMin = tauMax * (1.0 - root) / ((numCities / 2.0 - 1.0) * root);
+        pheromones.setBounds(Math.min(tauMin, tauMax), tauMax);
+    }
+    
+    private void depositTour(int[] tour, double contribution) {
+        for (int i = 0; i < numCities - 1; i++) {
+            pheromones.deposit(tour[i], tour[i + 1], contribution);
         }
+        // Замыкаем цикл (возвращаемся в начальный город)
+        pheromones.deposit(tour[numCities - 1], tour[0], contribution);
     }
     
     public int[] getBestTour() {
@@ -148,73 +625,1346 @@ public class AntColonyOptimization {
         return bestTourLength;
     }
     
-    private static class Ant {
-        private int[] tour;
-        private boolean[] visited;
-        private int currentIndex;
-        private double tourLength;
+    // Хранилище расстояний
+    public interface DistanceMatrix {
+        int size();
+        double get(int from, int to);
+    }
+    
+    // Готовая матрица n×n
+    public static class DenseDistances implements DistanceMatrix {
+        private final double[][] distances;
         
-        public Ant(int numCities) {
-            this.tour = new int[numCities];
-            this.visited = new boolean[numCities];
-            this.currentIndex = 0;
-            this.tourLength = 0.0;
+        public DenseDistances(double[][] distances) {
+            this.distances = distances;
         }
         
-        public void buildTour(double[][] distances, double[][] pheromones, double alpha, double beta) {
-            // Начинаем со случайного города
-            int startCity = random.nextInt(tour.length);
-            visitCity(startCity);
-            
-            // Посещаем остальные города
-            while (currentIndex < tour.length) {
-                int nextCity = selectNextCity(distances, pheromones, alpha, beta);
-                visitCity(nextCity);
+        public int size() {
+            return distances.length;
+        }
+        
+        public double get(int from, int to) {
+            return distances[from][to];
+        }
+    }
+    
+    // Города на плоскости: расстояния вычисляются на лету, O(n) памяти вместо O(n²)
+    public interface Coordinates extends DistanceMatrix {
+        double x(int city);
+        double y(int city);
+        
+        default Rounding rounding() {
+            return Rounding.NONE;
+        }
+        
+        default double get(int from, int to) {
+            double dx = x(from) - x(to);
+            double dy = y(from) - y(to);
+            return rounding().apply(Math.sqrt(dx * dx + dy * dy));
+        }
+    }
+    
+    // Округление расстояний, как его задает EDGE_WEIGHT_TYPE в TSPLIB
+    public enum Rounding {
+        NONE,    // Точное евклидово расстояние
+        NEAREST, // EUC_2D: nint(sqrt(...)), ближайшее целое
+        CEIL;    // CEIL_2D: ceil(sqrt(...))
+        
+        double apply(double distance) {
+            switch (this) {
+                case NEAREST:
+                    return Math.floor(distance + 0.5);
+                case CEIL:
+                    return Math.ceil(distance);
+                default:
+                    return distance;
             }
-            
-            // Вычисляем длину маршрута (включая возврат в начальный город)
-            tourLength += distances[tour[tour.length - 1]][tour[0]];
         }
+    }
+    
+    // Координаты в массивах кучи
+    public static class CoordinateDistances implements Coordinates {
+        private final double[] x;
+        private final double[] y;
+        private final Rounding rounding;
         
-        private int selectNextCity(double[][] distances, double[][] pheromones, double alpha, double beta) {
-            int currentCity = tour[currentIndex - 1];
-            
-            // Вычисляем вероятности для всех непосещенных городов
-            double[] probabilities = new double[tour.length];
-            double total = 0.0;
-            
-            for (int i = 0; i < tour.length; i++) {
-                if (!visited[i]) {
-                    double pheromone = Math.pow(pheromones[currentCity][i], alpha);
-                    double visibility = Math.pow(1.0 / distances[currentCity][i], beta);
-                    probabilities[i] = pheromone * visibility;
-                    total += probabilities[i];
+        public CoordinateDistances(double[][] cities) {
+            this.x = new double[cities.length];
+            this.y = new double[cities.length];
+            this.rounding = Rounding.NONE;
+            for (int i = 0; i < cities.length; i++) {
+                x[i] = cities[i][0];
+                y[i] = cities[i][1];
+            }
+        }
+        
+        public CoordinateDistances(double[] x, double[] y) {
+            this(x, y, Rounding.NONE);
+        }
+        
+        public CoordinateDistances(double[] x, double[] y, Rounding rounding) {
+            this.x = x;
+            this.y = y;
+            this.rounding = rounding;
+        }
+        
+        public int size() {
+            return x.length;
+        }
+        
+        public Rounding rounding() {
+            return rounding;
+        }
+        
+        public double x(int city) {
+            return x[city];
+        }
+        
+        public double y(int city) {
+            return y[city];
+        }
+    }
+    
+    // Координаты прямо в отображенном в память файле, без копирования в кучу
+    public static class MappedCoordinates implements Coordinates {
+        private final DoubleBuffer x;
+        private final DoubleBuffer y;
+        private final Rounding rounding;
+        
+        MappedCoordinates(DoubleBuffer x, DoubleBuffer y, Rounding rounding) {
+            this.x = x;
+            this.y = y;
+            this.rounding = rounding;
+        }
+        
+        public int size() {
+            return x.capacity();
+        }
+        
+        public Rounding rounding() {
+            return rounding;
+        }
+        
+        public double x(int city) {
+            return x.get(city);
+        }
+        
+        public double y(int city) {
+            return y.get(city);
+        }
+    }
+    
+    // Получатель статистики итераций: значения приходят примитивами,
+    // а форматирование, если оно нужно, делает сам приемник
+    public interface ProgressListener extends AutoCloseable {
+        void onIteration(int iteration, double bestLength, double iterationBestLength, double meanLength);
+        
+        @Override
+        default void close() {
+        }
+        
+        static ProgressListener none() {
+            return (iteration, bestLength, iterationBestLength, meanLength) -> {
+            };
+        }
+        
+        // Текстовый вывод каждые every итераций; остальные вызовы стоят одну проверку
+        static ProgressListener sampled(int every) {
+            return sampled(every, System.out);
+        }
+        
+        static ProgressListener sampled(int every, PrintStream out) {
+            return (iteration, bestLength, iterationBestLength, meanLength) -> {
+                if (iteration % every == 0) {
+                    out.printf("Итерация %d: Лучшая длина = %.2f%n", iteration, bestLength);
+                }
+            };
+        }
+        
+        // Каждая every-я итерация — строка CSV или JSON Lines; запись буферизована и асинхронна
+        static ProgressListener csv(Path file, int every) throws IOException {
+            return file(file, false, every);
+        }
+        
+        static ProgressListener jsonl(Path file, int every) throws IOException {
+            return file(file, true, every);
+        }
+        
+        private static ProgressListener file(Path file, boolean json, int every) throws IOException {
+            RecordSink sink = new RecordSink(file, json, "iteration", "best", "iteration_best", "mean");
+            return new ProgressListener() {
+                @Override
+                public void onIteration(int iteration, double bestLength, double iterationBestLength, double meanLength) {
+                    if (iteration % every != 0) {
+                        return;
+                    }
+                    sink.put(iteration);
+                    sink.put(bestLength);
+                    sink.put(iterationBestLength);
+                    sink.put(meanLength);
+                }
+                
+                @Override
+                public void close() {
+                    sink.close();
                 }
+            };
+        }
+    }
+    
+    // Файловый приемник: значения строки копируются в буфер примитивов, а
+    // форматирование и запись идут в фоновом потоке. Буферов два: пока один
+    // пишется, следующий заполняется
+    private static final class RecordSink {
+        private static final int ROWS = 4096;
+        private final String[] columns;
+        private final boolean json;
+        private final Writer out;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "progress-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final double[][] buffers;
+        private Future<?> pending = CompletableFuture.completedFuture(null);
+        private int turn;
+        private int size;
+        
+        RecordSink(Path file, boolean json, String... columns) throws IOException {
+            this.columns = columns;
+            this.json = json;
+            this.buffers = new double[2][ROWS * columns.length];
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            if (!json) {
+                out.write(String.join(",", columns));
+                out.write('\n');
             }
-            
-            // Выбираем следующий город методом рулетки
-            double rand = random.nextDouble() * total;
-            double sum = 0.0;
-            for (int i = 0; i < tour.length; i++) {
-                if (!visited[i]) {
-                    sum += probabilities[i];
-                    if (sum >= rand) {
-                        return i;
+        }
+        
+        void put(double value) {
+            buffers[turn][size++] = value;
+            if (size == buffers[turn].length) {
+                flush();
+            }
+        }
+        
+        private void flush() {
+            await();
+            double[] rows = buffers[turn];
+            int count = size;
+            pending = executor.submit(() -> {
+                write(rows, count);
+                return null;
+            });
+            turn ^= 1;
+            size = 0;
+        }
+        
+        private void write(double[] rows, int count) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < count; row += columns.length) {
+                line.setLength(0);
+                line.append(json ? "{" : "");
+                for (int c = 0; c < columns.length; c++) {
+                    if (c > 0) {
+                        line.append(',');
                     }
+                    if (json) {
+                        line.append('"').append(columns[c]).append("\":");
+                    }
+                    appendValue(line, rows[row + c]);
                 }
+                line.append(json ? "}\n" : "\n");
+                out.append(line);
             }
-            
-            // Если что-то пошло не так (не должно происходить)
-            return -1;
         }
         
-        private void visitCity(int city) {
-            if (currentIndex > 0) {
-                int prevCity = tour[currentIndex - 1];
-                tourLength += distances[prevCity][city];
+        // Целые значения без дробной части; NaN и бесконечности в JSON — null
+        private void appendValue(StringBuilder line, double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                line.append(json ? "null" : "");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                line.append((long) value);
+            } else {
+                line.append(value);
             }
-            tour[currentIndex++] = city;
-            visited[city] = true;
+        }
+        
+        private void await() {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание записи прогресса прервано", e);
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException("Не удалось записать прогресс",
+                        e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+        }
+        
+        void close() {
+            try {
+                flush();
+                await();
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+    
+    // Чтение задач из файлов через отображение в память (NIO).
+    // Двоичный формат: "TSPB", версия, число городов, номер Rounding (int, little-endian),
+    // затем все x и все y (double)
+    public static final class TspFiles {
+        private static final int MAGIC = 0x42505354; // "TSPB" в little-endian
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+        
+        private TspFiles() {
+        }
+        
+        // Формат определяется по сигнатуре в начале файла
+        public static Coordinates load(Path path) throws IOException {
+            ByteBuffer buffer = map(path).order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() >= HEADER_BYTES && buffer.getInt(0) == MAGIC) {
+                return loadBinary(buffer);
+            }
+            return new TsplibParser(buffer).parse();
+        }
+        
+        private static ByteBuffer map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Файл больше 2 ГБ: " + path);
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        
+        private static Coordinates loadBinary(ByteBuffer buffer) throws IOException {
+            int version = buffer.getInt(4);
+            int n = buffer.getInt(8);
+            int rounding = buffer.getInt(12);
+            if (version != VERSION) {
+                throw new IOException("Неподдерживаемая версия двоичного формата: " + version);
+            }
+            if (rounding < 0 || rounding >= Rounding.values().length) {
+                throw new IOException("Неизвестное округление расстояний: " + rounding);
+            }
+            if (n < 0 || buffer.capacity() < HEADER_BYTES + 2L * n * Double.BYTES) {
+                throw new IOException("Файл короче, чем указано в заголовке");
+            }
+            DoubleBuffer x = buffer.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            DoubleBuffer y = buffer.position(HEADER_BYTES + n * Double.BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            return new MappedCoordinates(x.limit(n).slice(), y.limit(n).slice(), Rounding.values()[rounding]);
+        }
+        
+        public static void writeBinary(Path path, Coordinates cities) throws IOException {
+            int n = cities.size();
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 2 * n * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(cities.rounding().ordinal());
+            for (int i = 0; i < n; i++) {
+                buffer.putDouble(cities.x(i));
+            }
+            for (int i = 0; i < n; i++) {
+                buffer.putDouble(cities.y(i));
+            }
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        
+        // Точных расстояний в TSPLIB нет, поэтому Rounding.NONE пишется как EUC_2D
+        // и при чтении расстояния округляются
+        public static void writeTsplib(Path path, Coordinates cities) throws IOException {
+            StringBuilder text = new StringBuilder();
+            text.append("NAME : ").append(path.getFileName()).append('\n');
+            text.append("TYPE : TSP\n");
+            text.append("DIMENSION : ").append(cities.size()).append('\n');
+            text.append("EDGE_WEIGHT_TYPE : ")
+                    .append(cities.rounding() == Rounding.CEIL ? "CEIL_2D" : "EUC_2D").append('\n');
+            text.append("NODE_COORD_SECTION\n");
+            for (int i = 0; i < cities.size(); i++) {
+                text.append(i + 1).append(' ').append(cities.x(i)).append(' ').append(cities.y(i)).append('\n');
+            }
+            text.append("EOF\n");
+            Files.write(path, text.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        
+        // Потоковый разбор TSPLIB по байтам отображенного файла: строки создаются только для заголовка
+        private static class TsplibParser {
+            private final ByteBuffer buffer;
+            private int position;
+            
+            TsplibParser(ByteBuffer buffer) {
+                this.buffer = buffer;
+            }
+            
+            Coordinates parse() throws IOException {
+                int dimension = -1;
+                Rounding rounding = Rounding.NONE;
+                // Заголовок: строки вида "КЛЮЧ : ЗНАЧЕНИЕ" до секции координат
+                while (true) {
+                    String line = readLine();
+                    if (line == null || line.equals("EOF")) {
+                        throw new IOException("В файле нет NODE_COORD_SECTION");
+                    }
+                    if (line.startsWith("NODE_COORD_SECTION")) {
+                        break;
+                    }
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    String key = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    if (key.equals("DIMENSION")) {
+                        dimension = Integer.parseInt(value);
+                    } else if (key.equals("EDGE_WEIGHT_TYPE")) {
+                        if (value.equals("EUC_2D")) {
+                            rounding = Rounding.NEAREST;
+                        } else if (value.equals("CEIL_2D")) {
+                            rounding = Rounding.CEIL;
+                        } else {
+                            throw new IOException("Поддерживаются только координаты на плоскости, а не " + value);
+                        }
+                    }
+                }
+                if (dimension < 0) {
+                    throw new IOException("В заголовке нет DIMENSION");
+                }
+                
+                double[] x = new double[dimension];
+                double[] y = new double[dimension];
+                for (int i = 0; i < dimension; i++) {
+                    int city = (int) readNumber() - 1; // Города в TSPLIB нумеруются с 1
+                    if (city < 0 || city >= dimension) {
+                        throw new IOException("Неверный номер города: " + (city + 1));
+                    }
+                    x[city] = readNumber();
+                    y[city] = readNumber();
+                }
+                return new CoordinateDistances(x, y, rounding);
+            }
+            
+            private String readLine() {
+                int limit = buffer.limit();
+                if (position >= limit) {
+                    return null;
+                }
+                int start = position;
+                while (position < limit && buffer.get(position) != '\n') {
+                    position++;
+                }
+                byte[] bytes = new byte[position - start];
+                buffer.get(start, bytes);
+                position++;
+                return new String(bytes, StandardCharsets.US_ASCII).trim();
+            }
+            
+            private int peek() {
+                return position < buffer.limit() ? buffer.get(position) : -1;
+            }
+            
+            // Быстрый путь: мантисса до 18 цифр и порядок до 22 дают точное значение,
+            // остальное разбирает Double.parseDouble
+            private double readNumber() throws IOException {
+                while (peek() == ' ' || peek() == '\t' || peek() == '\r' || peek() == '\n') {
+                    position++;
+                }
+                int start = position;
+                boolean negative = peek() == '-';
+                if (negative || peek() == '+') {
+                    position++;
+                }
+                long mantissa = 0;
+                int digits = 0;
+                int exponent = 0;
+                boolean exact = true;
+                boolean seenDigit = false;
+                boolean fraction = false;
+                while (true) {
+                    int c = peek();
+                    if (c >= '0' && c <= '9') {
+                        seenDigit = true;
+                        if (digits < 18) {
+                            mantissa = mantissa * 10 + (c - '0');
+                            if (mantissa != 0) {
+                                digits++;
+                            }
+                            if (fraction) {
+                                exponent--;
+                            }
+                        } else {
+                            exact = false;
+                        }
+                    } else if (c == '.' && !fraction) {
+                        fraction = true;
+                    } else {
+                        break;
+                    }
+                    position++;
+                }
+                if (!seenDigit) {
+                    throw new IOException("Ожидалось число в позиции " + start);
+                }
+                if (peek() == 'e' || peek() == 'E') {
+                    position++;
+                    exact = false;
+                    while (peek() == '-' || peek() == '+' || (peek() >= '0' && peek() <= '9')) {
+                        position++;
+                    }
+                }
+                if (exact && exponent >= -22 && mantissa < (1L << 53)) {
+                    double value = mantissa / POWERS_OF_TEN[-exponent];
+                    return negative ? -value : value;
+                }
+                byte[] bytes = new byte[position - start];
+                buffer.get(start, bytes);
+                return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+            }
+        }
+    }
+    
+    // Хранилище феромона; deposit симметричен и добавляет феромон в обе стороны ребра
+    private interface PheromoneMatrix {
+        double get(int from, int to);
+        void deposit(int from, int to, double amount);
+        void evaporate(double factor);
+        
+        // Уровни не опускаются ниже min при испарении и не превышают max при откладывании
+        void setBounds(double min, double max);
+    }
+    
+    private static class DensePheromones implements PheromoneMatrix {
+        private final double[][] levels;
+        private double min = 0.0;
+        private double max = Double.MAX_VALUE;
+        
+        DensePheromones(int numCities, double initialLevel) {
+            levels = new double[numCities][numCities];
+            for (double[] row : levels) {
+                Arrays.fill(row, initialLevel);
+            }
+        }
+        
+        public double get(int from, int to) {
+            return levels[from][to];
+        }
+        
+        public void deposit(int from, int to, double amount) {
+            levels[from][to] = Math.min(levels[from][to] + amount, max);
+            levels[to][from] = Math.min(levels[to][from] + amount, max);
+        }
+        
+        public void evaporate(double factor) {
+            for (double[] row : levels) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = Math.max(row[j] * factor, min);
+                }
+            }
+        }
+        
+        public void setBounds(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+    
+    // Отложенное испарение: у ребра хранится уровень на момент последнего откладывания и номер
+    // той итерации, а испарение только увеличивает общий счетчик. Фактический уровень
+    // level * factor^(now - stamp) вычисляется при чтении по таблице степеней. Таблица
+    // обрывается на возрасте, где степень обращается в ноль, и более старые ребра читают
+    // ее последний элемент, поэтому память не растет с числом итераций
+    private static class LazyPheromones implements PheromoneMatrix {
+        private static final int MAX_DECAY_AGE = 1 << 16;
+        
+        private final int n;
+        private final double[] levels;
+        private final int[] stamps;
+        private double[] decay = {1.0}; // decay[a] = factor^a
+        private double factor = 1.0;
+        private boolean saturated = true; // степень дошла до нуля, таблица больше не растет
+        private int now;
+        private double min = 0.0;
+        private double max = Double.MAX_VALUE;
+        
+        LazyPheromones(int numCities, double initialLevel) {
+            // Ребра лежат в одном массиве, поэтому n² ограничено длиной массива Java
+            long edges = (long) numCities * numCities;
+            if (edges > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Слишком много городов для отложенного испарения: " + numCities
+                        + ", ребер " + edges);
+            }
+            this.n = numCities;
+            this.levels = new double[(int) edges];
+            this.stamps = new int[(int) edges];
+            Arrays.fill(levels, initialLevel);
+        }
+        
+        public double get(int from, int to) {
+            int index = from * n + to;
+            return Math.max(levels[index] * decayAt(now - stamps[index]), min);
+        }
+        
+        private double decayAt(int age) {
+            return decay[Math.min(age, decay.length - 1)];
+        }
+        
+        public void deposit(int from, int to, double amount) {
+            add(from * n + to, amount);
+            add(to * n + from, amount);
+        }
+        
+        private void add(int index, double amount) {
+            double level = Math.max(levels[index] * decayAt(now - stamps[index]), min);
+            levels[index] = Math.min(level + amount, max);
+            stamps[index] = now;
+        }
+        
+        public void evaporate(double factor) {
+            if (factor != this.factor) {
+                // Другой коэффициент: один раз приводим все ребра к текущему моменту
+                rebase();
+                this.factor = factor;
+                decay = new double[] {1.0};
+                saturated = factor == 1.0;
+            }
+            now++;
+            // Возраст ребра не превышает now; таблица растет удвоением, поэтому
+            // в среднем испарение стоит O(1)
+            if (now >= decay.length && !saturated) {
+                if (decay.length == MAX_DECAY_AGE) {
+                    // Коэффициент близок к 1 и степень еще не обратилась в ноль: вместо роста
+                    // таблицы один раз за MAX_DECAY_AGE итераций приводим ребра к текущему моменту
+                    rebase();
+                } else {
+                    double[] grown = Arrays.copyOf(decay, Math.min(2 * decay.length, MAX_DECAY_AGE));
+                    for (int age = decay.length; age < grown.length; age++) {
+                        grown[age] = grown[age - 1] * factor;
+                        // Субнормальные степени при умножении застревают на наименьшем числе,
+                        // поэтому таблица обрывается нулем уже на них
+                        if (grown[age] < Double.MIN_NORMAL) {
+                            grown = Arrays.copyOf(grown, age + 1);
+                            grown[age] = 0.0;
+                            saturated = true;
+                            break;
+                        }
+                    }
+                    decay = grown;
+                }
+            } else if (now == Integer.MAX_VALUE) {
+                // Ребра старше таблицы читают ее последний элемент, остается не переполнить счетчик
+                rebase();
+            }
+        }
+        
+        private void rebase() {
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] *= decayAt(now - stamps[i]);
+                stamps[i] = 0;
+            }
+            now = 0;
+        }
+        
+        public void setBounds(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+    
+    // Феромон только на ребрах-кандидатах: плоский буфер n×k вне кучи, выровненный по спискам соседей.
+    // Все остальные ребра имеют общий уровень, который испаряется одним умножением;
+    // откладывание на такие ребра отбрасывается
+    private static class CandidatePheromones implements PheromoneMatrix {
+        private final int[][] neighbors;
+        private final int k;
+        private final DoubleBuffer levels;
+        private double outsideLevel;
+        private double min = 0.0;
+        private double max = Double.MAX_VALUE;
+        
+        CandidatePheromones(int[][] neighbors, double initialLevel) {
+            this.neighbors = neighbors;
+            this.k = neighbors[0].length;
+            this.levels = ByteBuffer.allocateDirect(neighbors.length * k * Double.BYTES)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            for (int i = 0; i < levels.capacity(); i++) {
+                levels.put(i, initialLevel);
+            }
+            this.outsideLevel = initialLevel;
+        }
+        
+        private int rank(int from, int to) {
+            int[] row = neighbors[from];
+            for (int r = 0; r < k; r++) {
+                if (row[r] == to) {
+                    return r;
+                }
+            }
+            return -1;
+        }
+        
+        double getByRank(int from, int rank) {
+            return levels.get(from * k + rank);
+        }
+        
+        public double get(int from, int to) {
+            int r = rank(from, to);
+            return r >= 0 ? levels.get(from * k + r) : outsideLevel;
+        }
+        
+        public void deposit(int from, int to, double amount) {
+            add(from, to, amount);
+            add(to, from, amount);
+        }
+        
+        private void add(int from, int to, double amount) {
+            int r = rank(from, to);
+            if (r >= 0) {
+                int index = from * k + r;
+                levels.put(index, Math.min(levels.get(index) + amount, max));
+            }
+        }
+        
+        public void evaporate(double factor) {
+            for (int i = 0; i < levels.capacity(); i++) {
+                levels.put(i, Math.max(levels.get(i) * factor, min));
+            }
+            outsideLevel = Math.max(outsideLevel * factor, min);
+        }
+        
+        public void setBounds(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+    
+    // Видимость (1/d)^beta. После округления TSPLIB совпадающие и очень близкие города
+    // оказываются на расстоянии 0: без нижней границы вес стал бы бесконечным, а сумма
+    // рулетки — Infinity или NaN. С границей такой город просто почти наверняка выбирается
+    private static double visibility(double distance, double beta) {
+        return Math.pow(1.0 / Math.max(distance, MIN_DISTANCE), beta);
+    }
+    
+    // Таблица выбора pheromone^ALPHA * (1/d)^BETA, пересчитывается раз в итерацию
+    private interface ChoiceTable {
+        void refresh();
+        
+        // Вес перехода к соседу с номером rank в списке кандидатов города from
+        double candidate(int from, int rank);
+        
+        // Выбор среди всех непосещенных городов, когда все кандидаты уже посещены
+        int selectFallback(int from, boolean[] visited, SplittableRandom random);
+    }
+    
+    private static class DenseChoiceTable implements ChoiceTable {
+        private final PheromoneMatrix pheromones;
+        private final int[][] neighbors;
+        private final double[][] heuristic; // (1/d)^BETA, не меняется между итерациями
+        private final double[][] choice;
+        
+        DenseChoiceTable(DistanceMatrix distances, PheromoneMatrix pheromones, int[][] neighbors) {
+            int n = distances.size();
+            this.pheromones = pheromones;
+            this.neighbors = neighbors;
+            this.heuristic = new double[n][n];
+            this.choice = new double[n][n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    heuristic[i][j] = i != j ? visibility(distances.get(i, j), BETA) : 0.0;
+                }
+            }
+        }
+        
+        public void refresh() {
+            for (int i = 0; i < choice.length; i++) {
+                for (int j = 0; j < choice.length; j++) {
+                    double pheromone = ALPHA == 1.0 ? pheromones.get(i, j) : Math.pow(pheromones.get(i, j), ALPHA);
+                    choice[i][j] = pheromone * heuristic[i][j];
+                }
+            }
+        }
+        
+        public double candidate(int from, int rank) {
+            return choice[from][neighbors[from][rank]];
+        }
+        
+        public int selectFallback(int from, boolean[] visited, SplittableRandom random) {
+            return roulette(choice[from], visited, random);
+        }
+        
+        // Рулетка по всем непосещенным городам без промежуточного массива
+        static int roulette(double[] row, boolean[] visited, SplittableRandom random) {
+            int firstUnvisited = -1;
+            double total = 0.0;
+            for (int i = 0; i < row.length; i++) {
+                if (!visited[i]) {
+                    total += row[i];
+                    if (firstUnvisited < 0) {
+                        firstUnvisited = i;
+                    }
+                }
+            }
+            if (total <= 0.0) {
+                return firstUnvisited;
+            }
+            
+            double rand = random.nextDouble() * total;
+            double sum = 0.0;
+            for (int i = 0; i < row.length; i++) {
+                if (!visited[i]) {
+                    sum += row[i];
+                    if (sum >= rand) {
+                        return i;
+                    }
+                }
+            }
+            return firstUnvisited;
+        }
+    }
+    
+    // Для ленивого хранилища таблица целиком не пересчитывается: полный проход по n² ребрам
+    // вернул бы итерации квадратичную стоимость. Веса кандидатов города и полная строка для
+    // запасного выбора считаются при первом обращении за итерацию, так что итерация стоит
+    // O(n·k) плюс по O(n) на каждую строку, понадобившуюся муравьям
+    private static class LazyChoiceTable implements ChoiceTable {
+        private final LazyPheromones pheromones;
+        private final int[][] neighbors;
+        private final double[][] heuristic;
+        private final double[][] candidates;
+        private final double[][] rows;
+        // Номер итерации, на которой посчитана строка. Каждый элемент пишется один раз уже
+        // окончательным весом, поэтому муравьи одной итерации, пересчитывающие строку вместе,
+        // пишут в нее одинаковые значения, а запись номера после значений делает строку
+        // видимой другим потокам
+        private final AtomicIntegerArray candidateStamps;
+        private final AtomicIntegerArray rowStamps;
+        private int iteration;
+        
+        LazyChoiceTable(DistanceMatrix distances, LazyPheromones pheromones, int[][] neighbors) {
+            int n = distances.size();
+            int k = neighbors[0].length;
+            this.pheromones = pheromones;
+            this.neighbors = neighbors;
+            this.heuristic = new double[n][n];
+            this.candidates = new double[n][k];
+            this.rows = new double[n][n];
+            this.candidateStamps = new AtomicIntegerArray(n);
+            this.rowStamps = new AtomicIntegerArray(n);
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    heuristic[i][j] = i != j ? visibility(distances.get(i, j), BETA) : 0.0;
+                }
+            }
+        }
+        
+        public void refresh() {
+            iteration++;
+        }
+        
+        private double weight(double pheromone, double heuristic) {
+            return (ALPHA == 1.0 ? pheromone : Math.pow(pheromone, ALPHA)) * heuristic;
+        }
+        
+        public double candidate(int from, int rank) {
+            double[] row = candidates[from];
+            if (candidateStamps.get(from) != iteration) {
+                int[] targets = neighbors[from];
+                for (int r = 0; r < row.length; r++) {
+                    row[r] = weight(pheromones.get(from, targets[r]), heuristic[from][targets[r]]);
+                }
+                candidateStamps.set(from, iteration);
+            }
+            return row[rank];
+        }
+        
+        public int selectFallback(int from, boolean[] visited, SplittableRandom random) {
+            double[] row = rows[from];
+            if (rowStamps.get(from) != iteration) {
+                double[] h = heuristic[from];
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = weight(pheromones.get(from, j), h[j]);
+                }
+                rowStamps.set(from, iteration);
+            }
+            return DenseChoiceTable.roulette(row, visited, random);
+        }
+    }
+    
+    // Таблица только для ребер-кандидатов (n×k). Вне списков у всех ребер одинаковый феромон,
+    // поэтому запасной выбор сводится к ближайшему непосещенному городу
+    private static class CandidateChoiceTable implements ChoiceTable {
+        private final DistanceMatrix distances;
+        private final CandidatePheromones pheromones;
+        private final int k;
+        private final double[] heuristic;
+        private final double[] choice;
+        
+        CandidateChoiceTable(DistanceMatrix distances, CandidatePheromones pheromones, int[][] neighbors) {
+            int n = distances.size();
+            this.distances = distances;
+            this.pheromones = pheromones;
+            this.k = neighbors[0].length;
+            this.heuristic = new double[n * k];
+            this.choice = new double[n * k];
+            for (int i = 0; i < n; i++) {
+                for (int r = 0; r < k; r++) {
+                    heuristic[i * k + r] = visibility(distances.get(i, neighbors[i][r]), BETA);
+                }
+            }
+        }
+        
+        public void refresh() {
+            for (int i = 0; i < choice.length; i++) {
+                double pheromone = pheromones.getByRank(i / k, i % k);
+                choice[i] = (ALPHA == 1.0 ? pheromone : Math.pow(pheromone, ALPHA)) * heuristic[i];
+            }
+        }
+        
+        public double candidate(int from, int rank) {
+            return choice[from * k + rank];
+        }
+        
+        public int selectFallback(int from, boolean[] visited, SplittableRandom random) {
+            int nearest = -1;
+            double nearestDistance = Double.MAX_VALUE;
+            for (int i = 0; i < visited.length; i++) {
+                if (!visited[i]) {
+                    double d = distances.get(from, i);
+                    if (d < nearestDistance) {
+                        nearestDistance = d;
+                        nearest = i;
+                    }
+                }
+            }
+            return nearest;
+        }
+    }
+    
+    // Суммарный эффект локального поиска по всем улучшенным маршрутам
+    public static class LocalSearchStats {
+        private long tours;
+        private double twoOptGain;
+        private double orOptGain;
+        private long twoOptNanos;
+        private long orOptNanos;
+        
+        private void add(LocalSearch localSearch) {
+            tours++;
+            twoOptGain += localSearch.twoOptGain;
+            orOptGain += localSearch.orOptGain;
+            twoOptNanos += localSearch.twoOptNanos;
+            orOptNanos += localSearch.orOptNanos;
+        }
+        
+        public long getTours() {
+            return tours;
+        }
+        
+        public double getTwoOptGain() {
+            return twoOptGain;
+        }
+        
+        public double getOrOptGain() {
+            return orOptGain;
+        }
+        
+        public long getTwoOptNanos() {
+            return twoOptNanos;
+        }
+        
+        public long getOrOptNanos() {
+            return orOptNanos;
+        }
+        
+        @Override
+        public String toString() {
+            if (tours == 0) {
+                return "Локальный поиск не выполнялся";
+            }
+            return String.format("Маршрутов: %d; 2-opt: -%.2f за %.3f мс; Or-opt: -%.2f за %.3f мс (в среднем на маршрут)",
+                    tours, twoOptGain / tours, twoOptNanos / 1e6 / tours, orOptGain / tours, orOptNanos / 1e6 / tours);
+        }
+    }
+    
+    // 2-opt и Or-opt по спискам ближайших соседей с битами "не смотреть" (don't-look bits).
+    // Экземпляр принадлежит одному муравью, поэтому рабочие массивы не разделяются между потоками
+    private static class LocalSearch {
+        private static final double EPS = 1e-9;
+        private static final int MAX_SEGMENT = 3; // Наибольшая длина переносимого Or-opt отрезка
+        
+        private final DistanceMatrix distances;
+        private final int[][] neighbors;
+        private final int n;
+        private final int[] position;  // Позиция города в маршруте
+        private final int[] queue;     // Кольцевая очередь активных городов
+        private final boolean[] queued; // false означает взведенный бит "не смотреть"
+        private final int[] segment = new int[MAX_SEGMENT];
+        private int head;
+        private int size;
+        private int[] tour;
+        
+        // Результаты последнего запуска
+        private double twoOptGain;
+        private double orOptGain;
+        private long twoOptNanos;
+        private long orOptNanos;
+        
+        LocalSearch(DistanceMatrix distances, int[][] neighbors) {
+            this.distances = distances;
+            this.neighbors = neighbors;
+            this.n = distances.size();
+            this.position = new int[n];
+            this.queue = new int[n];
+            this.queued = new boolean[n];
+        }
+        
+        // Улучшает маршрут на месте и возвращает его новую длину
+        double improve(int[] tour, double tourLength) {
+            this.tour = tour;
+            for (int i = 0; i < n; i++) {
+                position[tour[i]] = i;
+            }
+            
+            long start = System.nanoTime();
+            twoOptGain = runStage(true);
+            long middle = System.nanoTime();
+            orOptGain = runStage(false);
+            long end = System.nanoTime();
+            twoOptNanos = middle - start;
+            orOptNanos = end - middle;
+            
+            // Пересчитываем длину целиком, чтобы не накапливать ошибку округления
+            double length = distances.get(tour[n - 1], tour[0]);
+            for (int i = 0; i < n - 1; i++) {
+                length += distances.get(tour[i], tour[i + 1]);
+            }
+            return n > 3 ? length : tourLength;
+        }
+        
+        private double runStage(boolean twoOpt) {
+            if (n <= 4) {
+                return 0.0;
+            }
+            head = 0;
+            size = 0;
+            for (int i = 0; i < n; i++) {
+                activate(tour[i]);
+            }
+            double gain = 0.0;
+            while (size > 0) {
+                int city = queue[head];
+                head = (head + 1) % n;
+                size--;
+                queued[city] = false;
+                double moveGain = twoOpt ? tryTwoOpt(city) : tryOrOpt(city);
+                if (moveGain > 0.0) {
+                    gain += moveGain;
+                    activate(city);
+                }
+            }
+            return gain;
+        }
+        
+        private void activate(int city) {
+            if (!queued[city]) {
+                queued[city] = true;
+                queue[(head + size) % n] = city;
+                size++;
+            }
+        }
+        
+        private int next(int city) {
+            return tour[(position[city] + 1) % n];
+        }
+        
+        private int prev(int city) {
+            return tour[(position[city] + n - 1) % n];
+        }
+        
+        private double tryTwoOpt(int a) {
+            for (int direction = 0; direction < 2; direction++) {
+                int an = direction == 0 ? next(a) : prev(a);
+                double removed = distances.get(a, an);
+                for (int c : neighbors[a]) {
+                    double added = distances.get(a, c);
+                    // Соседи упорядочены по удалению, дальше выигрыша не будет
+                    if (added >= removed) {
+                        break;
+                    }
+                    int cn = direction == 0 ? next(c) : prev(c);
+                    if (c == an || cn == a) {
+                        continue;
+                    }
+                    double gain = removed + distances.get(c, cn) - added - distances.get(an, cn);
+                    if (gain > EPS) {
+                        if (direction == 0) {
+                            reversePath(an, c);
+                        } else {
+                            reversePath(a, cn);
+                        }
+                        activate(an);
+                        activate(c);
+                        activate(cn);
+                        return gain;
+                    }
+                }
+            }
+            return 0.0;
+        }
+        
+        // Переворачивает путь from..to (в порядке обхода) или, если он длиннее половины, дополнение к нему
+        private void reversePath(int from, int to) {
+            int i = position[from];
+            int j = position[to];
+            int length = (j - i + n) % n + 1;
+            if (2 * length > n) {
+                int newI = (j + 1) % n;
+                j = (i + n - 1) % n;
+                i = newI;
+                length = n - length;
+            }
+            for (int s = 0; s < length / 2; s++) {
+                int pi = (i + s) % n;
+                int pj = (j - s + n) % n;
+                int ci = tour[pi];
+                int cj = tour[pj];
+                tour[pi] = cj;
+                position[cj] = pi;
+                tour[pj] = ci;
+                position[ci] = pj;
+            }
+        }
+        
+        // Перенос отрезка длиной 1..MAX_SEGMENT, начинающегося в городе s1, к одному из его соседей
+        private double tryOrOpt(int s1) {
+            for (int length = 1; length <= MAX_SEGMENT && length < n - 3; length++) {
+                int first = position[s1];
+                int s2 = tour[(first + length - 1) % n];
+                int p = prev(s1);
+                int nx = next(s2);
+                double removeGain = distances.get(p, s1) + distances.get(s2, nx) - distances.get(p, nx);
+                if (removeGain <= EPS) {
+                    continue;
+                }
+                for (int c : neighbors[s1]) {
+                    double toC = distances.get(s1, c);
+                    if (toC >= removeGain) {
+                        break;
+                    }
+                    if (inSegment(c, first, length)) {
+                        continue;
+                    }
+                    // c, s1..s2, next(c)
+                    int d = next(c);
+                    if (!inSegment(d, first, length)) {
+                        double gain = removeGain - (toC + distances.get(s2, d) - distances.get(c, d));
+                        if (gain > EPS) {
+                            moveSegment(first, length, c, false);
+                            activateAll(p, nx, s1, s2, c, d);
+                            return gain;
+                        }
+                    }
+                    // prev(c), s2..s1, c
+                    int e = prev(c);
+                    if (!inSegment(e, first, length)) {
+                        double gain = removeGain - (toC + distances.get(e, s2) - distances.get(e, c));
+                        if (gain > EPS) {
+                            moveSegment(first, length, e, true);
+                            activateAll(p, nx, s1, s2, c, e);
+                            return gain;
+                        }
+                    }
+                }
+            }
+            return 0.0;
+        }
+        
+        private boolean inSegment(int city, int first, int length) {
+            return (position[city] - first + n) % n < length;
+        }
+        
+        private void activateAll(int... cities) {
+            for (int city : cities) {
+                activate(city);
+            }
+        }
+        
+        // Вставляет отрезок tour[first..first+length-1] между x и next(x), сдвигая меньшую
+        // из двух дуг между отрезком и точкой вставки
+        private void moveSegment(int first, int length, int x, boolean reversed) {
+            for (int s = 0; s < length; s++) {
+                segment[s] = tour[(first + s) % n];
+            }
+            int last = (first + length - 1) % n;
+            int forward = (position[x] - last + n) % n;
+            int y = next(x);
+            int backward = (first - position[y] + n) % n;
+            
+            int target;
+            if (forward <= backward) {
+                // Города после отрезка до x включительно сдвигаются назад
+                for (int s = 0; s < forward; s++) {
+                    moveCity((last + 1 + s) % n, (first + s) % n);
+                }
+                target = (first + forward) % n;
+            } else {
+                // Города от y до отрезка сдвигаются вперед
+                for (int s = 1; s <= backward; s++) {
+                    moveCity((first - s + n) % n, (last - s + 1 + n) % n);
+                }
+                target = (first - backward + n) % n;
+            }
+            for (int s = 0; s < length; s++) {
+                int city = segment[reversed ? length - 1 - s : s];
+                int index = (target + s) % n;
+                tour[index] = city;
+                position[city] = index;
+            }
+        }
+        
+        private void moveCity(int from, int to) {
+            int city = tour[from];
+            tour[to] = city;
+            position[city] = to;
+        }
+    }
+    
+    private static class Ant {
+        private final SplittableRandom random; // Собственный генератор муравья
+        private LocalSearch localSearch;
+        private int[] tour;
+        private boolean[] visited;
+        private int currentIndex;
+        private double tourLength;
+        
+        public Ant(int numCities, SplittableRandom random) {
+            this.random = random;
+            this.tour = new int[numCities];
+            this.visited = new boolean[numCities];
+            this.currentIndex = 0;
+            this.tourLength = 0.0;
+        }
+        
+        public void buildTour(DistanceMatrix distances, PheromoneMatrix pheromones, double alpha, double beta) {
+            // Начинаем со случайного города
+            int startCity = random.nextInt(tour.length);
+            visitCity(startCity, distances);
+            
+            // Посещаем остальные города
+            while (currentIndex < tour.length) {
+                int nextCity = selectNextCity(distances, pheromones, alpha, beta);
+                visitCity(nextCity, distances);
+            }
+            
+            // Вычисляем длину маршрута (включая возврат в начальный город)
+            tourLength += distances.get(tour[tour.length - 1], tour[0]);
+        }
+        
+        private int selectNextCity(DistanceMatrix distances, PheromoneMatrix pheromones, double alpha, double beta) {
+            int currentCity = tour[currentIndex - 1];
+            
+            // Вычисляем вероятности для всех непосещенных городов
+            double[] probabilities = new double[tour.length];
+            double total = 0.0;
+            
+            for (int i = 0; i < tour.length; i++) {
+                if (!visited[i]) {
+                    double pheromone = Math.pow(pheromones.get(currentCity, i), alpha);
+                    double visibility = visibility(distances.get(currentCity, i), beta);
+                    probabilities[i] = pheromone * visibility;
+                    total += probabilities[i];
+                }
+            }
+            
+            // Выбираем следующий город методом рулетки
+            double rand = random.nextDouble() * total;
+            double sum = 0.0;
+            for (int i = 0; i < tour.length; i++) {
+                if (!visited[i]) {
+                    sum += probabilities[i];
+                    if (sum >= rand) {
+                        return i;
+                    }
+                }
+            }
+            
+            // Если что-то пошло не так (не должно происходить)
+            return -1;
+        }
+        
+        // Построение по спискам кандидатов: вероятности берутся из готовой таблицы выбора,
+        // поэтому на шаге нет ни выделения памяти, ни вызовов Math.pow
+        public void buildTour(DistanceMatrix distances, ChoiceTable choiceTable, int[][] nearestNeighbors) {
+            int startCity = random.nextInt(tour.length);
+            visitCity(startCity, distances);
+            
+            while (currentIndex < tour.length) {
+                int nextCity = selectCandidate(choiceTable, nearestNeighbors);
+                if (nextCity < 0) {
+                    nextCity = choiceTable.selectFallback(tour[currentIndex - 1], visited, random);
+                }
+                visitCity(nextCity, distances);
+            }
+            
+            tourLength += distances.get(tour[tour.length - 1], tour[0]);
+        }
+        
+        // Рулетка среди непосещенных ближайших соседей; -1, если все они уже посещены
+        private int selectCandidate(ChoiceTable choiceTable, int[][] nearestNeighbors) {
+            int currentCity = tour[currentIndex - 1];
+            int[] neighbors = nearestNeighbors[currentCity];
+            
+            int firstUnvisited = -1;
+            double total = 0.0;
+            for (int r = 0; r < neighbors.length; r++) {
+                if (!visited[neighbors[r]]) {
+                    total += choiceTable.candidate(currentCity, r);
+                    if (firstUnvisited < 0) {
+                        firstUnvisited = neighbors[r];
+                    }
+                }
+            }
+            if (total <= 0.0) {
+                return firstUnvisited;
+            }
+            
+            double rand = random.nextDouble() * total;
+            double sum = 0.0;
+            for (int r = 0; r < neighbors.length; r++) {
+                if (!visited[neighbors[r]]) {
+                    sum += choiceTable.candidate(currentCity, r);
+                    if (sum >= rand) {
+                        return neighbors[r];
+                    }
+                }
+            }
+            return firstUnvisited;
+        }
+        
+        private void visitCity(int city, DistanceMatrix distances) {
+            if (currentIndex > 0) {
+                int prevCity = tour[currentIndex - 1];
+                tourLength += distances.get(prevCity, city);
+            }
+            tour[currentIndex++] = city;
+            visited[city] = true;
+        }
+        
+        public void improveTour() {
+            tourLength = localSearch.improve(tour, tourLength);
         }
         
         public void clear() {
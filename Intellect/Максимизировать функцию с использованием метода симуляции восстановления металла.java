@@ -1,71 +1,836 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
+import java.util.stream.IntStream;
 
 public class SimulatedAnnealing {
-    
-    // Целевая функция, которую мы хотим максимизировать
-    public static double targetFunction(double x, double y) {
-        return 1.0 / (1.0 + x*x + y*y);
+    private static final int SWAP_INTERVAL = 100; // Итераций между попытками обмена в параллельном отжиге
+    private static final int ACCEPTANCE_WINDOW = 100; // Окно скользящей доли принятых ходов
+
+    // Целевая функция над вектором любой размерности (максимизируется)
+    public interface Objective {
+        double evaluate(double[] point);
     }
-    
-    public static void main(String[] args) {
-        // Параметры алгоритма
-        double initialTemp = 1000.0;
-        double coolingRate = 0.003;
-        double minTemp = 1.0;
-        int maxIterations = 10000;
-        
-        // Генератор случайных чисел
-        Random random = new Random();
-        
-        // Начальное решение (случайная точка в диапазоне [-10, 10])
-        double currentX = -10 + 20 * random.nextDouble();
-        double currentY = -10 + 20 * random.nextDouble();
-        double currentEnergy = targetFunction(currentX, currentY);
-        
-        // Лучшее найденное решение
-        double bestX = currentX;
-        double bestY = currentY;
-        double bestEnergy = currentEnergy;
-        
-        double temp = initialTemp;
-        
-        for (int i = 0; i < maxIterations && temp > minTemp; i++) {
-            // Генерация нового соседнего решения
-            double newX = currentX + (random.nextDouble() - 0.5) * temp/10;
-            double newY = currentY + (random.nextDouble() - 0.5) * temp/10;
-            double newEnergy = targetFunction(newX, newY);
-            
+
+    // Условие остановки: проверяется перед каждой итерацией. Цепочки передают
+    // еще и скользящую долю принятых ходов, параллельный отжиг — долю обменов
+    public interface StopCondition {
+        boolean shouldStop(int iteration, double bestValue);
+
+        default boolean shouldStop(int iteration, double bestValue, double acceptanceRate) {
+            return shouldStop(iteration, bestValue);
+        }
+
+        // Экземпляр для еще одной цепочки, работающей одновременно с этой.
+        // Условиям без состояния копия не нужна
+        default StopCondition copy() {
+            return this;
+        }
+
+        static StopCondition maxIterations(int iterations) {
+            return (iteration, bestValue) -> iteration >= iterations;
+        }
+
+        static StopCondition targetValue(double target) {
+            return (iteration, bestValue) -> bestValue >= target;
+        }
+
+        // Застой: за последние window итераций лучшее значение выросло меньше,
+        // чем на tolerance, а доля принятых ходов почти не изменилась (цепочка
+        // замерзла или блуждает по плато). Без доли принятых ходов (вызов с двумя
+        // аргументами) остается только первый признак. Хранит состояние: новый запуск
+        // с нулевой итерации его сбрасывает, а параллельные цепочки получают свои копии
+        static StopCondition stalled(int window, double tolerance) {
+            return new StopCondition() {
+                private int markIteration = Integer.MAX_VALUE;
+                private double markBest;
+                private double markAcceptance;
+
+                @Override
+                public boolean shouldStop(int iteration, double bestValue) {
+                    return shouldStop(iteration, bestValue, Double.NaN);
+                }
+
+                @Override
+                public StopCondition copy() {
+                    return stalled(window, tolerance);
+                }
+
+                @Override
+                public boolean shouldStop(int iteration, double bestValue, double acceptanceRate) {
+                    if (iteration < markIteration) {
+                        markIteration = iteration;
+                        markBest = bestValue;
+                        markAcceptance = acceptanceRate;
+                        return false;
+                    }
+                    if (iteration - markIteration < window) {
+                        return false;
+                    }
+                    boolean frozen = Double.isNaN(acceptanceRate) || Double.isNaN(markAcceptance)
+                            || Math.abs(acceptanceRate - markAcceptance) < 0.05;
+                    boolean stalled = bestValue - markBest < tolerance && frozen;
+                    markIteration = iteration;
+                    markBest = bestValue;
+                    markAcceptance = acceptanceRate;
+                    return stalled;
+                }
+            };
+        }
+
+        default StopCondition or(StopCondition other) {
+            StopCondition self = this;
+            return new StopCondition() {
+                @Override
+                public boolean shouldStop(int iteration, double bestValue) {
+                    return self.shouldStop(iteration, bestValue) || other.shouldStop(iteration, bestValue);
+                }
+
+                @Override
+                public boolean shouldStop(int iteration, double bestValue, double acceptanceRate) {
+                    // Оба условия вызываются всегда, чтобы условия с состоянием видели каждую итерацию
+                    boolean first = self.shouldStop(iteration, bestValue, acceptanceRate);
+                    boolean second = other.shouldStop(iteration, bestValue, acceptanceRate);
+                    return first || second;
+                }
+
+                @Override
+                public StopCondition copy() {
+                    StopCondition first = self.copy();
+                    StopCondition second = other.copy();
+                    return first == self && second == other ? this : first.or(second);
+                }
+            };
+        }
+    }
+
+    // Расписание охлаждения: температура следующей итерации по текущей,
+    // номеру итерации и скользящей доле принятых ходов
+    public interface CoolingSchedule {
+        double next(double temp, int iteration, double acceptanceRate);
+
+        // T(k+1) = T(k)·(1 - rate) — исходное расписание
+        static CoolingSchedule geometric(double rate) {
+            return (temp, iteration, acceptanceRate) -> temp * (1 - rate);
+        }
+
+        // T(k) = T0 / ln(k + e): теоретически гарантирует сходимость, но очень медленно
+        static CoolingSchedule logarithmic(double initialTemp) {
+            return (temp, iteration, acceptanceRate) -> initialTemp / Math.log(iteration + Math.E);
+        }
+
+        // Лунди–Мис: T(k+1) = T(k) / (1 + beta·T(k)), быстро при высокой температуре и медленно при низкой
+        static CoolingSchedule lundyMees(double beta) {
+            return (temp, iteration, acceptanceRate) -> temp / (1 + beta * temp);
+        }
+
+        // Удерживает долю принятых ходов около targetAcceptance: охлаждает, пока
+        // принимается больше, и нагревает, когда меньше. Останавливать такую
+        // цепочку нужно условием stalled или пределом итераций
+        static CoolingSchedule adaptive(double targetAcceptance, double rate) {
+            return (temp, iteration, acceptanceRate) ->
+                    acceptanceRate > targetAcceptance ? temp * (1 - rate) : temp * (1 + rate);
+        }
+    }
+
+    // Область поиска: отдельные границы для каждой координаты
+    public static final class Bounds {
+        private final double[] lower;
+        private final double[] upper;
+
+        public Bounds(double[] lower, double[] upper) {
+            if (lower.length != upper.length) {
+                throw new IllegalArgumentException("Размерности границ не совпадают");
+            }
+            this.lower = lower.clone();
+            this.upper = upper.clone();
+        }
+
+        public static Bounds uniform(int dimension, double lower, double upper) {
+            double[] lo = new double[dimension];
+            double[] hi = new double[dimension];
+            Arrays.fill(lo, lower);
+            Arrays.fill(hi, upper);
+            return new Bounds(lo, hi);
+        }
+
+        public int dimension() {
+            return lower.length;
+        }
+
+        double random(int i, RandomGenerator random) {
+            return lower[i] + random.nextDouble() * (upper[i] - lower[i]);
+        }
+
+        double clamp(int i, double value) {
+            return Math.max(lower[i], Math.min(upper[i], value));
+        }
+    }
+
+    // Лучшая найденная точка и затраты на ее поиск
+    public static final class Result {
+        public final double[] point;
+        public final double value;
+        public final int iterations;
+        public final long evaluations;
+
+        Result(double[] point, double value, int iterations, long evaluations) {
+            this.point = point;
+            this.value = value;
+            this.iterations = iterations;
+            this.evaluations = evaluations;
+        }
+    }
+
+    // Получатель статистики итераций: значения приходят примитивами, точки —
+    // рабочими массивами цепочки без копирования (хранить их нельзя), а
+    // форматирование, если оно нужно, делает сам приемник
+    public interface ProgressListener extends AutoCloseable {
+        void onIteration(int iteration, double temperature, double[] currentPoint, double currentValue,
+                         double[] bestPoint, double bestValue, double acceptanceRate);
+
+        @Override
+        default void close() {
+        }
+
+        static ProgressListener none() {
+            return (iteration, temperature, currentPoint, currentValue, bestPoint, bestValue, acceptanceRate) -> {
+            };
+        }
+
+        // Текстовый вывод каждые every итераций в прежнем формате; остальные вызовы стоят одну проверку
+        static ProgressListener sampled(int every) {
+            return sampled(every, System.out);
+        }
+
+        static ProgressListener sampled(int every, PrintStream out) {
+            return (iteration, temperature, currentPoint, currentValue, bestPoint, bestValue, acceptanceRate) -> {
+                if (iteration % every == 0) {
+                    out.printf("Iteration: %d, Temp: %.2f, Current: %s = %.6f, Best: %s = %.6f%n",
+                            iteration, temperature, Arrays.toString(currentPoint), currentValue,
+                            Arrays.toString(bestPoint), bestValue);
+                }
+            };
+        }
+
+        // Каждая every-я итерация — строка CSV или JSON Lines; запись буферизована и асинхронна
+        static ProgressListener csv(Path file, int every) throws IOException {
+            return file(file, false, every);
+        }
+
+        static ProgressListener jsonl(Path file, int every) throws IOException {
+            return file(file, true, every);
+        }
+
+        private static ProgressListener file(Path file, boolean json, int every) throws IOException {
+            RecordSink sink = new RecordSink(file, json, "iteration", "temperature", "current", "best", "acceptance");
+            return new ProgressListener() {
+                @Override
+                public void onIteration(int iteration, double temperature, double[] currentPoint, double currentValue,
+                                        double[] bestPoint, double bestValue, double acceptanceRate) {
+                    if (iteration % every != 0) {
+                        return;
+                    }
+                    sink.put(iteration);
+                    sink.put(temperature);
+                    sink.put(currentValue);
+                    sink.put(bestValue);
+                    sink.put(acceptanceRate);
+                }
+
+                @Override
+                public void close() {
+                    sink.close();
+                }
+            };
+        }
+    }
+
+    // Файловый приемник: значения строки копируются в буфер примитивов, а
+    // форматирование и запись идут в фоновом потоке. Буферов два: пока один
+    // пишется, следующий заполняется
+    private static final class RecordSink {
+        private static final int ROWS = 4096;
+        private final String[] columns;
+        private final boolean json;
+        private final Writer out;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "progress-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final double[][] buffers;
+        private Future<?> pending = CompletableFuture.completedFuture(null);
+        private int turn;
+        private int size;
+
+        RecordSink(Path file, boolean json, String... columns) throws IOException {
+            this.columns = columns;
+            this.json = json;
+            this.buffers = new double[2][ROWS * columns.length];
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            if (!json) {
+                out.write(String.join(",", columns));
+                out.write('\n');
+            }
+        }
+
+        void put(double value) {
+            buffers[turn][size++] = value;
+            if (size == buffers[turn].length) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            await();
+            double[] rows = buffers[turn];
+            int count = size;
+            pending = executor.submit(() -> {
+                write(rows, count);
+                return null;
+            });
+            turn ^= 1;
+            size = 0;
+        }
+
+        private void write(double[] rows, int count) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < count; row += columns.length) {
+                line.setLength(0);
+                line.append(json ? "{" : "");
+                for (int c = 0; c < columns.length; c++) {
+                    if (c > 0) {
+                        line.append(',');
+                    }
+                    if (json) {
+                        line.append('"').append(columns[c]).append("\":");
+                    }
+                    appendValue(line, rows[row + c]);
+                }
+                line.append(json ? "}\n" : "\n");
+                out.append(line);
+            }
+        }
+
+        // Целые значения без дробной части; NaN и бесконечности в JSON — null
+        private void appendValue(StringBuilder line, double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                line.append(json ? "null" : "");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                line.append((long) value);
+            } else {
+                line.append(value);
+            }
+        }
+
+        private void await() {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание записи прогресса прервано", e);
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException("Не удалось записать прогресс",
+                        e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+        }
+
+        void close() {
+            try {
+                flush();
+                await();
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Одна цепочка отжига: текущее и лучшее состояния и собственный генератор
+    private static final class Chain {
+        private final Objective objective;
+        private final Bounds bounds;
+        private final RandomGenerator random;
+        private double[] current;
+        private double[] candidate;
+        private final double[] best;
+        private double currentEnergy;
+        private double bestEnergy = Double.NEGATIVE_INFINITY;
+        private long evaluations;
+
+        Chain(Objective objective, Bounds bounds, RandomGenerator random) {
+            this.objective = objective;
+            this.bounds = bounds;
+            this.random = random;
+            int dimension = bounds.dimension();
+            this.current = new double[dimension];
+            this.candidate = new double[dimension];
+            this.best = new double[dimension];
+            restart();
+        }
+
+        // Новая случайная начальная точка; лучшее решение сохраняется
+        void restart() {
+            for (int d = 0; d < current.length; d++) {
+                current[d] = bounds.random(d, random);
+            }
+            currentEnergy = objective.evaluate(current);
+            evaluations++;
+            updateBest();
+        }
+
+        // Одна итерация при температуре temp; true, если ход принят
+        boolean step(double temp) {
+            // Генерация нового соседнего решения (не выходя из области поиска)
+            for (int d = 0; d < current.length; d++) {
+                candidate[d] = bounds.clamp(d, current[d] + (random.nextDouble() - 0.5) * temp/10);
+            }
+            double newEnergy = objective.evaluate(candidate);
+            evaluations++;
+
             // Разница энергий (мы максимизируем функцию)
             double deltaEnergy = newEnergy - currentEnergy;
-            
+
             // Если новое решение лучше, принимаем его
             // Если хуже, принимаем с некоторой вероятностью
-            if (deltaEnergy > 0 || 
-                random.nextDouble() < Math.exp(deltaEnergy / temp)) {
-                currentX = newX;
-                currentY = newY;
+            boolean accepted = deltaEnergy > 0 ||
+                random.nextDouble() < Math.exp(deltaEnergy / temp);
+            if (accepted) {
+                double[] swap = current;
+                current = candidate;
+                candidate = swap;
                 currentEnergy = newEnergy;
             }
-            
-            // Обновляем лучшее решение
+            updateBest();
+            return accepted;
+        }
+
+        private void updateBest() {
             if (currentEnergy > bestEnergy) {
-                bestX = currentX;
-                bestY = currentY;
+                System.arraycopy(current, 0, best, 0, current.length);
                 bestEnergy = currentEnergy;
             }
-            
+        }
+
+        // Обмен текущими состояниями с другой цепочкой (лучшие остаются на месте)
+        void exchange(Chain other) {
+            double[] state = current;
+            current = other.current;
+            other.current = state;
+            double energy = currentEnergy;
+            currentEnergy = other.currentEnergy;
+            other.currentEnergy = energy;
+        }
+    }
+
+    // Параметры алгоритма
+    private final double initialTemp;
+    private final double coolingRate;
+    private final double minTemp;
+
+    private CoolingSchedule schedule;
+    private ProgressListener listener = ProgressListener.none();
+    private int reheatAfter;       // Итераций без улучшения до повторного нагрева (0 — не нагревать)
+    private double reheatFraction; // Доля начальной температуры при нагреве
+
+    public SimulatedAnnealing(double initialTemp, double coolingRate, double minTemp) {
+        this.initialTemp = initialTemp;
+        this.coolingRate = coolingRate;
+        this.minTemp = minTemp;
+        this.schedule = CoolingSchedule.geometric(coolingRate);
+    }
+
+    public void setSchedule(CoolingSchedule schedule) {
+        this.schedule = schedule;
+    }
+
+    // Получатель прогресса одиночной цепочки и параллельного отжига (перезапуски
+    // идут в нескольких потоках сразу и прогресс не сообщают)
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    // Повторный нагрев до fraction·initialTemp, если лучшее значение
+    // не улучшалось stallIterations итераций
+    public void setReheating(int stallIterations, double fraction) {
+        this.reheatAfter = stallIterations;
+        this.reheatFraction = fraction;
+    }
+
+    // Температура после итерации: расписание и, при застое, повторный нагрев.
+    // stall[0] — число итераций без улучшения лучшего значения
+    private double cool(double temp, int iteration, double acceptanceRate, boolean improved, int[] stall) {
+        temp = schedule.next(temp, iteration, acceptanceRate);
+        if (reheatAfter > 0) {
+            stall[0] = improved ? 0 : stall[0] + 1;
+            if (stall[0] >= reheatAfter) {
+                temp = Math.max(temp, initialTemp * reheatFraction);
+                stall[0] = 0;
+            }
+        }
+        return temp;
+    }
+
+    // Целевая функция, которую мы хотим максимизировать
+    public static double targetFunction(double x, double y) {
+        return 1.0 / (1.0 + x*x + y*y);
+    }
+
+    public Result optimize(Objective objective, Bounds bounds, StopCondition stopCondition, Random random) {
+        // Начальное решение (случайная точка в области поиска)
+        Chain chain = new Chain(objective, bounds, random);
+        double temp = initialTemp;
+        double acceptanceRate = 1.0;
+        int[] stall = new int[1];
+
+        int i = 0;
+        for (; !stopCondition.shouldStop(i, chain.bestEnergy, acceptanceRate) && temp > minTemp; i++) {
+            double before = chain.bestEnergy;
+            boolean accepted = chain.step(temp);
+            acceptanceRate += ((accepted ? 1.0 : 0.0) - acceptanceRate) / ACCEPTANCE_WINDOW;
+
             // Охлаждение
-            temp *= 1 - coolingRate;
-            
-            // Вывод прогресса
-            if (i % 100 == 0) {
-                System.out.printf("Iteration: %d, Temp: %.2f, Current: (%.4f, %.4f) = %.6f, Best: (%.4f, %.4f) = %.6f%n",
-                                 i, temp, currentX, currentY, currentEnergy, bestX, bestY, bestEnergy);
+            temp = cool(temp, i + 1, acceptanceRate, chain.bestEnergy > before, stall);
+
+            // Прогресс
+            listener.onIteration(i, temp, chain.current, chain.currentEnergy, chain.best, chain.bestEnergy, acceptanceRate);
+        }
+
+        return new Result(chain.best.clone(), chain.bestEnergy, i, chain.evaluations);
+    }
+
+    // Независимые перезапуски: chains цепочек параллельно, каждая после остывания
+    // начинает заново из случайной точки, пока не сработает ее копия условия
+    // остановки. Генераторы цепочек выделяются из seed заранее, поэтому результат
+    // не зависит от числа потоков пула
+    public Result restarts(Objective objective, Bounds bounds, StopCondition stopCondition,
+                           int chains, long seed, ForkJoinPool pool) {
+        SplittableRandom seeds = new SplittableRandom(seed);
+        Chain[] all = new Chain[chains];
+        for (int c = 0; c < chains; c++) {
+            all[c] = new Chain(objective, bounds, seeds.split());
+        }
+        StopCondition[] stops = new StopCondition[chains];
+        for (int c = 0; c < chains; c++) {
+            stops[c] = stopCondition.copy();
+        }
+        int[] iterations = new int[chains];
+        pool.submit(() -> IntStream.range(0, chains).parallel().forEach(c -> {
+            Chain chain = all[c];
+            StopCondition stop = stops[c];
+            double temp = initialTemp;
+            double acceptanceRate = 1.0;
+            int[] stall = new int[1];
+            int i = 0;
+            int start = 0;
+            for (; !stop.shouldStop(i, chain.bestEnergy, acceptanceRate); i++) {
+                if (temp <= minTemp) {
+                    chain.restart();
+                    temp = initialTemp;
+                    acceptanceRate = 1.0;
+                    start = i;
+                }
+                double before = chain.bestEnergy;
+                boolean accepted = chain.step(temp);
+                acceptanceRate += ((accepted ? 1.0 : 0.0) - acceptanceRate) / ACCEPTANCE_WINDOW;
+                temp = cool(temp, i - start + 1, acceptanceRate, chain.bestEnergy > before, stall);
             }
+            iterations[c] = i;
+        })).join();
+        return combine(all, Arrays.stream(iterations).max().orElse(0));
+    }
+
+    // Параллельный отжиг (replica exchange): replicas цепочек при постоянных
+    // температурах геометрической лестницы от minTemp до initialTemp. Между
+    // обменами цепочки работают независимо на разных ядрах, затем соседние по
+    // температуре пытаются обменяться состояниями по критерию Метрополиса.
+    // Условие остановки проверяется раз в SWAP_INTERVAL итераций и вместо доли
+    // принятых ходов получает долю удавшихся обменов
+    public Result parallelTempering(Objective objective, Bounds bounds, StopCondition stopCondition,
+                                    int replicas, long seed, ForkJoinPool pool) {
+        if (replicas < 2) {
+            throw new IllegalArgumentException("Нужно не меньше двух реплик");
         }
-        
+        SplittableRandom seeds = new SplittableRandom(seed);
+        SplittableRandom swapRandom = seeds.split();
+        Chain[] chains = new Chain[replicas];
+        double[] temps = new double[replicas];
+        for (int r = 0; r < replicas; r++) {
+            chains[r] = new Chain(objective, bounds, seeds.split());
+            temps[r] = minTemp * Math.pow(initialTemp / minTemp, (double) r / (replicas - 1));
+        }
+
+        int iteration = 0;
+        int round = 0;
+        // Скользящая доля обменов по последним попыткам, как доля принятых ходов у цепочек:
+        // накопленная за весь запуск доля сходится и перестает отражать текущее состояние
+        double swapRate = 1.0;
+        while (!stopCondition.shouldStop(iteration, bestEnergy(chains), swapRate)) {
+            pool.submit(() -> IntStream.range(0, replicas).parallel().forEach(r -> {
+                for (int k = 0; k < SWAP_INTERVAL; k++) {
+                    chains[r].step(temps[r]);
+                }
+            })).join();
+            iteration += SWAP_INTERVAL;
+
+            // Обмены в парах (0,1), (2,3)... и (1,2), (3,4)... по очереди.
+            // Вероятность min(1, exp((E_j - E_i)(1/T_i - 1/T_j))) сохраняет
+            // распределение exp(E/T) на каждой температуре
+            for (int r = round % 2; r + 1 < replicas; r += 2) {
+                double delta = (chains[r + 1].currentEnergy - chains[r].currentEnergy) * (1 / temps[r] - 1 / temps[r + 1]);
+                boolean swapped = delta >= 0 || swapRandom.nextDouble() < Math.exp(delta);
+                if (swapped) {
+                    chains[r].exchange(chains[r + 1]);
+                }
+                swapRate += ((swapped ? 1.0 : 0.0) - swapRate) / ACCEPTANCE_WINDOW;
+            }
+            round++;
+
+            // Прогресс самой холодной реплики; вместо доли принятых ходов — доля обменов
+            Chain best = bestChain(chains);
+            listener.onIteration(iteration, temps[0], chains[0].current, chains[0].currentEnergy,
+                    best.best, best.bestEnergy, swapRate);
+        }
+        return combine(chains, iteration);
+    }
+
+    private static double bestEnergy(Chain[] chains) {
+        return bestChain(chains).bestEnergy;
+    }
+
+    private static Chain bestChain(Chain[] chains) {
+        Chain best = chains[0];
+        for (Chain chain : chains) {
+            if (chain.bestEnergy > best.bestEnergy) {
+                best = chain;
+            }
+        }
+        return best;
+    }
+
+    // Лучшая точка среди цепочек и суммарное число вычислений
+    private static Result combine(Chain[] chains, int iterations) {
+        Chain best = bestChain(chains);
+        long evaluations = 0;
+        for (Chain chain : chains) {
+            evaluations += chain.evaluations;
+        }
+        return new Result(best.best.clone(), best.bestEnergy, iterations, evaluations);
+    }
+
+    // Функция Растригина в виде 1 / (1 + g(x)): много локальных максимумов
+    static double rastrigin(double[] point) {
+        double sum = 10.0 * point.length;
+        for (double value : point) {
+            sum += value * value - 10.0 * Math.cos(2 * Math.PI * value);
+        }
+        return 1.0 / (1.0 + sum);
+    }
+
+    // Цена наблюдения за дешевой целевой функцией: нс на итерацию без приемника,
+    // с прежним printf с Arrays.toString каждые 100 итераций, с выборочным
+    // текстом (оба в пустой поток) и с асинхронными CSV/JSONL
+    private static void benchmarkListeners() {
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        ProgressListener legacy = (iteration, temperature, currentPoint, currentValue, bestPoint, bestValue,
+                                   acceptanceRate) -> {
+            if (iteration % 100 == 0) {
+                discard.printf("Iteration: %d, Temp: %.2f, Current: %s = %.6f, Best: %s = %.6f%n", iteration, temperature,
+                        Arrays.toString(currentPoint), currentValue, Arrays.toString(bestPoint), bestValue);
+            }
+        };
+        int iterations = 2_000_000;
+        String[] names = {"без приемника", "printf каждые 100", "sampled(100)", "CSV каждые 100", "JSONL каждые 100",
+                "CSV каждую", "JSONL каждую"};
+        System.out.println("Приемник          | нс/итерацию");
+        try {
+            Path file = Files.createTempFile("progress", ".log");
+            try {
+                // Первый проход — прогрев JIT, дальше берется лучшее из трех
+                double[] best = new double[names.length];
+                Arrays.fill(best, Double.MAX_VALUE);
+                for (int pass = 0; pass < 4; pass++) {
+                    for (int v = 0; v < names.length; v++) {
+                        SimulatedAnnealing annealing = new SimulatedAnnealing(10.0, 1e-7, 1e-9);
+                        ProgressListener listener = v == 0 ? ProgressListener.none()
+                                : v == 1 ? legacy
+                                : v == 2 ? ProgressListener.sampled(100, discard)
+                                : v == 3 ? ProgressListener.csv(file, 100)
+                                : v == 4 ? ProgressListener.jsonl(file, 100)
+                                : v == 5 ? ProgressListener.csv(file, 1) : ProgressListener.jsonl(file, 1);
+                        long start = System.nanoTime();
+                        try (ProgressListener closing = listener) {
+                            annealing.setListener(closing);
+                            annealing.optimize(point -> targetFunction(point[0], point[1]), Bounds.uniform(2, -10, 10),
+                                    StopCondition.maxIterations(iterations), new Random(1));
+                        }
+                        if (pass > 0) {
+                            best[v] = Math.min(best[v], (System.nanoTime() - start) / (double) iterations);
+                        }
+                    }
+                }
+                for (int v = 0; v < names.length; v++) {
+                    System.out.printf("%-17s | %11.1f%n", names[v], best[v]);
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Вычисления до целевого значения для каждого расписания на стандартных
+    // функциях (все в виде 1 / (1 + g(x)), максимум 1). Запуск заканчивается
+    // по цели, по застою (кроме отмеченной строки) или через MAX итераций
+    private static void benchmarkSchedules() {
+        int runs = 20;
+        int maxIterations = 200_000;
+        String[] functions = {"Сфера", "Растригин", "Розенброк"};
+        Objective[] objectives = {
+            point -> targetFunction(point[0], point[1]),
+            SimulatedAnnealing::rastrigin,
+            point -> {
+                double a = point[1] - point[0] * point[0];
+                double b = 1.0 - point[0];
+                return 1.0 / (1.0 + 100.0 * a * a + b * b);
+            }
+        };
+        double[] targets = {0.99, 0.5, 0.9};
+        String[] schedules = {"геометрическое", "геом. без останова", "логарифмическое", "Лунди–Мис",
+                "адаптивное", "геом. + нагрев"};
+        System.out.println("Функция    | Расписание         | Достигли | Медиана до цели | Среднее всего");
+        for (int f = 0; f < objectives.length; f++) {
+            for (int v = 0; v < schedules.length; v++) {
+                SimulatedAnnealing annealing = new SimulatedAnnealing(10.0, 0.0003, 1e-4);
+                switch (v) {
+                    case 2:
+                        annealing.setSchedule(CoolingSchedule.logarithmic(10.0));
+                        break;
+                    case 3:
+                        // От 10 до 1e-4 за то же число итераций, что и геометрическое (около 38000)
+                        annealing.setSchedule(CoolingSchedule.lundyMees(0.26));
+                        break;
+                    case 4:
+                        annealing.setSchedule(CoolingSchedule.adaptive(0.2, 0.001));
+                        break;
+                    case 5:
+                        annealing.setReheating(3000, 0.1);
+                        break;
+                    default:
+                        break;
+                }
+                long[] reached = new long[runs];
+                int successes = 0;
+                long total = 0;
+                for (int run = 0; run < runs; run++) {
+                    StopCondition stop = StopCondition.targetValue(targets[f])
+                            .or(StopCondition.maxIterations(maxIterations));
+                    if (v != 1) {
+                        stop = stop.or(StopCondition.stalled(5000, 1e-4));
+                    }
+                    Result result = annealing.optimize(objectives[f], Bounds.uniform(2, -5, 5), stop, new Random(run));
+                    total += result.evaluations;
+                    if (result.value >= targets[f]) {
+                        reached[successes++] = result.evaluations;
+                    }
+                }
+                Arrays.sort(reached, 0, successes);
+                System.out.printf("%-10s | %-18s | %5d/%-2d | %15s | %13d%n", functions[f], schedules[v], successes, runs,
+                        successes == 0 ? "—" : Long.toString(reached[successes / 2]), total / runs);
+            }
+        }
+    }
+
+    // Качество за фиксированное время при разном числе потоков: цепочек
+    // (и реплик) столько же, сколько потоков, но не меньше двух реплик
+    private static void benchmarkChains() {
+        SimulatedAnnealing annealing = new SimulatedAnnealing(10.0, 0.001, 0.01);
+        Bounds bounds = Bounds.uniform(10, -5.12, 5.12);
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        StopCondition fixed = StopCondition.maxIterations(20_000);
+        Result a = annealing.parallelTempering(SimulatedAnnealing::rastrigin, bounds, fixed, 4, 42, one);
+        Result b = annealing.parallelTempering(SimulatedAnnealing::rastrigin, bounds, fixed, 4, 42, four);
+        Result c = annealing.restarts(SimulatedAnnealing::rastrigin, bounds, fixed, 4, 42, one);
+        Result d = annealing.restarts(SimulatedAnnealing::rastrigin, bounds, fixed, 4, 42, four);
+        one.shutdown();
+        four.shutdown();
+        System.out.println("Результат не зависит от числа потоков: "
+                + (Arrays.equals(a.point, b.point) && Arrays.equals(c.point, d.point)));
+
+        int seeds = 3;
+        long budget = 300_000_000L;
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        System.out.println("Потоки | Перезапуски: значение, вычислений | Параллельный отжиг: значение, вычислений");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double restartValue = 0;
+            double temperingValue = 0;
+            long restartEvaluations = 0;
+            long temperingEvaluations = 0;
+            for (int seed = 0; seed < seeds; seed++) {
+                long deadline = System.nanoTime() + budget;
+                StopCondition time = (iteration, bestValue) -> System.nanoTime() >= deadline;
+                Result restart = annealing.restarts(SimulatedAnnealing::rastrigin, bounds, time, threads, seed, pool);
+                long temperingDeadline = System.nanoTime() + budget;
+                StopCondition temperingTime = (iteration, bestValue) -> System.nanoTime() >= temperingDeadline;
+                Result tempering = annealing.parallelTempering(SimulatedAnnealing::rastrigin, bounds, temperingTime,
+                        Math.max(2, threads), seed, pool);
+                restartValue += restart.value;
+                restartEvaluations += restart.evaluations;
+                temperingValue += tempering.value;
+                temperingEvaluations += tempering.evaluations;
+            }
+            pool.shutdown();
+            System.out.printf("%6d | %11.5f, %20d | %18.5f, %20d%n", threads, restartValue / seeds,
+                    restartEvaluations / seeds, temperingValue / seeds, temperingEvaluations / seeds);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkSchedules();
+            benchmarkChains();
+            benchmarkListeners();
+            return;
+        }
+
+        // Параметры алгоритма
+        double initialTemp = 1000.0;
+        double coolingRate = 0.003;
+        double minTemp = 1.0;
+        int maxIterations = 10000;
+
+        // Генератор случайных чисел
+        Random random = new Random();
+
+        // Исходная задача: две переменные в диапазоне [-10, 10]
+        SimulatedAnnealing annealing = new SimulatedAnnealing(initialTemp, coolingRate, minTemp);
+        annealing.setListener(ProgressListener.sampled(100));
+        Result result = annealing.optimize(point -> targetFunction(point[0], point[1]),
+                Bounds.uniform(2, -10, 10), StopCondition.maxIterations(maxIterations), random);
+
         System.out.println("\nOptimization completed!");
-        System.out.printf("Best solution found: (%.4f, %.4f)%n", bestX, bestY);
-        System.out.printf("Maximum value: %.6f%n", bestEnergy);
+        System.out.printf("Best solution found: (%.4f, %.4f)%n", result.point[0], result.point[1]);
+        System.out.printf("Maximum value: %.6f%n", result.value);
     }
 }
@@ -1,117 +1,1657 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 public class GeneticAlgorithm {
     private static final int POPULATION_SIZE = 100;
     private static final int MAX_GENERATIONS = 1000;
     private static final double MUTATION_RATE = 0.1;
     private static final double CROSSOVER_RATE = 0.8;
+    private static final int MIGRATION_INTERVAL = 10; // Поколений между отправками мигрантов
+    private static final int MIGRANTS = 2;            // Сколько лучших особей уходит за раз
 
-    private static Random random = new Random();
+    // Целевая функция над вектором любой размерности (максимизируется).
+    // Для селекции рулеткой значения должны быть неотрицательными.
+    // При параллельном вычислении функция вызывается из нескольких потоков сразу
+    public interface Objective {
+        double evaluate(double[] point);
+    }
+
+    // Условие остановки: проверяется после каждого поколения
+    public interface StopCondition {
+        boolean shouldStop(int generation, double bestValue);
 
-    // Класс для хранения особей
-    static class Individual {
-        double x, y;
-        double fitness;
+        static StopCondition maxGenerations(int generations) {
+            return (generation, bestValue) -> generation >= generations;
+        }
 
-        Individual(double x, double y) {
-            this.x = x;
-            this.y = y;
-            this.fitness = evaluateFitness(x, y);
+        static StopCondition targetValue(double target) {
+            return (generation, bestValue) -> bestValue >= target;
         }
 
-        static double evaluateFitness(double x, double y) {
-            return 1.0 / (1 + x * x + y * y);
+        default StopCondition or(StopCondition other) {
+            return (generation, bestValue) -> shouldStop(generation, bestValue) || other.shouldStop(generation, bestValue);
         }
     }
 
-    // Инициализация популяции
-    private static ArrayList<Individual> initializePopulation() {
-        ArrayList<Individual> population = new ArrayList<>();
-        for (int i = 0; i < POPULATION_SIZE; i++) {
-            double x = random.nextDouble() * 10 - 5; // Диапазон [-5, 5]
-            double y = random.nextDouble() * 10 - 5;
-            population.add(new Individual(x, y));
+    // Область поиска: отдельные границы для каждой координаты
+    public static final class Bounds {
+        private final double[] lower;
+        private final double[] upper;
+
+        public Bounds(double[] lower, double[] upper) {
+            if (lower.length != upper.length) {
+                throw new IllegalArgumentException("Размерности границ не совпадают");
+            }
+            this.lower = lower.clone();
+            this.upper = upper.clone();
+        }
+
+        public static Bounds uniform(int dimension, double lower, double upper) {
+            double[] lo = new double[dimension];
+            double[] hi = new double[dimension];
+            Arrays.fill(lo, lower);
+            Arrays.fill(hi, upper);
+            return new Bounds(lo, hi);
+        }
+
+        public int dimension() {
+            return lower.length;
+        }
+
+        double random(int i, Random random) {
+            return lower[i] + random.nextDouble() * (upper[i] - lower[i]);
+        }
+
+        double clamp(int i, double value) {
+            return Math.max(lower[i], Math.min(upper[i], value));
         }
-        return population;
     }
 
-    // Селекция методом элит
-    private static ArrayList<Individual> elitSelection(ArrayList<Individual> population) {
-        population.sort(Comparator.comparingDouble(i -> -i.fitness)); // Сортировка по убыванию фитнеса
-        return new ArrayList<>(population.subList(0, POPULATION_SIZE / 2)); // Сохраняем половину лучших
+    // Способ выполнить вычисление фитнеса для всего пакета особей поколения:
+    // task вызывается ровно один раз для каждого номера из [0, count)
+    public interface Evaluation extends AutoCloseable {
+        void forEach(int count, IntConsumer task);
+
+        @Override
+        default void close() {
+        }
+
+        static Evaluation sequential() {
+            return (count, task) -> {
+                for (int i = 0; i < count; i++) {
+                    task.accept(i);
+                }
+            };
+        }
+
+        // Общий ForkJoinPool через параллельные потоки
+        static Evaluation parallelStreams() {
+            return (count, task) -> IntStream.range(0, count).parallel().forEach(task);
+        }
+
+        // Пул фиксированного размера: пакет делится на равные куски по числу потоков
+        static Evaluation fixedPool(int threads) {
+            return new ExecutorEvaluation(Executors.newFixedThreadPool(threads), threads);
+        }
+
+        // Виртуальный поток на каждую особь: для целевых функций, которые ждут ввода-вывода.
+        // Требует JDK 21+, поэтому фабрика ищется через отражение
+        static Evaluation virtualThreads() {
+            try {
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                return new ExecutorEvaluation(executor, Integer.MAX_VALUE);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Виртуальные потоки доступны начиная с JDK 21", e);
+            }
+        }
+    }
+
+    private static final class ExecutorEvaluation implements Evaluation {
+        private final ExecutorService executor;
+        private final int chunks;
+
+        ExecutorEvaluation(ExecutorService executor, int chunks) {
+            this.executor = executor;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void forEach(int count, IntConsumer task) {
+            int parts = Math.min(chunks, count);
+            List<Callable<Void>> tasks = new ArrayList<>(parts);
+            for (int p = 0; p < parts; p++) {
+                int from = (int) ((long) count * p / parts);
+                int to = (int) ((long) count * (p + 1) / parts);
+                tasks.add(() -> {
+                    for (int i = from; i < to; i++) {
+                        task.accept(i);
+                    }
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Вычисление фитнеса прервано", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Ошибка при вычислении фитнеса", e.getCause());
+            }
+        }
+
+        @Override
+        public void close() {
+            executor.shutdown();
+        }
+    }
+
+    // Отбор родителей: заполняет selected номерами особей по их фитнесу.
+    // Реализации держат свои рабочие буферы, поэтому один объект не должен
+    // использоваться из нескольких потоков одновременно
+    public interface Selection {
+        void select(double[] fitness, int[] selected, Random random);
+
+        // Усечение: лучшая часть популяции, O(n) через частичную сортировку
+        static Selection elite() {
+            return new EliteSelection();
+        }
+
+        // Исходная рулетка: линейный проход от начала на каждый выбор, O(n·m)
+        static Selection roulette() {
+            return new LinearRoulette();
+        }
+
+        // Рулетка бинарным поиском по префиксным суммам, O(n + m·log n)
+        static Selection prefixSum() {
+            return new PrefixSumRoulette();
+        }
+
+        // Рулетка методом псевдонимов Возе, O(n + m)
+        static Selection alias() {
+            return new AliasRoulette();
+        }
+
+        // Турнир из size случайных особей, O(m·size)
+        static Selection tournament(int size) {
+            return new TournamentSelection(size);
+        }
+
+        // Стохастическая универсальная выборка: m равноотстоящих указателей
+        // на одном обороте рулетки, O(n + m)
+        static Selection stochasticUniversal() {
+            return new StochasticUniversalSampling();
+        }
+    }
+
+    private static double totalFitness(double[] fitness) {
+        double total = 0.0;
+        for (double value : fitness) {
+            total += value;
+        }
+        return total;
+    }
+
+    // При нулевом суммарном фитнесе пропорциональный отбор вырождается в равномерный
+    private static void selectUniform(int n, int[] selected, Random random) {
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = random.nextInt(n);
+        }
+    }
+
+    private static final class EliteSelection implements Selection {
+        private int[] order = new int[0];
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            if (order.length != n) {
+                order = new int[n];
+            }
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            selectTop(order, fitness, Math.min(selected.length, n));
+            for (int i = 0; i < selected.length; i++) {
+                selected[i] = order[i % n];
+            }
+        }
+    }
+
+    // Частичная быстрая сортировка: после вызова первые k элементов order
+    // указывают на особи с наибольшим фитнесом
+    private static void selectTop(int[] order, double[] fitness, int k) {
+        int left = 0;
+        int right = order.length - 1;
+        while (left < right) {
+            double pivot = fitness[order[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (fitness[order[i]] > pivot) {
+                    i++;
+                }
+                while (fitness[order[j]] < pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (k - 1 <= j) {
+                right = j;
+            } else if (k - 1 >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static final class LinearRoulette implements Selection {
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            double totalFitness = totalFitness(fitness);
+            for (int i = 0; i < selected.length; i++) {
+                double rand = random.nextDouble() * totalFitness;
+                double cumulativeFitness = 0.0;
+                int chosen = n - 1;
+                for (int j = 0; j < n; j++) {
+                    cumulativeFitness += fitness[j];
+                    if (cumulativeFitness >= rand) {
+                        chosen = j;
+                        break;
+                    }
+                }
+                selected[i] = chosen;
+            }
+        }
+    }
+
+    private static final class PrefixSumRoulette implements Selection {
+        private double[] prefix = new double[0];
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            if (prefix.length != n) {
+                prefix = new double[n];
+            }
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += fitness[i];
+                prefix[i] = sum;
+            }
+            if (sum <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+            for (int i = 0; i < selected.length; i++) {
+                // Первая особь, у которой префиксная сумма превышает случайную точку
+                double rand = random.nextDouble() * sum;
+                int lo = 0;
+                int hi = n - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (prefix[mid] > rand) {
+                        hi = mid;
+                    } else {
+                        lo = mid + 1;
+                    }
+                }
+                selected[i] = lo;
+            }
+        }
+    }
+
+    private static final class AliasRoulette implements Selection {
+        private double[] probability = new double[0];
+        private int[] alias = new int[0];
+        private int[] small = new int[0];
+        private int[] large = new int[0];
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            if (probability.length != n) {
+                probability = new double[n];
+                alias = new int[n];
+                small = new int[n];
+                large = new int[n];
+            }
+            double total = totalFitness(fitness);
+            if (total <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+
+            // Построение таблицы: каждая ячейка делится между особью и ее псевдонимом
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                probability[i] = fitness[i] * n / total;
+                if (probability[i] < 1.0) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                alias[less] = more;
+                probability[more] += probability[less] - 1.0;
+                if (probability[more] < 1.0) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            // Остатки из-за погрешности округления заполняют ячейку целиком
+            while (largeCount > 0) {
+                probability[large[--largeCount]] = 1.0;
+            }
+            while (smallCount > 0) {
+                probability[small[--smallCount]] = 1.0;
+            }
+
+            for (int i = 0; i < selected.length; i++) {
+                int column = random.nextInt(n);
+                selected[i] = random.nextDouble() < probability[column] ? column : alias[column];
+            }
+        }
+    }
+
+    private static final class TournamentSelection implements Selection {
+        private final int size;
+
+        TournamentSelection(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Размер турнира должен быть положительным");
+            }
+            this.size = size;
+        }
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            for (int i = 0; i < selected.length; i++) {
+                int winner = random.nextInt(n);
+                for (int k = 1; k < size; k++) {
+                    int challenger = random.nextInt(n);
+                    if (fitness[challenger] > fitness[winner]) {
+                        winner = challenger;
+                    }
+                }
+                selected[i] = winner;
+            }
+        }
+    }
+
+    private static final class StochasticUniversalSampling implements Selection {
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            double total = totalFitness(fitness);
+            if (total <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+            double step = total / selected.length;
+            double pointer = random.nextDouble() * step;
+            double cumulative = fitness[0];
+            int j = 0;
+            for (int i = 0; i < selected.length; i++) {
+                while (cumulative <= pointer && j < n - 1) {
+                    cumulative += fitness[++j];
+                }
+                selected[i] = j;
+                pointer += step;
+            }
+        }
+    }
+
+    // Канал миграции острова: пакет содержит особей подряд в виде
+    // [фитнес, гены...]; пустой пакет означает, что отправитель завершил работу
+    public interface Migration extends AutoCloseable {
+        // Отправить пакет следующему острову кольца
+        void emigrate(double[] packet);
+
+        // Забрать очередной пришедший пакет или null, если их нет
+        double[] immigrate();
+
+        @Override
+        default void close() {
+        }
+
+        // Кольцо островов внутри одной JVM: остров i отправляет острову i + 1
+        static List<Migration> ring(int islands) {
+            List<ConcurrentLinkedQueue<double[]>> inboxes = new ArrayList<>();
+            for (int i = 0; i < islands; i++) {
+                inboxes.add(new ConcurrentLinkedQueue<>());
+            }
+            List<Migration> channels = new ArrayList<>();
+            for (int i = 0; i < islands; i++) {
+                ConcurrentLinkedQueue<double[]> inbox = inboxes.get(i);
+                ConcurrentLinkedQueue<double[]> outbox = inboxes.get((i + 1) % islands);
+                channels.add(new Migration() {
+                    @Override
+                    public void emigrate(double[] packet) {
+                        outbox.offer(packet);
+                    }
+
+                    @Override
+                    public double[] immigrate() {
+                        return inbox.poll();
+                    }
+                });
+            }
+            return channels;
+        }
+
+        // Остров в отдельном процессе: принимает пакеты на listenPort и отправляет
+        // на targetPort, оба только на loopback-интерфейсе. Размерность задачи нужна,
+        // чтобы отбрасывать соединения, присылающие что-то кроме пакетов мигрантов
+        static Migration loopback(int listenPort, int targetPort, int dimension) {
+            try {
+                return new SocketMigration(listenPort, targetPort, dimension + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть порт миграции " + listenPort, e);
+            }
+        }
+    }
+
+    private static final class SocketMigration implements Migration {
+        private final ServerSocket server;
+        private final int targetPort;
+        private final int stride; // Длина записи одной особи: фитнес и гены
+        private final ConcurrentLinkedQueue<double[]> inbox = new ConcurrentLinkedQueue<>();
+        private Socket socket;
+        private DataOutputStream out;
+
+        SocketMigration(int listenPort, int targetPort, int stride) throws IOException {
+            this.server = new ServerSocket(listenPort, 50, InetAddress.getLoopbackAddress());
+            this.targetPort = targetPort;
+            this.stride = stride;
+            Thread receiver = new Thread(this::receive, "migration-" + listenPort);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        // Поток приема: пакеты из входящего соединения складываются в очередь.
+        // Длина пакета проверяется до выделения массива: пустой пакет или от 1 до
+        // MIGRANTS особей, иначе соединение закрывается
+        private void receive() {
+            while (!server.isClosed()) {
+                try (Socket client = server.accept();
+                     DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()))) {
+                    while (true) {
+                        int length = in.readInt();
+                        if (length < 0 || length > MIGRANTS * stride || length % stride != 0) {
+                            throw new IOException("Недопустимая длина пакета миграции: " + length);
+                        }
+                        double[] packet = new double[length];
+                        for (int i = 0; i < packet.length; i++) {
+                            packet[i] = in.readDouble();
+                        }
+                        inbox.offer(packet);
+                    }
+                } catch (IOException e) {
+                    // Сосед отключился, прислал не пакет мигрантов или канал закрыт:
+                    // ждем следующего подключения
+                }
+            }
+        }
+
+        @Override
+        public void emigrate(double[] packet) {
+            try {
+                if (out == null) {
+                    socket = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+                out.writeInt(packet.length);
+                for (double value : packet) {
+                    out.writeDouble(value);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // Миграция не обязательна: сосед еще не запущен или уже завершился
+                disconnect();
+            }
+        }
+
+        @Override
+        public double[] immigrate() {
+            return inbox.poll();
+        }
+
+        private void disconnect() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException ignored) {
+            }
+            socket = null;
+            out = null;
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Асинхронная запись снимков с двойной буферизацией: пока фоновый поток
+    // пишет один буфер, следующий снимок заполняет другой. Если диск не успевает
+    // и заняты оба буфера, снимок пропускается, а не останавливает эволюцию.
+    // Файл заменяется атомарно, поэтому при сбое остается предыдущий целый снимок
+    private static final class CheckpointWriter implements AutoCloseable {
+        private final Path file;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final ByteBuffer[] buffers = new ByteBuffer[2];
+        private final Future<?>[] writes = {CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(null)};
+        private int turn;
+
+        CheckpointWriter(Path file) {
+            this.file = file;
+        }
+
+        // Свободный буфер нужного размера или null, если его прошлая запись еще идет
+        ByteBuffer begin(int bytes) {
+            if (!writes[turn].isDone()) {
+                return null;
+            }
+            await(writes[turn]);
+            if (buffers[turn] == null || buffers[turn].capacity() < bytes) {
+                buffers[turn] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            ByteBuffer buffer = buffers[turn];
+            buffer.clear();
+            return buffer;
+        }
+
+        // Отдать заполненный буфер фоновому потоку
+        void commit() {
+            ByteBuffer buffer = buffers[turn];
+            buffer.flip();
+            writes[turn] = executor.submit(() -> {
+                write(buffer);
+                return null;
+            });
+            turn ^= 1;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void await(Future<?> write) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание записи снимка прервано", e);
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException("Не удалось записать снимок",
+                        e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (Future<?> write : writes) {
+                    await(write);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Тот же генератор, что и java.util.Random (алгоритмы next и nextGaussian
+    // из его документации, последовательности совпадают), но с открытым
+    // состоянием: снимок сохраняет его без сериализации объекта
+    static final class CheckpointRandom extends Random {
+        private static final long serialVersionUID = 1L;
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+        static final int STATE_BYTES = 8 + 8 + 4;
+
+        private long seed;
+        private double nextNextGaussian;
+        private boolean haveNextNextGaussian;
+
+        CheckpointRandom() {
+        }
+
+        CheckpointRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            this.seed = (seed ^ MULTIPLIER) & MASK;
+            this.haveNextNextGaussian = false;
+        }
+
+        @Override
+        protected int next(int bits) {
+            seed = (seed * MULTIPLIER + ADDEND) & MASK;
+            return (int) (seed >>> (48 - bits));
+        }
+
+        @Override
+        public double nextGaussian() {
+            if (haveNextNextGaussian) {
+                haveNextNextGaussian = false;
+                return nextNextGaussian;
+            }
+            double v1;
+            double v2;
+            double s;
+            do {
+                v1 = 2 * nextDouble() - 1;
+                v2 = 2 * nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            } while (s >= 1 || s == 0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+            nextNextGaussian = v2 * multiplier;
+            haveNextNextGaussian = true;
+            return v1 * multiplier;
+        }
+
+        void save(ByteBuffer buffer) {
+            buffer.putLong(seed).putDouble(nextNextGaussian).putInt(haveNextNextGaussian ? 1 : 0);
+        }
+
+        void load(ByteBuffer buffer) {
+            seed = buffer.getLong();
+            nextNextGaussian = buffer.getDouble();
+            haveNextNextGaussian = buffer.getInt() != 0;
+        }
+    }
+
+    // Получатель статистики поколений: значения приходят примитивами,
+    // а форматирование, если оно нужно, делает сам приемник
+    public interface ProgressListener extends AutoCloseable {
+        void onGeneration(int generation, double bestValue, double meanValue, long evaluations);
+
+        @Override
+        default void close() {
+        }
+
+        static ProgressListener none() {
+            return (generation, bestValue, meanValue, evaluations) -> {
+            };
+        }
+
+        // Текстовый вывод каждые every поколений; остальные вызовы стоят одну проверку
+        static ProgressListener sampled(int every) {
+            return sampled(every, System.out);
+        }
+
+        static ProgressListener sampled(int every, PrintStream out) {
+            return (generation, bestValue, meanValue, evaluations) -> {
+                if (generation % every == 0) {
+                    out.printf("Поколение %d: лучший фитнес = %.5f, средний = %.5f, вычислений = %d%n",
+                            generation, bestValue, meanValue, evaluations);
+                }
+            };
+        }
+
+        // Каждое every-е поколение — строка CSV или JSON Lines; запись буферизована и асинхронна
+        static ProgressListener csv(Path file, int every) throws IOException {
+            return file(file, false, every);
+        }
+
+        static ProgressListener jsonl(Path file, int every) throws IOException {
+            return file(file, true, every);
+        }
+
+        private static ProgressListener file(Path file, boolean json, int every) throws IOException {
+            RecordSink sink = new RecordSink(file, json, "generation", "best", "mean", "evaluations");
+            return new ProgressListener() {
+                @Override
+                public void onGeneration(int generation, double bestValue, double meanValue, long evaluations) {
+                    if (generation % every != 0) {
+                        return;
+                    }
+                    sink.put(generation);
+                    sink.put(bestValue);
+                    sink.put(meanValue);
+                    sink.put(evaluations);
+                }
+
+                @Override
+                public void close() {
+                    sink.close();
+                }
+            };
+        }
     }
 
-    // Селекция методом рулетки
-    private static ArrayList<Individual> rouletteSelection(ArrayList<Individual> population) {
-        ArrayList<Individual> selected = new ArrayList<>();
-        double totalFitness = population.stream().mapToDouble(i -> i.fitness).sum();
-        for (int i = 0; i < POPULATION_SIZE / 2; i++) {
-            double rand = random.nextDouble() * totalFitness;
-            double cumulativeFitness = 0.0;
-            for (Individual individual : population) {
-                cumulativeFitness += individual.fitness;
-                if (cumulativeFitness >= rand) {
-                    selected.add(individual);
-                    break;
+    // Файловый приемник: значения строки копируются в буфер примитивов, а
+    // форматирование и запись идут в фоновом потоке. Буферов два: пока один
+    // пишется, следующий заполняется
+    private static final class RecordSink {
+        private static final int ROWS = 4096;
+        private final String[] columns;
+        private final boolean json;
+        private final Writer out;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "progress-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final double[][] buffers;
+        private Future<?> pending = CompletableFuture.completedFuture(null);
+        private int turn;
+        private int size;
+
+        RecordSink(Path file, boolean json, String... columns) throws IOException {
+            this.columns = columns;
+            this.json = json;
+            this.buffers = new double[2][ROWS * columns.length];
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            if (!json) {
+                out.write(String.join(",", columns));
+                out.write('\n');
+            }
+        }
+
+        void put(double value) {
+            buffers[turn][size++] = value;
+            if (size == buffers[turn].length) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            await();
+            double[] rows = buffers[turn];
+            int count = size;
+            pending = executor.submit(() -> {
+                write(rows, count);
+                return null;
+            });
+            turn ^= 1;
+            size = 0;
+        }
+
+        private void write(double[] rows, int count) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int row = 0; row < count; row += columns.length) {
+                line.setLength(0);
+                line.append(json ? "{" : "");
+                for (int c = 0; c < columns.length; c++) {
+                    if (c > 0) {
+                        line.append(',');
+                    }
+                    if (json) {
+                        line.append('"').append(columns[c]).append("\":");
+                    }
+                    appendValue(line, rows[row + c]);
                 }
+                line.append(json ? "}\n" : "\n");
+                out.append(line);
+            }
+        }
+
+        // Целые значения без дробной части; NaN и бесконечности в JSON — null
+        private void appendValue(StringBuilder line, double value) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                line.append(json ? "null" : "");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                line.append((long) value);
+            } else {
+                line.append(value);
+            }
+        }
+
+        private void await() {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание записи прогресса прервано", e);
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException("Не удалось записать прогресс",
+                        e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+        }
+
+        void close() {
+            try {
+                flush();
+                await();
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                executor.shutdown();
             }
         }
-        return selected;
     }
 
-    // Кроссовер (одна точка)
-    private static Individual crossover(Individual parent1, Individual parent2) {
+    // Лучшая найденная точка и затраты на ее поиск
+    public static final class Result {
+        public final double[] point;
+        public final double value;
+        public final int generations;
+        public final long evaluations;
+
+        Result(double[] point, double value, int generations, long evaluations) {
+            this.point = point;
+            this.value = value;
+            this.generations = generations;
+            this.evaluations = evaluations;
+        }
+    }
+
+    // Популяция в виде плоских массивов: гены особи i занимают
+    // genes[i * dimension .. (i + 1) * dimension), NaN в fitness означает,
+    // что особь еще не оценена. Выделяется один раз на запуск
+    static final class Population {
+        final int size;
+        final int dimension;
+        final double[] genes;
+        final double[] fitness;
+
+        Population(int size, int dimension) {
+            this.size = size;
+            this.dimension = dimension;
+            this.genes = new double[size * dimension];
+            this.fitness = new double[size];
+        }
+
+        void copy(int from, Population target, int to) {
+            System.arraycopy(genes, from * dimension, target.genes, to * dimension, dimension);
+            target.fitness[to] = fitness[from];
+        }
+    }
+
+    private final Objective objective;
+    private final Bounds bounds;
+    private final int populationSize;
+    private Evaluation evaluation = Evaluation.sequential();
+    private CheckpointRandom random = new CheckpointRandom();
+    private Migration migration;
+    private ProgressListener listener = ProgressListener.none();
+    private boolean stopRequested;
+    private Path checkpointFile;
+    private int checkpointInterval;
+    private CheckpointWriter checkpointWriter;
+    private long checkpointNanos;
+    private long evaluations;
+
+    // Буферы одного запуска: текущее и следующее поколения меняются местами,
+    // так что в установившемся режиме поколение ничего не выделяет
+    private Population current;
+    private Population next;
+    private int[] order;
+    private int[] selected;
+    private int[] pending;
+    private ThreadLocal<double[]> points;
+    private IntConsumer evaluateTask;
+
+    public GeneticAlgorithm(Objective objective, Bounds bounds) {
+        this(objective, bounds, POPULATION_SIZE);
+    }
+
+    public GeneticAlgorithm(Objective objective, Bounds bounds, int populationSize) {
+        if (populationSize < 2) {
+            throw new IllegalArgumentException("В популяции должно быть не меньше двух особей");
+        }
+        this.objective = objective;
+        this.bounds = bounds;
+        this.populationSize = populationSize;
+    }
+
+    public void setEvaluation(Evaluation evaluation) {
+        this.evaluation = evaluation;
+    }
+
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    public void setSeed(long seed) {
+        this.random = new CheckpointRandom(seed);
+    }
+
+    // Снимок состояния в file каждые interval поколений; продолжить запуск
+    // после сбоя можно через resume
+    public void setCheckpoint(Path file, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Интервал снимков должен быть положительным");
+        }
+        this.checkpointFile = file;
+        this.checkpointInterval = interval;
+    }
+
+    // Работа острова: обмен лучшими особями через канал migration
+    public void setMigration(Migration migration) {
+        this.migration = migration;
+    }
+
+    // Функция Растригина в виде 1 / (1 + g(x)): много локальных максимумов
+    static double rastrigin(double[] point) {
+        double sum = 10.0 * point.length;
+        for (double value : point) {
+            sum += value * value - 10.0 * Math.cos(2 * Math.PI * value);
+        }
+        return 1.0 / (1.0 + sum);
+    }
+
+    // Исходная задача: f(x, y) = 1 / (1 + x² + y²)
+    static double evaluateFitness(double[] point) {
+        double sum = 1;
+        for (double value : point) {
+            sum += value * value;
+        }
+        return 1.0 / sum;
+    }
+
+    // Буферы запуска
+    private void allocate() {
+        int dimension = bounds.dimension();
+        current = new Population(populationSize, dimension);
+        next = new Population(populationSize, dimension);
+        order = new int[populationSize];
+        selected = new int[populationSize / 2];
+        pending = new int[populationSize];
+        points = ThreadLocal.withInitial(() -> new double[dimension]);
+        evaluateTask = i -> {
+            // Целевая функция получает отдельный массив своего потока
+            int index = pending[i];
+            double[] point = points.get();
+            System.arraycopy(current.genes, index * dimension, point, 0, dimension);
+            current.fitness[index] = objective.evaluate(point);
+        };
+    }
+
+    // Инициализация популяции
+    private void initializePopulation() {
+        int dimension = bounds.dimension();
+        for (int i = 0; i < populationSize; i++) {
+            for (int g = 0; g < dimension; g++) {
+                current.genes[i * dimension + g] = bounds.random(g, random);
+            }
+            current.fitness[i] = Double.NaN;
+        }
+    }
+
+    // Оценка поколения одним пакетом; особи с известным фитнесом (элиты,
+    // неизмененные копии родителей) повторно не вычисляются
+    private void evaluate() {
+        int count = 0;
+        for (int i = 0; i < populationSize; i++) {
+            if (Double.isNaN(current.fitness[i])) {
+                pending[count++] = i;
+            }
+        }
+        evaluation.forEach(count, evaluateTask);
+        evaluations += count;
+    }
+
+    // Кроссовер (среднее арифметическое родителей) в ячейку child следующего поколения
+    private void crossover(int parent1, int parent2, int child) {
         if (random.nextDouble() < CROSSOVER_RATE) {
-            double x = (parent1.x + parent2.x) / 2;
-            double y = (parent1.y + parent2.y) / 2;
-            return new Individual(x, y);
+            int dimension = current.dimension;
+            int a = parent1 * dimension;
+            int b = parent2 * dimension;
+            int c = child * dimension;
+            for (int g = 0; g < dimension; g++) {
+                next.genes[c + g] = (current.genes[a + g] + current.genes[b + g]) / 2;
+            }
+            next.fitness[child] = Double.NaN;
+            return;
         }
-        return random.nextBoolean() ? new Individual(parent1.x, parent1.y) : new Individual(parent2.x, parent2.y);
+        // Копия родителя наследует его фитнес
+        current.copy(random.nextBoolean() ? parent1 : parent2, next, child);
     }
 
-    // Мутация
-    private static void mutate(Individual individual) {
+    // Мутация (результат остается в пределах области поиска)
+    private void mutate(int child) {
         if (random.nextDouble() < MUTATION_RATE) {
-            individual.x += random.nextGaussian();
-            individual.y += random.nextGaussian();
-            individual.fitness = Individual.evaluateFitness(individual.x, individual.y);
+            int dimension = next.dimension;
+            int c = child * dimension;
+            for (int g = 0; g < dimension; g++) {
+                next.genes[c + g] = bounds.clamp(g, next.genes[c + g] + random.nextGaussian());
+            }
+            next.fitness[child] = Double.NaN;
         }
     }
 
-    // Генетический алгоритм
-    private static Individual run(boolean useElitSelection) {
-        ArrayList<Individual> population = initializePopulation();
+    // Генетический алгоритм с исходными вариантами селекции: элиты или рулетка
+    public Result run(boolean useElitSelection, StopCondition stopCondition) {
+        return run(useElitSelection ? Selection.elite() : Selection.roulette(), stopCondition);
+    }
+
+    public Result run(Selection selection, StopCondition stopCondition) {
+        evaluations = 0;
+        allocate();
+        initializePopulation();
+        evaluate();
+        return evolve(selection, stopCondition, 0);
+    }
+
+    // Продолжение запуска из снимка: с тем же состоянием генератора результат
+    // совпадает с непрерывным запуском
+    public Result resume(Path file, Selection selection, StopCondition stopCondition) throws IOException {
+        allocate();
+        int generation = readCheckpoint(file);
+        return evolve(selection, stopCondition, generation);
+    }
+
+    private Result evolve(Selection selection, StopCondition stopCondition, int generation) {
+        stopRequested = false;
+        checkpointWriter = checkpointFile != null ? new CheckpointWriter(checkpointFile) : null;
+        try {
+            return loop(selection, stopCondition, generation);
+        } finally {
+            if (checkpointWriter != null) {
+                checkpointWriter.close();
+                checkpointWriter = null;
+            }
+        }
+    }
 
-        for (int generation = 0; generation < MAX_GENERATIONS; generation++) {
+    private Result loop(Selection selection, StopCondition stopCondition, int generation) {
+        int best = findBest(current);
+        while (!stopRequested && !stopCondition.shouldStop(generation, current.fitness[best])) {
             // Селекция
-            ArrayList<Individual> selected = useElitSelection ? elitSelection(population) : rouletteSelection(population);
-
-            // Создание нового поколения
-            ArrayList<Individual> newGeneration = new ArrayList<>(selected);
-            while (newGeneration.size() < POPULATION_SIZE) {
-                Individual parent1 = selected.get(random.nextInt(selected.size()));
-                Individual parent2 = selected.get(random.nextInt(selected.size()));
-                Individual child = crossover(parent1, parent2);
+            selection.select(current.fitness, selected, random);
+
+            // Создание нового поколения: отобранные особи, затем потомки
+            for (int i = 0; i < selected.length; i++) {
+                current.copy(selected[i], next, i);
+            }
+            for (int child = selected.length; child < populationSize; child++) {
+                int parent1 = selected[random.nextInt(selected.length)];
+                int parent2 = selected[random.nextInt(selected.length)];
+                crossover(parent1, parent2, child);
                 mutate(child);
-                newGeneration.add(child);
             }
 
-            population = newGeneration;
+            Population swap = current;
+            current = next;
+            next = swap;
+            evaluate();
+            generation++;
+            if (migration != null) {
+                migrate(generation);
+            }
+            if (checkpointWriter != null && generation % checkpointInterval == 0) {
+                writeCheckpoint(generation);
+            }
+            best = findBest(current);
+            listener.onGeneration(generation, current.fitness[best], meanFitness(current), evaluations);
+        }
+        if (migration != null) {
+            // Остальные острова кольца останавливаются вслед за этим
+            migration.emigrate(new double[0]);
         }
 
-        // Найти лучшую особь
-        return population.stream().max(Comparator.comparingDouble(i -> i.fitness)).orElse(null);
+        int dimension = current.dimension;
+        double[] point = Arrays.copyOfRange(current.genes, best * dimension, (best + 1) * dimension);
+        return new Result(point, current.fitness[best], generation, evaluations);
+    }
+
+    // Формат снимка (little-endian): "GACP", версия, поколение, размер популяции,
+    // размерность, число вычислений (long), состояние генератора,
+    // затем все гены и весь фитнес текущего поколения
+    private static final int CHECKPOINT_MAGIC = 0x50434147; // "GACP" в little-endian
+    private static final int CHECKPOINT_VERSION = 1;
+
+    // Синхронная часть снимка — копирование массивов в свободный буфер;
+    // запись на диск идет в фоне
+    private void writeCheckpoint(int generation) {
+        long start = System.nanoTime();
+        int bytes = 4 * 5 + 8 + CheckpointRandom.STATE_BYTES + 8 * (current.genes.length + current.fitness.length);
+        ByteBuffer buffer = checkpointWriter.begin(bytes);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putInt(generation)
+                .putInt(populationSize).putInt(current.dimension).putLong(evaluations);
+        random.save(buffer);
+        buffer.asDoubleBuffer().put(current.genes).put(current.fitness);
+        buffer.position(bytes);
+        checkpointWriter.commit();
+        checkpointNanos += System.nanoTime() - start;
+    }
+
+    private int readCheckpoint(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 32 || buffer.getInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Не снимок генетического алгоритма: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != CHECKPOINT_VERSION) {
+            throw new IOException("Неподдерживаемая версия снимка: " + version);
+        }
+        int generation = buffer.getInt();
+        int size = buffer.getInt();
+        int dimension = buffer.getInt();
+        if (size != populationSize || dimension != current.dimension) {
+            throw new IOException("Снимок для популяции " + size + "x" + dimension
+                    + ", а движок настроен на " + populationSize + "x" + current.dimension);
+        }
+        evaluations = buffer.getLong();
+        random.load(buffer);
+        buffer.asDoubleBuffer().get(current.genes).get(current.fitness);
+        return generation;
+    }
+
+    // Миграция: пришедшие особи замещают худших, а каждые MIGRATION_INTERVAL
+    // поколений лучшие уходят соседу. Фитнес мигрантов не пересчитывается,
+    // так как все острова решают одну задачу
+    private void migrate(int generation) {
+        int dimension = current.dimension;
+        int stride = dimension + 1;
+        double[] packet;
+        while ((packet = migration.immigrate()) != null) {
+            if (packet.length == 0) {
+                stopRequested = true;
+                continue;
+            }
+            if (packet.length % stride != 0) {
+                throw new IllegalStateException("Размерность мигрантов не совпадает с размерностью задачи");
+            }
+            int count = Math.min(packet.length / stride, populationSize - 1);
+            for (int i = 0; i < populationSize; i++) {
+                order[i] = i;
+            }
+            selectTop(order, current.fitness, populationSize - count);
+            for (int m = 0; m < count; m++) {
+                int target = order[populationSize - count + m];
+                current.fitness[target] = packet[m * stride];
+                System.arraycopy(packet, m * stride + 1, current.genes, target * dimension, dimension);
+            }
+        }
+
+        if (generation % MIGRATION_INTERVAL == 0) {
+            int count = Math.min(MIGRANTS, populationSize);
+            for (int i = 0; i < populationSize; i++) {
+                order[i] = i;
+            }
+            selectTop(order, current.fitness, count);
+            packet = new double[count * stride];
+            for (int m = 0; m < count; m++) {
+                packet[m * stride] = current.fitness[order[m]];
+                System.arraycopy(current.genes, order[m] * dimension, packet, m * stride + 1, dimension);
+            }
+            migration.emigrate(packet);
+        }
+    }
+
+    // Островная модель в одной JVM: каждый остров — отдельный движок в своем потоке
+    // со своим генератором, острова связаны кольцом миграции
+    public static Result runIslands(Objective objective, Bounds bounds, int islands, boolean useElitSelection,
+                                    StopCondition stopCondition, long seed) {
+        List<Migration> ring = Migration.ring(islands);
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (int i = 0; i < islands; i++) {
+            GeneticAlgorithm island = new GeneticAlgorithm(objective, bounds);
+            island.setSeed(seed + i);
+            island.setMigration(ring.get(i));
+            tasks.add(() -> island.run(useElitSelection, stopCondition));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(islands);
+        try {
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return combine(results);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Островная модель прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка на острове", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Итог по островам: лучшая точка, наибольшее число поколений и сумма вычислений
+    private static Result combine(List<Result> results) {
+        Result best = results.get(0);
+        int generations = 0;
+        long evaluations = 0;
+        for (Result result : results) {
+            if (result.value > best.value) {
+                best = result;
+            }
+            generations = Math.max(generations, result.generations);
+            evaluations += result.evaluations;
+        }
+        return new Result(best.point, best.value, generations, evaluations);
+    }
+
+    private static double meanFitness(Population population) {
+        double sum = 0.0;
+        for (double value : population.fitness) {
+            sum += value;
+        }
+        return sum / population.size;
+    }
+
+    // Найти лучшую особь
+    private static int findBest(Population population) {
+        int best = 0;
+        for (int i = 1; i < population.size; i++) {
+            if (population.fitness[i] > population.fitness[best]) {
+                best = i;
+            }
+        }
+        return best;
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("island")) {
+            runIslandProcess(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("islands")) {
+            benchmarkIslands(args);
+            return;
+        }
+
+        GeneticAlgorithm ga = new GeneticAlgorithm(GeneticAlgorithm::evaluateFitness, Bounds.uniform(2, -5, 5)); // Диапазон [-5, 5]
+        StopCondition stop = StopCondition.maxGenerations(MAX_GENERATIONS);
+
         // Метод элит
-        Individual bestElit = run(true);
-        System.out.printf("Метод элит: x=%.5f, y=%.5f, f(x, y)=%.5f%n", bestElit.x, bestElit.y, bestElit.fitness);
+        Result bestElit = ga.run(true, stop);
+        System.out.printf("Метод элит: x=%.5f, y=%.5f, f(x, y)=%.5f%n", bestElit.point[0], bestElit.point[1], bestElit.value);
 
         // Метод рулетки
-        Individual bestRoulette = run(false);
-        System.out.printf("Метод рулетки: x=%.5f, y=%.5f, f(x, y)=%.5f%n", bestRoulette.x, bestRoulette.y, bestRoulette.fitness);
+        Result bestRoulette = ga.run(false, stop);
+        System.out.printf("Метод рулетки: x=%.5f, y=%.5f, f(x, y)=%.5f%n", bestRoulette.point[0], bestRoulette.point[1], bestRoulette.value);
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkObjectives();
+            benchmarkEvaluation();
+            benchmarkAllocation();
+            benchmarkSelection();
+            benchmarkCheckpoint();
+        }
+    }
+
+    // Задача для сравнения островов: Растригин в ISLAND_DIMENSION измерениях до ISLAND_TARGET
+    private static final int ISLAND_DIMENSION = 4;
+    private static final double ISLAND_TARGET = 0.3;
+
+    // Один остров в отдельном процессе: island <номер> <seed> <порт приема> <порт соседа>.
+    // Последняя строка вывода — результат для родительского процесса
+    private static void runIslandProcess(String[] args) {
+        int index = Integer.parseInt(args[1]);
+        long seed = Long.parseLong(args[2]);
+        try (Migration migration = Migration.loopback(Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+                ISLAND_DIMENSION)) {
+            GeneticAlgorithm island = new GeneticAlgorithm(GeneticAlgorithm::rastrigin,
+                    Bounds.uniform(ISLAND_DIMENSION, -5, 5));
+            island.setSeed(seed + index);
+            island.setMigration(migration);
+            long start = System.nanoTime();
+            Result result = island.run(true,
+                    StopCondition.maxGenerations(MAX_GENERATIONS).or(StopCondition.targetValue(ISLAND_TARGET)));
+            System.out.printf("RESULT %d %.6f %d %d %d%n", index, result.value, result.generations,
+                    result.evaluations, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // Время до целевого значения при росте числа островов: потоки в одной JVM
+    // и процессы, связанные только через loopback. islands [число запусков]
+    private static void benchmarkIslands(String[] args) {
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        StopCondition stop = StopCondition.maxGenerations(MAX_GENERATIONS).or(StopCondition.targetValue(ISLAND_TARGET));
+        System.out.println("Режим    | Островов | Достигли | Поколений | Вычислений | мс");
+        for (int islands : new int[] {1, 2, 4, 8}) {
+            int reached = 0;
+            double generations = 0;
+            double evaluations = 0;
+            double millis = 0;
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                Result result = runIslands(GeneticAlgorithm::rastrigin, Bounds.uniform(ISLAND_DIMENSION, -5, 5),
+                        islands, true, stop, 1000L * run);
+                millis += (System.nanoTime() - start) / 1e6;
+                reached += result.value >= ISLAND_TARGET ? 1 : 0;
+                generations += result.generations;
+                evaluations += result.evaluations;
+            }
+            System.out.printf("потоки   | %8d | %4d/%-3d | %9.1f | %10.0f | %8.1f%n", islands, reached, runs,
+                    generations / runs, evaluations / runs, millis / runs);
+        }
+        for (int islands : new int[] {1, 2, 4}) {
+            int reached = 0;
+            double generations = 0;
+            double evaluations = 0;
+            double millis = 0;
+            for (int run = 0; run < runs; run++) {
+                List<String> lines = launchIslands(args, islands, 1000L * run);
+                int maxGenerations = 0;
+                long maxMillis = 0;
+                double best = 0.0;
+                for (String line : lines) {
+                    String[] fields = line.trim().split(" ");
+                    best = Math.max(best, Double.parseDouble(fields[2].replace(',', '.')));
+                    maxGenerations = Math.max(maxGenerations, Integer.parseInt(fields[3]));
+                    evaluations += Long.parseLong(fields[4]);
+                    maxMillis = Math.max(maxMillis, Long.parseLong(fields[5]));
+                }
+                reached += best >= ISLAND_TARGET ? 1 : 0;
+                generations += maxGenerations;
+                millis += maxMillis;
+            }
+            System.out.printf("процессы | %8d | %4d/%-3d | %9.1f | %10.0f | %8.1f%n", islands, reached, runs,
+                    generations / runs, evaluations / runs, millis / runs);
+        }
+    }
+
+    // Запускает острова дочерними JVM той же командой, что и текущая (работает
+    // и для скомпилированного класса, и для запуска исходного файла), и собирает строки RESULT
+    private static List<String> launchIslands(String[] ownArgs, int islands, long seed) {
+        ProcessHandle.Info info = ProcessHandle.current().info();
+        String[] arguments = info.arguments().orElseThrow(
+                () -> new UnsupportedOperationException("Командная строка текущей JVM недоступна"));
+        List<String> base = new ArrayList<>();
+        base.add(info.command().orElseThrow());
+        base.addAll(Arrays.asList(arguments).subList(0, arguments.length - ownArgs.length));
+
+        int[] ports = new int[islands];
+        for (int i = 0; i < islands; i++) {
+            try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                ports[i] = probe.getLocalPort();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < islands; i++) {
+                List<String> command = new ArrayList<>(base);
+                command.addAll(List.of("island", Integer.toString(i), Long.toString(seed),
+                        Integer.toString(ports[i]), Integer.toString(ports[(i + 1) % islands])));
+                processes.add(new ProcessBuilder(command).redirectErrorStream(true).start());
+            }
+            List<String> results = new ArrayList<>();
+            for (Process process : processes) {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.startsWith("RESULT ")) {
+                            results.add(line);
+                        }
+                    }
+                }
+                if (process.waitFor() != 0) {
+                    throw new IllegalStateException("Остров завершился с кодом " + process.exitValue());
+                }
+            }
+            return results;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Запуск островов прерван", e);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    // Продолжение из снимка совпадает с непрерывным запуском, а снимки
+    // почти не замедляют поколение (популяция 10^5 x 10, около 9 МБ на снимок)
+    private static void benchmarkCheckpoint() {
+        try {
+            Path file = Files.createTempFile("ga", ".ckpt");
+            try {
+                GeneticAlgorithm whole = new GeneticAlgorithm(GeneticAlgorithm::rastrigin, Bounds.uniform(10, -5, 5));
+                whole.setSeed(7);
+                whole.setCheckpoint(file, 20);
+                Result expected = whole.run(false, StopCondition.maxGenerations(30));
+                GeneticAlgorithm resumed = new GeneticAlgorithm(GeneticAlgorithm::rastrigin, Bounds.uniform(10, -5, 5));
+                Result actual = resumed.resume(file, Selection.roulette(), StopCondition.maxGenerations(30));
+                System.out.printf("Продолжение с 20-го поколения совпадает с непрерывным запуском: %b%n",
+                        Arrays.equals(expected.point, actual.point) && expected.value == actual.value
+                                && expected.evaluations == actual.evaluations);
+
+                System.out.println("Снимок каждые | мс/поколение | Накладные расходы | Пауза цикла");
+                new GeneticAlgorithm(GeneticAlgorithm::rastrigin, Bounds.uniform(10, -5, 5), 100_000)
+                        .run(true, StopCondition.maxGenerations(50)); // Прогрев JIT
+                double baseline = 0.0;
+                for (int interval : new int[] {0, 50, 10, 1}) {
+                    GeneticAlgorithm ga = new GeneticAlgorithm(GeneticAlgorithm::rastrigin,
+                            Bounds.uniform(10, -5, 5), 100_000);
+                    if (interval > 0) {
+                        ga.setCheckpoint(file, interval);
+                    }
+                    int generations = 100;
+                    long start = System.nanoTime();
+                    ga.run(true, StopCondition.maxGenerations(generations));
+                    double millis = (System.nanoTime() - start) / 1e6 / generations;
+                    if (interval == 0) {
+                        baseline = millis;
+                        System.out.printf("%13s | %12.2f | %17s | %11s%n", "без снимков", millis, "—", "—");
+                    } else {
+                        // Пауза цикла — доля времени, на которую снимки останавливали эволюцию
+                        System.out.printf("%13d | %12.2f | %16.1f%% | %10.1f%%%n", interval, millis,
+                                100 * (millis / baseline - 1), 100 * ga.checkpointNanos / 1e6 / generations / millis);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Время одного отбора половины популяции; у пропорциональных операторов
+    // средний фитнес отобранных должен совпадать с исходной рулеткой.
+    // Исходная рулетка квадратична, поэтому на 10^6 не запускается
+    private static void benchmarkSelection() {
+        String[] names = {"рулетка (исходная)", "префиксные суммы", "псевдонимы Возе", "турнир из 2", "SUS"};
+        Random rnd = new Random(1);
+        System.out.println("Популяция | Оператор           | мс/отбор | Средний фитнес");
+        for (int n : new int[] {1_000, 10_000, 100_000, 1_000_000}) {
+            double[] fitness = new double[n];
+            for (int i = 0; i < n; i++) {
+                fitness[i] = rnd.nextDouble();
+            }
+            int[] selected = new int[n / 2];
+            Selection[] selections = {Selection.roulette(), Selection.prefixSum(), Selection.alias(),
+                    Selection.tournament(2), Selection.stochasticUniversal()};
+            for (int s = 0; s < selections.length; s++) {
+                if (s == 0 && n > 100_000) {
+                    System.out.printf("%9d | %-18s | %8s | %14s%n", n, names[s], "—", "—");
+                    continue;
+                }
+                // Число повторов подбирается по ожидаемому объему работы оператора
+                long work = s == 0 ? (long) n * n / 4 : n;
+                int repeats = (int) Math.max(1, Math.min(100, 20_000_000L / work));
+                selections[s].select(fitness, selected, rnd);
+                long start = System.nanoTime();
+                for (int r = 0; r < repeats; r++) {
+                    selections[s].select(fitness, selected, rnd);
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / repeats;
+                double mean = 0.0;
+                for (int index : selected) {
+                    mean += fitness[index];
+                }
+                System.out.printf("%9d | %-18s | %8.3f | %14.4f%n", n, names[s], millis, mean / selected.length);
+            }
+        }
+    }
+
+    // Байты, выделенные потоком на одно поколение в установившемся режиме
+    // (без первого поколения, где создаются буферы запуска)
+    private static void benchmarkAllocation() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int generations = 20;
+        System.out.println("Популяция | Байт/поколение | мс/поколение");
+        for (int size : new int[] {1_000, 10_000, 100_000, 1_000_000}) {
+            long[] marks = new long[2];
+            long[] times = new long[2];
+            StopCondition stop = (generation, bestValue) -> {
+                if (generation == 1) {
+                    marks[0] = threads.getThreadAllocatedBytes(thread);
+                    times[0] = System.nanoTime();
+                } else if (generation == generations) {
+                    marks[1] = threads.getThreadAllocatedBytes(thread);
+                    times[1] = System.nanoTime();
+                }
+                return generation >= generations;
+            };
+            new GeneticAlgorithm(GeneticAlgorithm::evaluateFitness, Bounds.uniform(10, -5, 5), size).run(true, stop);
+            System.out.printf("%9d | %14.1f | %12.2f%n", size, (marks[1] - marks[0]) / (double) (generations - 1),
+                    (times[1] - times[0]) / 1e6 / (generations - 1));
+        }
+    }
+
+    // Пропускная способность пакетного вычисления на "дорогой" целевой функции
+    // (вычислительной и ожидающей ввода-вывода) при разном числе потоков
+    private static void benchmarkEvaluation() {
+        Objective compute = point -> {
+            double sum = 0.0;
+            for (int k = 0; k < 20000; k++) {
+                sum += Math.sin(point[0] + k) * Math.cos(point[1] - k);
+            }
+            return evaluateFitness(point) + sum * 1e-12;
+        };
+        Objective io = point -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return evaluateFitness(point);
+        };
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("Функция        | Способ                 | Вычислений/с");
+        for (int kind = 0; kind < 2; kind++) {
+            List<String> names = new ArrayList<>();
+            List<Evaluation> evaluations = new ArrayList<>();
+            names.add("последовательно");
+            evaluations.add(Evaluation.sequential());
+            names.add("parallel streams");
+            evaluations.add(Evaluation.parallelStreams());
+            for (int threads = 1; threads <= Math.max(cores, kind == 1 ? 16 : 1); threads *= 2) {
+                names.add("пул из " + threads);
+                evaluations.add(Evaluation.fixedPool(threads));
+            }
+            try {
+                evaluations.add(Evaluation.virtualThreads());
+                names.add("виртуальные потоки");
+            } catch (UnsupportedOperationException e) {
+                System.out.println("Виртуальные потоки недоступны: " + e.getMessage());
+            }
+            for (int v = 0; v < evaluations.size(); v++) {
+                try (Evaluation evaluation = evaluations.get(v)) {
+                    GeneticAlgorithm ga = new GeneticAlgorithm(kind == 0 ? compute : io, Bounds.uniform(2, -5, 5));
+                    ga.setEvaluation(evaluation);
+                    long start = System.nanoTime();
+                    Result result = ga.run(true, StopCondition.maxGenerations(10));
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%-14s | %-22s | %12.0f%n", kind == 0 ? "вычислительная" : "ввод-вывод",
+                            names.get(v), result.evaluations / seconds);
+                }
+            }
+        }
+    }
+
+    // Один и тот же движок на наборе стандартных функций разной размерности
+    // (все приведены к виду 1 / (1 + g(x)) с максимумом 1 в точке минимума g)
+    private static void benchmarkObjectives() {
+        String[] names = {"Сфера", "Растригин", "Розенброк"};
+        Objective[] objectives = {
+            GeneticAlgorithm::evaluateFitness,
+            GeneticAlgorithm::rastrigin,
+            point -> {
+                double sum = 0.0;
+                for (int i = 0; i + 1 < point.length; i++) {
+                    double a = point[i + 1] - point[i] * point[i];
+                    double b = 1.0 - point[i];
+                    sum += 100.0 * a * a + b * b;
+                }
+                return 1.0 / (1.0 + sum);
+            }
+        };
+        System.out.println("Функция    | Размерность | Значение | Поколений | Вычислений | Вычислений/с");
+        for (int f = 0; f < objectives.length; f++) {
+            for (int dimension : new int[] {2, 10, 30}) {
+                GeneticAlgorithm ga = new GeneticAlgorithm(objectives[f], Bounds.uniform(dimension, -5, 5));
+                long start = System.nanoTime();
+                Result result = ga.run(true, StopCondition.maxGenerations(MAX_GENERATIONS).or(StopCondition.targetValue(0.999)));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%-10s | %11d | %8.5f | %9d | %10d | %12.0f%n", names[f], dimension,
+                        result.value, result.generations, result.evaluations, result.evaluations / seconds);
+            }
+        }
     }
 }
@@ -1,90 +1,961 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class XORNeuralNetwork {
-    private double[][] hiddenWeights;  // Веса между входным и скрытым слоем
-    private double[] outputWeights;    // Веса между скрытым и выходным слоем
-    private double[] hiddenBias;       // Смещение скрытого слоя
-    private double outputBias;         // Смещение выходного слоя
-    private double learningRate;
+    // Размер блока для умножения матриц: блок весов BLOCK x BLOCK (32 КБ) остается в кэше L1/L2
+    private static final int BLOCK = 64;
+    // Строк пакета на одну задачу при синхронном параллельном обучении
+    private static final int SHARD = 16;
+
+    private final int[] sizes;         // Размеры слоев от входного к выходному
+    private final double[][] weights;  // weights[l] — матрица sizes[l] x sizes[l + 1] по строкам
+    private final double[][] biases;   // biases[l] — смещения слоя l + 1
+    private final double learningRate;
+
+    // Буферы пакета создаются один раз и растут только при увеличении пакета.
+    // Обучение пользуется общим буфером, а прогноз — буфером своего потока,
+    // поэтому прогнозы из разных потоков не мешают друг другу
+    private final Workspace workspace;
+    private final ThreadLocal<Workspace> inference;
 
     public XORNeuralNetwork(double learningRate) {
+        this(learningRate, new Random(), 2, 2, 1);
+    }
+
+    public XORNeuralNetwork(double learningRate, long seed, int... sizes) {
+        this(learningRate, new Random(seed), sizes);
+    }
+
+    private XORNeuralNetwork(double learningRate, Random rand, int... sizes) {
+        if (sizes.length < 2) {
+            throw new IllegalArgumentException("Нужны хотя бы входной и выходной слои");
+        }
         this.learningRate = learningRate;
+        this.sizes = sizes.clone();
+        this.weights = new double[sizes.length - 1][];
+        this.biases = new double[sizes.length - 1][];
+
+        // Инициализация весов и смещений случайными значениями; без rand веса заполнит load
+        for (int l = 0; l < weights.length; l++) {
+            weights[l] = new double[sizes[l] * sizes[l + 1]];
+            biases[l] = new double[sizes[l + 1]];
+            if (rand == null) {
+                continue;
+            }
+            for (int i = 0; i < weights[l].length; i++) {
+                weights[l][i] = rand.nextDouble() * 2 - 1;
+            }
+            for (int j = 0; j < biases[l].length; j++) {
+                biases[l][j] = rand.nextDouble() * 2 - 1;
+            }
+        }
+        this.workspace = new Workspace(this.sizes);
+        this.inference = ThreadLocal.withInitial(() -> new Workspace(this.sizes));
+    }
 
-        // Инициализация весов и смещений случайными значениями
-        Random rand = new Random();
-        hiddenWeights = new double[2][2];
-        outputWeights = new double[2];
-        hiddenBias = new double[2];
-        outputBias = rand.nextDouble() * 2 - 1;
+    // Выходы и дельты каждого слоя для пакета строк, матрицы по строкам
+    private static final class Workspace {
+        private final int[] sizes;
+        private double[][] layers; // layers[0] — входы пакета
+        private double[][] deltas;
+        private int capacity;
+        // Накопленные градиенты части пакета, только для синхронного параллельного обучения
+        private double[][] weightGradients;
+        private double[][] biasGradients;
 
-        for (int i = 0; i < 2; i++) {
-            hiddenBias[i] = rand.nextDouble() * 2 - 1;
-            outputWeights[i] = rand.nextDouble() * 2 - 1;
-            for (int j = 0; j < 2; j++) {
-                hiddenWeights[i][j] = rand.nextDouble() * 2 - 1;
+        Workspace(int[] sizes) {
+            this.sizes = sizes;
+        }
+
+        void ensureGradients() {
+            if (weightGradients != null) {
+                return;
+            }
+            weightGradients = new double[sizes.length - 1][];
+            biasGradients = new double[sizes.length - 1][];
+            for (int l = 0; l < sizes.length - 1; l++) {
+                weightGradients[l] = new double[sizes[l] * sizes[l + 1]];
+                biasGradients[l] = new double[sizes[l + 1]];
+            }
+        }
+
+        void clearGradients() {
+            for (int l = 0; l < weightGradients.length; l++) {
+                Arrays.fill(weightGradients[l], 0.0);
+                Arrays.fill(biasGradients[l], 0.0);
             }
         }
+
+        void ensureCapacity(int rows) {
+            if (rows <= capacity) {
+                return;
+            }
+            layers = new double[sizes.length][];
+            deltas = new double[sizes.length][];
+            for (int l = 0; l < sizes.length; l++) {
+                layers[l] = new double[rows * sizes[l]];
+                deltas[l] = new double[rows * sizes[l]];
+            }
+            capacity = rows;
+        }
     }
 
     // Сигмоида как активационная функция
-    private double sigmoid(double x) {
+    private static double sigmoid(double x) {
         return 1.0 / (1.0 + Math.exp(-x));
     }
 
     // Производная сигмоиды
-    private double sigmoidDerivative(double x) {
+    private static double sigmoidDerivative(double x) {
         return x * (1.0 - x);
     }
 
+    public int inputSize() {
+        return sizes[0];
+    }
+
+    public int outputSize() {
+        return sizes[sizes.length - 1];
+    }
+
     // Прогноз на основе входов
     public double predict(int[] inputs) {
-        // Прямое распространение (forward propagation)
-        double[] hiddenLayerOutput = new double[2];
-        for (int i = 0; i < 2; i++) {
-            hiddenLayerOutput[i] = sigmoid(inputs[0] * hiddenWeights[0][i] + inputs[1] * hiddenWeights[1][i] + hiddenBias[i]);
+        Workspace w = inference.get();
+        w.ensureCapacity(1);
+        for (int i = 0; i < inputs.length; i++) {
+            w.layers[0][i] = inputs[i];
         }
-        double output = sigmoid(hiddenLayerOutput[0] * outputWeights[0] + hiddenLayerOutput[1] * outputWeights[1] + outputBias);
-        return output;
+        forward(w, 1);
+        return w.layers[sizes.length - 1][0];
     }
 
-    // Метод обучения
+    // Прогноз для count строк inputs (count x inputSize) в outputs (count x outputSize)
+    public void predictBatch(double[] inputs, int count, double[] outputs) {
+        int batch = Math.min(count, BLOCK);
+        Workspace w = inference.get();
+        w.ensureCapacity(batch);
+        int in = inputSize();
+        int out = outputSize();
+        for (int start = 0; start < count; start += batch) {
+            int rows = Math.min(batch, count - start);
+            System.arraycopy(inputs, start * in, w.layers[0], 0, rows * in);
+            forward(w, rows);
+            System.arraycopy(w.layers[sizes.length - 1], 0, outputs, start * out, rows * out);
+        }
+    }
+
+    // Прямое распространение пакета из rows строк, уже лежащих в layers[0]
+    private void forward(Workspace w, int rows) {
+        for (int l = 0; l < weights.length; l++) {
+            double[] output = w.layers[l + 1];
+            multiply(w.layers[l], weights[l], biases[l], output, rows, sizes[l], sizes[l + 1]);
+            for (int i = 0, n = rows * sizes[l + 1]; i < n; i++) {
+                output[i] = sigmoid(output[i]);
+            }
+        }
+    }
+
+    // c = a * b + bias, где a — rows x inner, b — inner x cols.
+    // Внутренний цикл идет по непрерывной строке b и c, поэтому JIT его векторизует;
+    // четыре строки b за проход — одна загрузка и запись c на четыре умножения
+    private static void multiply(double[] a, double[] b, double[] bias, double[] c, int rows, int inner, int cols) {
+        for (int j0 = 0; j0 < cols; j0 += BLOCK) {
+            int j1 = Math.min(j0 + BLOCK, cols);
+            for (int r = 0; r < rows; r++) {
+                System.arraycopy(bias, j0, c, r * cols + j0, j1 - j0);
+            }
+            for (int k0 = 0; k0 < inner; k0 += BLOCK) {
+                int k1 = Math.min(k0 + BLOCK, inner);
+                for (int r = 0; r < rows; r++) {
+                    int row = r * cols;
+                    int k = k0;
+                    for (; k + 3 < k1; k += 4) {
+                        double a0 = a[r * inner + k];
+                        double a1 = a[r * inner + k + 1];
+                        double a2 = a[r * inner + k + 2];
+                        double a3 = a[r * inner + k + 3];
+                        int b0 = k * cols;
+                        int b1 = b0 + cols;
+                        int b2 = b1 + cols;
+                        int b3 = b2 + cols;
+                        for (int j = j0; j < j1; j++) {
+                            c[row + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+                        }
+                    }
+                    for (; k < k1; k++) {
+                        double value = a[r * inner + k];
+                        int column = k * cols;
+                        for (int j = j0; j < j1; j++) {
+                            c[row + j] += value * b[column + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Метод обучения: по одному образцу за шаг, как и раньше
     public void train(int[][] inputs, int[] outputs, int epochs) {
+        int in = inputSize();
+        double[] x = new double[inputs.length * in];
+        double[] y = new double[outputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            for (int j = 0; j < in; j++) {
+                x[i * in + j] = inputs[i][j];
+            }
+            y[i] = outputs[i];
+        }
+        train(x, y, inputs.length, 1, epochs);
+    }
+
+    // Обучение мини-пакетами: inputs — count x inputSize, targets — count x outputSize.
+    // Шаг делается по среднему градиенту пакета; при batchSize = 1 это прежний стохастический спуск
+    public void train(double[] inputs, double[] targets, int count, int batchSize, int epochs) {
+        Workspace w = workspace;
+        w.ensureCapacity(batchSize);
+        int in = inputSize();
+        int out = outputSize();
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            for (int start = 0; start < count; start += batchSize) {
+                int rows = Math.min(batchSize, count - start);
+                System.arraycopy(inputs, start * in, w.layers[0], 0, rows * in);
+                forward(w, rows);
+                backward(w, targets, start * out, rows, weights, biases, learningRate / rows);
+            }
+        }
+    }
+
+    // Синхронное обучение на пуле: пакет делится на части по SHARD строк, градиенты частей
+    // считаются параллельно и прибавляются к весам в порядке частей. Поэтому веса после
+    // обучения не зависят от числа потоков пула
+    public void trainParallel(double[] inputs, double[] targets, int count, int batchSize, int epochs,
+                              ForkJoinPool pool) {
+        Workspace[] parts = new Workspace[(batchSize + SHARD - 1) / SHARD];
+        for (int s = 0; s < parts.length; s++) {
+            parts[s] = new Workspace(sizes);
+            parts[s].ensureCapacity(SHARD);
+            parts[s].ensureGradients();
+        }
+        int in = inputSize();
+        int out = outputSize();
         for (int epoch = 0; epoch < epochs; epoch++) {
-            for (int i = 0; i < inputs.length; i++) {
-                // Прямое распространение
-                double[] hiddenLayerOutput = new double[2];
-                for (int j = 0; j < 2; j++) {
-                    hiddenLayerOutput[j] = sigmoid(inputs[i][0] * hiddenWeights[0][j] + inputs[i][1] * hiddenWeights[1][j] + hiddenBias[j]);
+            for (int start = 0; start < count; start += batchSize) {
+                int first = start;
+                int rows = Math.min(batchSize, count - start);
+                int used = (rows + SHARD - 1) / SHARD;
+                pool.submit(() -> IntStream.range(0, used).parallel().forEach(s -> {
+                    Workspace w = parts[s];
+                    int from = first + s * SHARD;
+                    int n = Math.min(SHARD, first + rows - from);
+                    w.clearGradients();
+                    System.arraycopy(inputs, from * in, w.layers[0], 0, n * in);
+                    forward(w, n);
+                    backward(w, targets, from * out, n, w.weightGradients, w.biasGradients, 1.0);
+                })).join();
+
+                double scale = learningRate / rows;
+                for (int s = 0; s < used; s++) {
+                    for (int l = 0; l < weights.length; l++) {
+                        addScaled(weights[l], parts[s].weightGradients[l], scale);
+                        addScaled(biases[l], parts[s].biasGradients[l], scale);
+                    }
                 }
-                double predictedOutput = sigmoid(hiddenLayerOutput[0] * outputWeights[0] + hiddenLayerOutput[1] * outputWeights[1] + outputBias);
+            }
+        }
+    }
 
-                // Вычисление ошибок
-                double outputError = outputs[i] - predictedOutput;
-                double outputDelta = outputError * sigmoidDerivative(predictedOutput);
+    // Асинхронное обучение без блокировок (Hogwild): каждый поток проходит свою часть выборки
+    // мини-пакетами и обновляет общие веса на месте. Одновременные записи изредка теряют
+    // обновление, на сходимость это почти не влияет, но результат недетерминирован
+    public void trainHogwild(double[] inputs, double[] targets, int count, int batchSize, int epochs,
+                             ForkJoinPool pool) {
+        if (count == 0) {
+            return;
+        }
+        int threads = Math.min(pool.getParallelism(), (count + batchSize - 1) / batchSize);
+        Workspace[] parts = new Workspace[threads];
+        for (int t = 0; t < threads; t++) {
+            parts[t] = new Workspace(sizes);
+            parts[t].ensureCapacity(batchSize);
+        }
+        int in = inputSize();
+        int out = outputSize();
+        int slice = (count + threads - 1) / threads;
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            pool.submit(() -> IntStream.range(0, threads).parallel().forEach(t -> {
+                Workspace w = parts[t];
+                int end = Math.min(count, (t + 1) * slice);
+                for (int start = t * slice; start < end; start += batchSize) {
+                    int rows = Math.min(batchSize, end - start);
+                    System.arraycopy(inputs, start * in, w.layers[0], 0, rows * in);
+                    forward(w, rows);
+                    backward(w, targets, start * out, rows, weights, biases, learningRate / rows);
+                }
+            })).join();
+        }
+    }
+
+    private static void addScaled(double[] target, double[] source, double scale) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] += scale * source[i];
+        }
+    }
 
-                double[] hiddenLayerError = new double[2];
-                double[] hiddenLayerDelta = new double[2];
-                for (int j = 0; j < 2; j++) {
-                    hiddenLayerError[j] = outputDelta * outputWeights[j];
-                    hiddenLayerDelta[j] = hiddenLayerError[j] * sigmoidDerivative(hiddenLayerOutput[j]);
+    // Среднеквадратичная ошибка на выборке
+    public double meanSquaredError(double[] inputs, double[] targets, int count) {
+        double[] outputs = new double[count * outputSize()];
+        predictBatch(inputs, count, outputs);
+        double sum = 0.0;
+        for (int i = 0; i < outputs.length; i++) {
+            double error = targets[i] - outputs[i];
+            sum += error * error;
+        }
+        return sum / outputs.length;
+    }
+
+    // Обратное распространение пакета: к targetWeights и targetBiases прибавляется
+    // scale * градиент. Дельта предыдущего слоя считается до обновления весов текущего,
+    // поэтому при обновлении на месте используются веса до шага
+    private void backward(Workspace w, double[] targets, int offset, int rows,
+                          double[][] targetWeights, double[][] targetBiases, double scale) {
+        int last = sizes.length - 1;
+        double[] output = w.layers[last];
+        double[] delta = w.deltas[last];
+        for (int i = 0, n = rows * sizes[last]; i < n; i++) {
+            double predicted = output[i];
+            delta[i] = (targets[offset + i] - predicted) * sigmoidDerivative(predicted);
+        }
+
+        for (int l = last - 1; l >= 0; l--) {
+            if (l > 0) {
+                propagate(w.deltas[l + 1], weights[l], w.layers[l], w.deltas[l], rows, sizes[l], sizes[l + 1]);
+            }
+            update(w.layers[l], w.deltas[l + 1], targetWeights[l], targetBiases[l], scale,
+                    rows, sizes[l], sizes[l + 1]);
+        }
+    }
+
+    // previous = (delta * b^T) ⊙ σ'(activation), где b — inner x cols
+    private static void propagate(double[] delta, double[] b, double[] activation, double[] previous,
+                                  int rows, int inner, int cols) {
+        for (int r = 0; r < rows; r++) {
+            int row = r * cols;
+            for (int k = 0; k < inner; k++) {
+                int column = k * cols;
+                double error = 0.0;
+                for (int j = 0; j < cols; j++) {
+                    error += delta[row + j] * b[column + j];
                 }
+                double value = activation[r * inner + k];
+                previous[r * inner + k] = error * sigmoidDerivative(value);
+            }
+        }
+    }
 
-                // Обновление весов и смещений
-                for (int j = 0; j < 2; j++) {
-                    outputWeights[j] += learningRate * outputDelta * hiddenLayerOutput[j];
+    // b += scale * a^T * delta, bias += scale * сумма строк delta.
+    // Четыре строки пакета за проход, как в multiply
+    private static void update(double[] a, double[] delta, double[] b, double[] bias, double scale,
+                               int rows, int inner, int cols) {
+        for (int j0 = 0; j0 < cols; j0 += BLOCK) {
+            int j1 = Math.min(j0 + BLOCK, cols);
+            for (int k0 = 0; k0 < inner; k0 += BLOCK) {
+                int k1 = Math.min(k0 + BLOCK, inner);
+                int r = 0;
+                for (; r + 3 < rows; r += 4) {
+                    int d0 = r * cols;
+                    int d1 = d0 + cols;
+                    int d2 = d1 + cols;
+                    int d3 = d2 + cols;
+                    for (int k = k0; k < k1; k++) {
+                        double a0 = scale * a[r * inner + k];
+                        double a1 = scale * a[(r + 1) * inner + k];
+                        double a2 = scale * a[(r + 2) * inner + k];
+                        double a3 = scale * a[(r + 3) * inner + k];
+                        int column = k * cols;
+                        for (int j = j0; j < j1; j++) {
+                            b[column + j] += a0 * delta[d0 + j] + a1 * delta[d1 + j]
+                                    + a2 * delta[d2 + j] + a3 * delta[d3 + j];
+                        }
+                    }
                 }
-                outputBias += learningRate * outputDelta;
+                for (; r < rows; r++) {
+                    int row = r * cols;
+                    for (int k = k0; k < k1; k++) {
+                        double value = scale * a[r * inner + k];
+                        int column = k * cols;
+                        for (int j = j0; j < j1; j++) {
+                            b[column + j] += value * delta[row + j];
+                        }
+                    }
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                int row = r * cols;
+                for (int j = j0; j < j1; j++) {
+                    bias[j] += scale * delta[row + j];
+                }
+            }
+        }
+    }
+
+    // Прежняя реализация: вложенные массивы и новые массивы на каждый образец.
+    // Обобщена на произвольные размеры слоев и оставлена для сравнения скорости
+    private static final class PerSampleNetwork {
+        private final int[] sizes;
+        private final double[][][] weights;
+        private final double[][] biases;
+        private final double learningRate;
+
+        PerSampleNetwork(double learningRate, long seed, int... sizes) {
+            Random rand = new Random(seed);
+            this.learningRate = learningRate;
+            this.sizes = sizes;
+            weights = new double[sizes.length - 1][][];
+            biases = new double[sizes.length - 1][];
+            for (int l = 0; l < weights.length; l++) {
+                weights[l] = new double[sizes[l]][sizes[l + 1]];
+                biases[l] = new double[sizes[l + 1]];
+                for (double[] row : weights[l]) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] = rand.nextDouble() * 2 - 1;
+                    }
+                }
+                for (int j = 0; j < biases[l].length; j++) {
+                    biases[l][j] = rand.nextDouble() * 2 - 1;
+                }
+            }
+        }
 
-                for (int j = 0; j < 2; j++) {
-                    hiddenWeights[0][j] += learningRate * hiddenLayerDelta[j] * inputs[i][0];
-                    hiddenWeights[1][j] += learningRate * hiddenLayerDelta[j] * inputs[i][1];
-                    hiddenBias[j] += learningRate * hiddenLayerDelta[j];
+        double[][] forward(double[] input) {
+            double[][] layers = new double[sizes.length][];
+            layers[0] = input;
+            for (int l = 0; l < weights.length; l++) {
+                layers[l + 1] = new double[sizes[l + 1]];
+                for (int j = 0; j < sizes[l + 1]; j++) {
+                    double sum = biases[l][j];
+                    for (int i = 0; i < sizes[l]; i++) {
+                        sum += layers[l][i] * weights[l][i][j];
+                    }
+                    layers[l + 1][j] = sigmoid(sum);
                 }
             }
+            return layers;
         }
+
+        void train(double[][] inputs, double[][] targets, int epochs) {
+            int last = sizes.length - 1;
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                for (int s = 0; s < inputs.length; s++) {
+                    double[][] layers = forward(inputs[s]);
+                    double[] delta = new double[sizes[last]];
+                    for (int j = 0; j < delta.length; j++) {
+                        delta[j] = (targets[s][j] - layers[last][j]) * sigmoidDerivative(layers[last][j]);
+                    }
+                    for (int l = last - 1; l >= 0; l--) {
+                        double[] previous = new double[sizes[l]];
+                        for (int i = 0; i < sizes[l]; i++) {
+                            double error = 0.0;
+                            for (int j = 0; j < delta.length; j++) {
+                                error += delta[j] * weights[l][i][j];
+                            }
+                            previous[i] = error * sigmoidDerivative(layers[l][i]);
+                        }
+                        for (int i = 0; i < sizes[l]; i++) {
+                            for (int j = 0; j < delta.length; j++) {
+                                weights[l][i][j] += learningRate * delta[j] * layers[l][i];
+                            }
+                        }
+                        for (int j = 0; j < delta.length; j++) {
+                            biases[l][j] += learningRate * delta[j];
+                        }
+                        delta = previous;
+                    }
+                }
+            }
+        }
+    }
+
+    // Образцов в секунду при обучении и прогнозе: прежний цикл по образцам против пакетов
+    private static void benchmark() throws IOException {
+        benchmarkColdStart();
+        benchmark("XOR 2-2-1", 4, 100_000, 2, 2, 1);
+        benchmark("64-128-10", 1024, 20, 64, 128, 10);
+        benchmark("256-256-256-10", 1024, 4, 256, 256, 256, 10);
+        benchmarkParallel();
     }
 
-    public static void main(String[] args) {
+    // Синхронный и асинхронный режимы на 1..N потоках: образцов в секунду и ошибка после обучения.
+    // Цель — индикатор класса, который учитель присваивает по максимуму x * T
+    private static void benchmarkParallel() {
+        int[] sizes = {64, 128, 10};
+        int count = 4096;
+        int batch = 64;
+        int epochs = 10;
+        Random rand = new Random(3);
+        double[] teacher = new double[sizes[0] * sizes[2]];
+        for (int i = 0; i < teacher.length; i++) {
+            teacher[i] = rand.nextGaussian();
+        }
+        double[] x = new double[count * sizes[0]];
+        double[] y = new double[count * sizes[2]];
+        for (int s = 0; s < count; s++) {
+            int label = 0;
+            double best = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < sizes[2]; j++) {
+                double score = 0.0;
+                for (int i = 0; i < sizes[0]; i++) {
+                    if (j == 0) {
+                        x[s * sizes[0] + i] = rand.nextInt(2);
+                    }
+                    score += x[s * sizes[0] + i] * teacher[i * sizes[2] + j];
+                }
+                if (score > best) {
+                    best = score;
+                    label = j;
+                }
+            }
+            y[s * sizes[2] + label] = 1.0;
+        }
+        double samples = (double) count * epochs;
+
+        XORNeuralNetwork sequential = new XORNeuralNetwork(0.5, 1, sizes);
+        sequential.train(x, y, count, batch, epochs);
+        double rate = rate(samples, () -> new XORNeuralNetwork(0.5, 1, sizes).train(x, y, count, batch, epochs));
+        System.out.printf("%d-%d-%d, пакет %d, %d эпох, %d процессоров%n", sizes[0], sizes[1], sizes[2],
+                batch, epochs, Runtime.getRuntime().availableProcessors());
+        System.out.printf("последовательно: %,10.0f образцов/с, ошибка %.5f%n",
+                rate, sequential.meanSquaredError(x, y, count));
+
+        XORNeuralNetwork reference = null;
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            XORNeuralNetwork synchronous = new XORNeuralNetwork(0.5, 1, sizes);
+            synchronous.trainParallel(x, y, count, batch, epochs, pool);
+            if (reference == null) {
+                reference = synchronous;
+            }
+            boolean same = Arrays.deepEquals(reference.weights, synchronous.weights)
+                    && Arrays.deepEquals(reference.biases, synchronous.biases);
+            double syncError = synchronous.meanSquaredError(x, y, count);
+            XORNeuralNetwork hogwild = new XORNeuralNetwork(0.5, 1, sizes);
+            hogwild.trainHogwild(x, y, count, batch, epochs, pool);
+            double hogwildError = hogwild.meanSquaredError(x, y, count);
+
+            double syncRate = rate(samples, () -> new XORNeuralNetwork(0.5, 1, sizes)
+                    .trainParallel(x, y, count, batch, epochs, pool));
+            double hogwildRate = rate(samples, () -> new XORNeuralNetwork(0.5, 1, sizes)
+                    .trainHogwild(x, y, count, batch, epochs, pool));
+            pool.shutdown();
+            System.out.printf("%2d потоков: синхронно %,10.0f образцов/с, ошибка %.5f, веса как у 1 потока: %b;"
+                            + " Hogwild %,10.0f образцов/с, ошибка %.5f%n",
+                    threads, syncRate, syncError, same, hogwildRate, hogwildError);
+        }
+    }
+
+    private static void benchmark(String name, int count, int epochs, int... sizes) {
+        Random rand = new Random(1);
+        int in = sizes[0];
+        int out = sizes[sizes.length - 1];
+        double[] x = new double[count * in];
+        double[] y = new double[count * out];
+        double[][] rowsX = new double[count][in];
+        double[][] rowsY = new double[count][out];
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < in; i++) {
+                x[s * in + i] = rowsX[s][i] = rand.nextInt(2);
+            }
+            int label = rand.nextInt(out);
+            y[s * out + label] = rowsY[s][label] = 1.0;
+        }
+        double samples = (double) count * epochs;
+
+        System.out.println(name + ", образцов в секунду:");
+        PerSampleNetwork legacy = new PerSampleNetwork(0.1, 1, sizes);
+        double legacyTrain = rate(samples, () -> legacy.train(rowsX, rowsY, epochs));
+        double legacyPredict = rate(samples, () -> {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                for (double[] row : rowsX) {
+                    blackhole += legacy.forward(row)[sizes.length - 1][0];
+                }
+            }
+        });
+        System.out.printf("  по образцу:  обучение %,12.0f, прогноз %,12.0f%n", legacyTrain, legacyPredict);
+
+        double[] predicted = new double[count * out];
+        for (int batch : new int[]{1, 16, 64}) {
+            XORNeuralNetwork network = new XORNeuralNetwork(0.1, 1, sizes);
+            double train = rate(samples, () -> network.train(x, y, count, batch, epochs));
+            double predict = rate(samples, () -> {
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    network.predictBatch(x, count, predicted);
+                    blackhole += predicted[0];
+                }
+            });
+            System.out.printf("  пакет %3d:   обучение %,12.0f, прогноз %,12.0f%n", batch, train, predict);
+        }
+    }
+
+    // Не дает JIT выбросить результаты прогноза в замерах
+    private static double blackhole;
+
+    // Лучший из трех замеров после прогрева, в образцах в секунду
+    private static double rate(double samples, Runnable task) {
+        task.run();
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < 3; r++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return samples / (best / 1e9);
+    }
+
+    // Сохранение в файл модели: размеры слоев, скорость обучения, затем веса и смещения по слоям
+    public void save(Path file) throws IOException {
+        Object[] blocks = new Object[1 + 2 * weights.length];
+        blocks[0] = new double[]{learningRate};
+        for (int l = 0; l < weights.length; l++) {
+            blocks[1 + 2 * l] = weights[l];
+            blocks[2 + 2 * l] = biases[l];
+        }
+        ModelFile.write(file, "MLPR", sizes, blocks);
+    }
+
+    // Загрузка из файла модели: каждая матрица копируется из отображения файла одним
+    // блочным чтением, обучение не повторяется
+    public static XORNeuralNetwork load(Path file) throws IOException {
+        ModelFile model = ModelFile.map(file, "MLPR");
+        int[] sizes = model.shape;
+        if (sizes.length < 2) {
+            throw new IOException("У модели " + sizes.length + " слоев, нужно не меньше двух");
+        }
+        model.shape(sizes.length);
+        // Блоки сверяются с размерами слоев до того, как под сеть выделяется память
+        DoubleBuffer[] blocks = new DoubleBuffer[2 * sizes.length - 1];
+        blocks[0] = model.doubles(0, 1);
+        for (int l = 0; l + 1 < sizes.length; l++) {
+            blocks[1 + 2 * l] = model.doubles(1 + 2 * l, (long) sizes[l] * sizes[l + 1]);
+            blocks[2 + 2 * l] = model.doubles(2 + 2 * l, sizes[l + 1]);
+        }
+        XORNeuralNetwork network = new XORNeuralNetwork(blocks[0].get(0), (Random) null, sizes);
+        for (int l = 0; l < network.weights.length; l++) {
+            blocks[1 + 2 * l].get(network.weights[l]);
+            blocks[2 + 2 * l].get(network.biases[l]);
+        }
+        return network;
+    }
+
+    // Холодный старт: одна эпоха обучения большой сети против загрузки сохраненной модели
+    private static void benchmarkColdStart() throws IOException {
+        int[] sizes = {1024, 1024, 1024, 10};
+        int count = 1024;
+        Random rand = new Random(2);
+        double[] x = new double[count * sizes[0]];
+        double[] y = new double[count * sizes[3]];
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < sizes[0]; i++) {
+                x[s * sizes[0] + i] = rand.nextInt(2);
+            }
+            y[s * sizes[3] + rand.nextInt(sizes[3])] = 1.0;
+        }
+        Path file = Files.createTempFile("perceptron", ".model");
+        try {
+            long start = System.nanoTime();
+            XORNeuralNetwork trained = new XORNeuralNetwork(0.1, 1, sizes);
+            trained.train(x, y, count, 64, 1);
+            long trainNanos = System.nanoTime() - start;
+            trained.save(file);
+
+            start = System.nanoTime();
+            XORNeuralNetwork loaded = XORNeuralNetwork.load(file);
+            long loadNanos = System.nanoTime() - start;
+            double[] expected = new double[count * sizes[3]];
+            double[] actual = new double[count * sizes[3]];
+            trained.predictBatch(x, count, expected);
+            loaded.predictBatch(x, count, actual);
+            System.out.printf("%d-%d-%d-%d, файл %d МБ: эпоха обучения %.1f мс, загрузка %.2f мс, прогноз совпадает: %b%n",
+                    sizes[0], sizes[1], sizes[2], sizes[3], Files.size(file) >> 20,
+                    trainNanos / 1e6, loadNanos / 1e6, Arrays.equals(expected, actual));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Двоичный файл модели, один формат для всех сетей.
+    // Заголовок: магия "NNMF", версия, тип сети (4 символа ASCII), число измерений и сами
+    // измерения, число блоков и для каждого блока тип элементов и их количество.
+    // Дальше блоки весов little-endian, каждый с границы 8 байт. Каждый блок не больше 2 ГБ,
+    // а сам файл может быть и больше: он пишется и отображается в память по частям
+    private static final class ModelFile {
+        static final int MAGIC = 0x464D4E4E; // "NNMF" в порядке little-endian
+        static final int VERSION = 1;
+        static final int DOUBLES = 0;
+        static final int INTS = 1;
+        static final int SHORTS = 2;
+        static final int BYTES = 3;
+        // Размер элемента для каждого типа блока
+        private static final int[] ELEMENT_BYTES = {Double.BYTES, Integer.BYTES, Short.BYTES, Byte.BYTES};
+        // Буфер записи: блоки копируются в файл порциями этого размера
+        private static final int CHUNK = 1 << 20;
+
+        final int[] shape;
+        private final int[] types;
+        private final ByteBuffer[] blocks;
+
+        private ModelFile(int[] shape, int[] types, ByteBuffer[] blocks) {
+            this.shape = shape;
+            this.types = types;
+            this.blocks = blocks;
+        }
+
+        // Блоки — массивы double[], int[], short[] или byte[]. Файл пишется рядом и атомарно
+        // переименовывается, поэтому читатель никогда не увидит наполовину записанную модель
+        static void write(Path file, String kind, int[] shape, Object... blocks) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) align(4L * (5 + shape.length) + 8L * blocks.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).put(kind.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            header.putInt(shape.length);
+            for (int dimension : shape) {
+                header.putInt(dimension);
+            }
+            header.putInt(blocks.length);
+            for (Object block : blocks) {
+                if (size(block) > Integer.MAX_VALUE) {
+                    throw new IOException("Блок модели больше 2 ГБ: " + size(block) + " байт");
+                }
+                header.putInt(type(block));
+                header.putInt(length(block));
+            }
+            header.clear();
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                long position = header.capacity();
+                for (Object block : blocks) {
+                    writeBlock(channel, chunk, block);
+                    position += size(block);
+                    // Выравнивание следующего блока нулями
+                    chunk.clear().limit((int) (align(position) - position));
+                    while (chunk.hasRemaining()) {
+                        chunk.put((byte) 0);
+                    }
+                    writeFully(channel, chunk.flip());
+                    position = align(position);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeBlock(FileChannel channel, ByteBuffer chunk, Object block) throws IOException {
+            int type = type(block);
+            int size = ELEMENT_BYTES[type];
+            int length = length(block);
+            int step = CHUNK / size;
+            for (int from = 0; from < length; from += step) {
+                int count = Math.min(step, length - from);
+                chunk.clear();
+                switch (type) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) block, from, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) block, from, count);
+                        break;
+                    case SHORTS:
+                        chunk.asShortBuffer().put((short[]) block, from, count);
+                        break;
+                    default:
+                        chunk.put((byte[]) block, from, count);
+                        break;
+                }
+                writeFully(channel, chunk.position(0).limit(count * size));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Отображение файла в память без чтения и копирования весов: блоки становятся
+        // представлениями только для чтения, страницы подгружаются при первом обращении.
+        // Одно отображение ограничено 2 ГБ, поэтому блоки нарезаются из окон такого размера
+        static ModelFile map(Path file, String kind) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                ByteBuffer buffer = read(channel, 0, 16, file);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Не файл модели: " + file);
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IOException("Неподдерживаемая версия модели: " + buffer.getInt(4));
+                }
+                byte[] tag = new byte[4];
+                buffer.get(8, tag);
+                String actual = new String(tag, StandardCharsets.US_ASCII);
+                if (!actual.equals(kind)) {
+                    throw new IOException("В файле модель " + actual + ", ожидалась " + kind);
+                }
+                long position = 16;
+                int dimensions = buffer.getInt(12);
+                if (dimensions < 0 || 4L * dimensions + 4 > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 4 * dimensions + 4, file);
+                position += 4L * dimensions + 4;
+                int[] shape = new int[dimensions];
+                for (int i = 0; i < shape.length; i++) {
+                    shape[i] = buffer.getInt(4 * i);
+                    if (shape[i] < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                }
+                int count = buffer.getInt(4 * dimensions);
+                if (count < 0 || 8L * count > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 8 * count, file);
+                position += 8L * count;
+                int[] types = new int[count];
+                ByteBuffer[] blocks = new ByteBuffer[count];
+                long offset = align(position);
+                ByteBuffer window = null;
+                long windowStart = 0;
+                for (int b = 0; b < count; b++) {
+                    types[b] = buffer.getInt(8 * b);
+                    int elements = buffer.getInt(8 * b + 4);
+                    if (types[b] < 0 || types[b] >= ELEMENT_BYTES.length || elements < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    long length = (long) elements * ELEMENT_BYTES[types[b]];
+                    if (length > Integer.MAX_VALUE || offset + length > fileSize) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    if (window == null || offset + length > windowStart + window.capacity()) {
+                        windowStart = offset;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                Math.min(fileSize - offset, Integer.MAX_VALUE));
+                    }
+                    blocks[b] = window.slice((int) (offset - windowStart), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                    offset = align(offset + length);
+                }
+                return new ModelFile(shape, types, blocks);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+            }
+            return buffer.clear();
+        }
+
+        // Измерения, если их ровно length и все они положительны. Загрузчик сверяет с ними длины
+        // блоков до того, как выделять память под сеть, поэтому чужой или поврежденный файл
+        // дает IOException. Нулевое измерение не проверить по блокам: произведение с ним равно
+        // нулю при любом другом измерении
+        int[] shape(int length) throws IOException {
+            if (shape.length != length) {
+                throw new IOException("У модели " + shape.length + " измерений, ожидалось " + length);
+            }
+            for (int dimension : shape) {
+                if (dimension == 0) {
+                    throw new IOException("Нулевое измерение модели");
+                }
+            }
+            return shape;
+        }
+
+        // Блок как представление только для чтения; length — ожидаемое по измерениям число элементов
+        DoubleBuffer doubles(int block, long length) throws IOException {
+            check(block, DOUBLES, length);
+            return blocks[block].asDoubleBuffer();
+        }
+
+        IntBuffer ints(int block, long length) throws IOException {
+            check(block, INTS, length);
+            return blocks[block].asIntBuffer();
+        }
+
+        ShortBuffer shorts(int block, long length) throws IOException {
+            check(block, SHORTS, length);
+            return blocks[block].asShortBuffer();
+        }
+
+        ByteBuffer bytes(int block, long length) throws IOException {
+            check(block, BYTES, length);
+            return blocks[block].duplicate();
+        }
+
+        private void check(int block, int type, long length) throws IOException {
+            if (block >= blocks.length || types[block] != type
+                    || blocks[block].capacity() != length * ELEMENT_BYTES[type]) {
+                throw new IOException("Блок " + block + " модели не совпадает с ее измерениями");
+            }
+        }
+
+        private static int type(Object block) {
+            if (block instanceof double[]) {
+                return DOUBLES;
+            }
+            if (block instanceof int[]) {
+                return INTS;
+            }
+            return block instanceof short[] ? SHORTS : BYTES;
+        }
+
+        private static int length(Object block) {
+            switch (type(block)) {
+                case DOUBLES:
+                    return ((double[]) block).length;
+                case INTS:
+                    return ((int[]) block).length;
+                case SHORTS:
+                    return ((short[]) block).length;
+                default:
+                    return ((byte[]) block).length;
+            }
+        }
+
+        // Размер блока в байтах
+        private static long size(Object block) {
+            return (long) length(block) * ELEMENT_BYTES[type(block)];
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark();
+            return;
+        }
+
         // Определение набора данных XOR
         int[][] inputs = { {0, 0}, {0, 1}, {1, 0}, {1, 1} };
         int[] outputs = {0, 1, 1, 0};
@@ -100,4 +971,3 @@ public class XORNeuralNetwork {
         }
     }
 }
-
@@ -1,9 +1,32 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class SingleLayerPerceptron {
+    // Образов в одном проходе ядра: их суммы копятся в регистрах, строка весов читается один раз
+    private static final int ROWS = 4;
+    // Образов на задачу при распределении пакета по ядрам
+    private static final int CHUNK = 4096;
+
     private double[][] weights; // 100 входов x 10 выходов
     private double[] bias; // Смещение для каждого выхода
     private double learningRate;
+    // Транспонированные веса outputSize x inputSize одним массивом: строка выхода непрерывна.
+    // Строятся при первом прогнозе и сбрасываются обучением
+    private double[] packed;
 
     // Конструктор инициализации перцептрона
     public SingleLayerPerceptron(int inputSize, int outputSize, double learningRate) {
@@ -22,28 +45,124 @@ public class SingleLayerPerceptron {
 
     // Метод для предсказания (выбираем индекс с максимальным значением)
     public int predict(int[] inputs) {
-        double[] output = new double[bias.length];
-        
-        // Вычисляем взвешенную сумму для каждого выходного нейрона
-        for (int j = 0; j < bias.length; j++) {
-            output[j] = bias[j];
-            for (int i = 0; i < inputs.length; i++) {
-                output[j] += inputs[i] * weights[i][j];
-            }
-        }
+        return predict(packed(), inputs, 0);
+    }
 
-        // Находим индекс с максимальным значением (предсказанная цифра)
+    // Образ начинается с inputs[offset]
+    private int predict(double[] w, int[] inputs, int offset) {
+        int inputSize = weights.length;
         int predictedDigit = 0;
-        for (int j = 1; j < output.length; j++) {
-            if (output[j] > output[predictedDigit]) {
+        double best = 0;
+        for (int j = 0; j < bias.length; j++) {
+            double output = bias[j];
+            int row = j * inputSize;
+            for (int i = 0; i < inputSize; i++) {
+                output += inputs[offset + i] * w[row + i];
+            }
+            if (j == 0 || output > best) {
+                best = output;
                 predictedDigit = j;
             }
         }
         return predictedDigit;
     }
 
+    // Классы для count образов, уложенных подряд в inputs (count x inputSize)
+    public int[] predictBatch(int[] inputs, int count) {
+        int[] classes = new int[count];
+        predictBatch(inputs, count, classes);
+        return classes;
+    }
+
+    public void predictBatch(int[] inputs, int count, int[] classes) {
+        classify(packed(), inputs, 0, count, classes);
+    }
+
+    // То же с разбиением пакета на части по CHUNK образов между потоками пула
+    public void predictBatch(int[] inputs, int count, int[] classes, ForkJoinPool pool) {
+        double[] w = packed();
+        int chunks = (count + CHUNK - 1) / CHUNK;
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c ->
+                classify(w, inputs, c * CHUNK, Math.min(count, (c + 1) * CHUNK), classes))).join();
+    }
+
+    private double[] packed() {
+        double[] w = packed;
+        if (w == null) {
+            int inputSize = weights.length;
+            w = new double[bias.length * inputSize];
+            for (int i = 0; i < inputSize; i++) {
+                for (int j = 0; j < bias.length; j++) {
+                    w[j * inputSize + i] = weights[i][j];
+                }
+            }
+            packed = w;
+        }
+        return w;
+    }
+
+    // Классификация образов from..to-1: по ROWS образов за проход, входы заранее переводятся
+    // в double. Суммы считаются в том же порядке, что и в predict, поэтому ответы совпадают
+    private void classify(double[] w, int[] inputs, int from, int to, int[] classes) {
+        int inputSize = weights.length;
+        int outputSize = bias.length;
+        double[] x = new double[ROWS * inputSize];
+        int r = from;
+        for (; r + ROWS <= to; r += ROWS) {
+            for (int i = 0; i < ROWS * inputSize; i++) {
+                x[i] = inputs[r * inputSize + i];
+            }
+            double b0 = 0;
+            double b1 = 0;
+            double b2 = 0;
+            double b3 = 0;
+            int c0 = 0;
+            int c1 = 0;
+            int c2 = 0;
+            int c3 = 0;
+            for (int j = 0; j < outputSize; j++) {
+                int row = j * inputSize;
+                double s0 = bias[j];
+                double s1 = bias[j];
+                double s2 = bias[j];
+                double s3 = bias[j];
+                for (int i = 0; i < inputSize; i++) {
+                    double weight = w[row + i];
+                    s0 += x[i] * weight;
+                    s1 += x[inputSize + i] * weight;
+                    s2 += x[2 * inputSize + i] * weight;
+                    s3 += x[3 * inputSize + i] * weight;
+                }
+                if (j == 0 || s0 > b0) {
+                    b0 = s0;
+                    c0 = j;
+                }
+                if (j == 0 || s1 > b1) {
+                    b1 = s1;
+                    c1 = j;
+                }
+                if (j == 0 || s2 > b2) {
+                    b2 = s2;
+                    c2 = j;
+                }
+                if (j == 0 || s3 > b3) {
+                    b3 = s3;
+                    c3 = j;
+                }
+            }
+            classes[r] = c0;
+            classes[r + 1] = c1;
+            classes[r + 2] = c2;
+            classes[r + 3] = c3;
+        }
+        for (; r < to; r++) {
+            classes[r] = predict(w, inputs, r * inputSize);
+        }
+    }
+
     // Метод для обучения перцептрона
     public void train(int[][] trainingData, int[][] labels, int epochs) {
+        packed = null;
         for (int epoch = 0; epoch < epochs; epoch++) {
             for (int i = 0; i < trainingData.length; i++) {
                 int[] inputs = trainingData[i];
@@ -68,9 +187,356 @@ public class SingleLayerPerceptron {
                 }
             }
         }
+        // Повторный сброс: прогноз во время обучения мог собрать кэш из наполовину обновленных весов
+        packed = null;
+    }
+
+    // Сохранение весов в файл модели: матрица inputSize x outputSize по строкам и смещения
+    public void save(Path file) throws IOException {
+        double[] matrix = Arrays.stream(weights).flatMapToDouble(Arrays::stream).toArray();
+        ModelFile.write(file, "SLPR", new int[]{weights.length, bias.length},
+                matrix, bias, new double[]{learningRate});
+    }
+
+    // Загрузка из файла модели: веса копируются из отображения построчно
+    public static SingleLayerPerceptron load(Path file) throws IOException {
+        ModelFile model = ModelFile.map(file, "SLPR");
+        int[] shape = model.shape(2);
+        int inputSize = shape[0];
+        int outputSize = shape[1];
+        DoubleBuffer matrix = model.doubles(0, (long) inputSize * outputSize);
+        DoubleBuffer bias = model.doubles(1, outputSize);
+        SingleLayerPerceptron perceptron = new SingleLayerPerceptron(inputSize, outputSize,
+                model.doubles(2, 1).get(0));
+        for (double[] row : perceptron.weights) {
+            matrix.get(row);
+        }
+        bias.get(perceptron.bias);
+        return perceptron;
+    }
+
+    // Двоичный файл модели, один формат для всех сетей.
+    // Заголовок: магия "NNMF", версия, тип сети (4 символа ASCII), число измерений и сами
+    // измерения, число блоков и для каждого блока тип элементов и их количество.
+    // Дальше блоки весов little-endian, каждый с границы 8 байт. Каждый блок не больше 2 ГБ,
+    // а сам файл может быть и больше: он пишется и отображается в память по частям
+    private static final class ModelFile {
+        static final int MAGIC = 0x464D4E4E; // "NNMF" в порядке little-endian
+        static final int VERSION = 1;
+        static final int DOUBLES = 0;
+        static final int INTS = 1;
+        static final int SHORTS = 2;
+        static final int BYTES = 3;
+        // Размер элемента для каждого типа блока
+        private static final int[] ELEMENT_BYTES = {Double.BYTES, Integer.BYTES, Short.BYTES, Byte.BYTES};
+        // Буфер записи: блоки копируются в файл порциями этого размера
+        private static final int CHUNK = 1 << 20;
+
+        final int[] shape;
+        private final int[] types;
+        private final ByteBuffer[] blocks;
+
+        private ModelFile(int[] shape, int[] types, ByteBuffer[] blocks) {
+            this.shape = shape;
+            this.types = types;
+            this.blocks = blocks;
+        }
+
+        // Блоки — массивы double[], int[], short[] или byte[]. Файл пишется рядом и атомарно
+        // переименовывается, поэтому читатель никогда не увидит наполовину записанную модель
+        static void write(Path file, String kind, int[] shape, Object... blocks) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) align(4L * (5 + shape.length) + 8L * blocks.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).put(kind.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            header.putInt(shape.length);
+            for (int dimension : shape) {
+                header.putInt(dimension);
+            }
+            header.putInt(blocks.length);
+            for (Object block : blocks) {
+                if (size(block) > Integer.MAX_VALUE) {
+                    throw new IOException("Блок модели больше 2 ГБ: " + size(block) + " байт");
+                }
+                header.putInt(type(block));
+                header.putInt(length(block));
+            }
+            header.clear();
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                long position = header.capacity();
+                for (Object block : blocks) {
+                    writeBlock(channel, chunk, block);
+                    position += size(block);
+                    // Выравнивание следующего блока нулями
+                    chunk.clear().limit((int) (align(position) - position));
+                    while (chunk.hasRemaining()) {
+                        chunk.put((byte) 0);
+                    }
+                    writeFully(channel, chunk.flip());
+                    position = align(position);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeBlock(FileChannel channel, ByteBuffer chunk, Object block) throws IOException {
+            int type = type(block);
+            int size = ELEMENT_BYTES[type];
+            int length = length(block);
+            int step = CHUNK / size;
+            for (int from = 0; from < length; from += step) {
+                int count = Math.min(step, length - from);
+                chunk.clear();
+                switch (type) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) block, from, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) block, from, count);
+                        break;
+                    case SHORTS:
+                        chunk.asShortBuffer().put((short[]) block, from, count);
+                        break;
+                    default:
+                        chunk.put((byte[]) block, from, count);
+                        break;
+                }
+                writeFully(channel, chunk.position(0).limit(count * size));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Отображение файла в память без чтения и копирования весов: блоки становятся
+        // представлениями только для чтения, страницы подгружаются при первом обращении.
+        // Одно отображение ограничено 2 ГБ, поэтому блоки нарезаются из окон такого размера
+        static ModelFile map(Path file, String kind) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                ByteBuffer buffer = read(channel, 0, 16, file);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Не файл модели: " + file);
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IOException("Неподдерживаемая версия модели: " + buffer.getInt(4));
+                }
+                byte[] tag = new byte[4];
+                buffer.get(8, tag);
+                String actual = new String(tag, StandardCharsets.US_ASCII);
+                if (!actual.equals(kind)) {
+                    throw new IOException("В файле модель " + actual + ", ожидалась " + kind);
+                }
+                long position = 16;
+                int dimensions = buffer.getInt(12);
+                if (dimensions < 0 || 4L * dimensions + 4 > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 4 * dimensions + 4, file);
+                position += 4L * dimensions + 4;
+                int[] shape = new int[dimensions];
+                for (int i = 0; i < shape.length; i++) {
+                    shape[i] = buffer.getInt(4 * i);
+                    if (shape[i] < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                }
+                int count = buffer.getInt(4 * dimensions);
+                if (count < 0 || 8L * count > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 8 * count, file);
+                position += 8L * count;
+                int[] types = new int[count];
+                ByteBuffer[] blocks = new ByteBuffer[count];
+                long offset = align(position);
+                ByteBuffer window = null;
+                long windowStart = 0;
+                for (int b = 0; b < count; b++) {
+                    types[b] = buffer.getInt(8 * b);
+                    int elements = buffer.getInt(8 * b + 4);
+                    if (types[b] < 0 || types[b] >= ELEMENT_BYTES.length || elements < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    long length = (long) elements * ELEMENT_BYTES[types[b]];
+                    if (length > Integer.MAX_VALUE || offset + length > fileSize) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    if (window == null || offset + length > windowStart + window.capacity()) {
+                        windowStart = offset;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                Math.min(fileSize - offset, Integer.MAX_VALUE));
+                    }
+                    blocks[b] = window.slice((int) (offset - windowStart), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                    offset = align(offset + length);
+                }
+                return new ModelFile(shape, types, blocks);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+            }
+            return buffer.clear();
+        }
+
+        // Измерения, если их ровно length и все они положительны. Загрузчик сверяет с ними длины
+        // блоков до того, как выделять память под сеть, поэтому чужой или поврежденный файл
+        // дает IOException. Нулевое измерение не проверить по блокам: произведение с ним равно
+        // нулю при любом другом измерении
+        int[] shape(int length) throws IOException {
+            if (shape.length != length) {
+                throw new IOException("У модели " + shape.length + " измерений, ожидалось " + length);
+            }
+            for (int dimension : shape) {
+                if (dimension == 0) {
+                    throw new IOException("Нулевое измерение модели");
+                }
+            }
+            return shape;
+        }
+
+        // Блок как представление только для чтения; length — ожидаемое по измерениям число элементов
+        DoubleBuffer doubles(int block, long length) throws IOException {
+            check(block, DOUBLES, length);
+            return blocks[block].asDoubleBuffer();
+        }
+
+        IntBuffer ints(int block, long length) throws IOException {
+            check(block, INTS, length);
+            return blocks[block].asIntBuffer();
+        }
+
+        ShortBuffer shorts(int block, long length) throws IOException {
+            check(block, SHORTS, length);
+            return blocks[block].asShortBuffer();
+        }
+
+        ByteBuffer bytes(int block, long length) throws IOException {
+            check(block, BYTES, length);
+            return blocks[block].duplicate();
+        }
+
+        private void check(int block, int type, long length) throws IOException {
+            if (block >= blocks.length || types[block] != type
+                    || blocks[block].capacity() != length * ELEMENT_BYTES[type]) {
+                throw new IOException("Блок " + block + " модели не совпадает с ее измерениями");
+            }
+        }
+
+        private static int type(Object block) {
+            if (block instanceof double[]) {
+                return DOUBLES;
+            }
+            if (block instanceof int[]) {
+                return INTS;
+            }
+            return block instanceof short[] ? SHORTS : BYTES;
+        }
+
+        private static int length(Object block) {
+            switch (type(block)) {
+                case DOUBLES:
+                    return ((double[]) block).length;
+                case INTS:
+                    return ((int[]) block).length;
+                case SHORTS:
+                    return ((short[]) block).length;
+                default:
+                    return ((byte[]) block).length;
+            }
+        }
+
+        // Размер блока в байтах
+        private static long size(Object block) {
+            return (long) length(block) * ELEMENT_BYTES[type(block)];
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    // Прежний predict: массив выходов на каждый вызов и обход weights[i][j] по столбцу
+    private int predictPerCall(int[] inputs) {
+        double[] output = new double[bias.length];
+        for (int j = 0; j < bias.length; j++) {
+            output[j] = bias[j];
+            for (int i = 0; i < inputs.length; i++) {
+                output[j] += inputs[i] * weights[i][j];
+            }
+        }
+        int predictedDigit = 0;
+        for (int j = 1; j < output.length; j++) {
+            if (output[j] > output[predictedDigit]) {
+                predictedDigit = j;
+            }
+        }
+        return predictedDigit;
+    }
+
+    // Образов в секунду: прежний predict, новый predict, пакет и пакет на всех ядрах
+    private static void benchmark() {
+        int inputSize = 100;
+        int count = 1 << 20;
+        Random rand = new Random(1);
+        SingleLayerPerceptron perceptron = new SingleLayerPerceptron(inputSize, 10, 0.1);
+        int[] inputs = new int[count * inputSize];
+        int[][] samples = new int[count][];
+        for (int s = 0; s < count; s++) {
+            for (int i = 0; i < inputSize; i++) {
+                inputs[s * inputSize + i] = rand.nextInt(2);
+            }
+            samples[s] = Arrays.copyOfRange(inputs, s * inputSize, (s + 1) * inputSize);
+        }
+        int[] expected = new int[count];
+        int[] classes = new int[count];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int s = 0; s < count; s++) {
+                expected[s] = perceptron.predictPerCall(samples[s]);
+            }
+            long perCall = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int s = 0; s < count; s++) {
+                classes[s] = perceptron.predict(samples[s]);
+            }
+            long single = System.nanoTime() - start;
+            boolean same = Arrays.equals(expected, classes);
+            start = System.nanoTime();
+            perceptron.predictBatch(inputs, count, classes);
+            long batch = System.nanoTime() - start;
+            same &= Arrays.equals(expected, classes);
+            start = System.nanoTime();
+            perceptron.predictBatch(inputs, count, classes, pool);
+            long parallel = System.nanoTime() - start;
+            same &= Arrays.equals(expected, classes);
+            System.out.printf("образов/с: прежний predict %,.0f, predict %,.0f, пакет %,.0f, пакет на %d потоках %,.0f;"
+                            + " ответы совпадают: %b%n", count / (perCall / 1e9), count / (single / 1e9),
+                    count / (batch / 1e9), pool.getParallelism(), count / (parallel / 1e9), same);
+        }
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmark();
+            return;
+        }
+
         // Параметры
         int epochs = 100;
         double learningRate = 0.1;
@@ -1,7 +1,21 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GeneticPerceptron {
 
@@ -10,7 +24,363 @@ public class GeneticPerceptron {
     private static final double MUTATION_RATE = 0.1;
     private static final double CROSSOVER_RATE = 0.8;
 
-    private static Random random = new Random();
+    private static CheckpointRandom random = new CheckpointRandom();
+
+    // Отбор родителей: заполняет selected номерами особей по их фитнесу.
+    // Реализации держат свои рабочие буферы, поэтому один объект не должен
+    // использоваться из нескольких потоков одновременно
+    public interface Selection {
+        void select(double[] fitness, int[] selected, Random random);
+
+        // Исходная рулетка: линейный проход от начала на каждый выбор, O(n·m)
+        static Selection roulette() {
+            return new LinearRoulette();
+        }
+
+        // Рулетка бинарным поиском по префиксным суммам, O(n + m·log n)
+        static Selection prefixSum() {
+            return new PrefixSumRoulette();
+        }
+
+        // Рулетка методом псевдонимов Возе, O(n + m)
+        static Selection alias() {
+            return new AliasRoulette();
+        }
+
+        // Турнир из size случайных особей, O(m·size)
+        static Selection tournament(int size) {
+            return new TournamentSelection(size);
+        }
+
+        // Стохастическая универсальная выборка: m равноотстоящих указателей
+        // на одном обороте рулетки, O(n + m)
+        static Selection stochasticUniversal() {
+            return new StochasticUniversalSampling();
+        }
+    }
+
+    private static double totalFitness(double[] fitness) {
+        double total = 0.0;
+        for (double value : fitness) {
+            total += value;
+        }
+        return total;
+    }
+
+    // При нулевом суммарном фитнесе пропорциональный отбор вырождается в равномерный
+    private static void selectUniform(int n, int[] selected, Random random) {
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = random.nextInt(n);
+        }
+    }
+
+    private static final class LinearRoulette implements Selection {
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            double totalFitness = totalFitness(fitness);
+            for (int i = 0; i < selected.length; i++) {
+                double rand = random.nextDouble() * totalFitness;
+                double cumulativeFitness = 0.0;
+                int chosen = n - 1;
+                for (int j = 0; j < n; j++) {
+                    cumulativeFitness += fitness[j];
+                    if (cumulativeFitness >= rand) {
+                        chosen = j;
+                        break;
+                    }
+                }
+                selected[i] = chosen;
+            }
+        }
+    }
+
+    private static final class PrefixSumRoulette implements Selection {
+        private double[] prefix = new double[0];
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            if (prefix.length != n) {
+                prefix = new double[n];
+            }
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += fitness[i];
+                prefix[i] = sum;
+            }
+            if (sum <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+            for (int i = 0; i < selected.length; i++) {
+                // Первая особь, у которой префиксная сумма превышает случайную точку
+                double rand = random.nextDouble() * sum;
+                int lo = 0;
+                int hi = n - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (prefix[mid] > rand) {
+                        hi = mid;
+                    } else {
+                        lo = mid + 1;
+                    }
+                }
+                selected[i] = lo;
+            }
+        }
+    }
+
+    private static final class AliasRoulette implements Selection {
+        private double[] probability = new double[0];
+        private int[] alias = new int[0];
+        private int[] small = new int[0];
+        private int[] large = new int[0];
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            if (probability.length != n) {
+                probability = new double[n];
+                alias = new int[n];
+                small = new int[n];
+                large = new int[n];
+            }
+            double total = totalFitness(fitness);
+            if (total <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+
+            // Построение таблицы: каждая ячейка делится между особью и ее псевдонимом
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                probability[i] = fitness[i] * n / total;
+                if (probability[i] < 1.0) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                alias[less] = more;
+                probability[more] += probability[less] - 1.0;
+                if (probability[more] < 1.0) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            // Остатки из-за погрешности округления заполняют ячейку целиком
+            while (largeCount > 0) {
+                probability[large[--largeCount]] = 1.0;
+            }
+            while (smallCount > 0) {
+                probability[small[--smallCount]] = 1.0;
+            }
+
+            for (int i = 0; i < selected.length; i++) {
+                int column = random.nextInt(n);
+                selected[i] = random.nextDouble() < probability[column] ? column : alias[column];
+            }
+        }
+    }
+
+    private static final class TournamentSelection implements Selection {
+        private final int size;
+
+        TournamentSelection(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Размер турнира должен быть положительным");
+            }
+            this.size = size;
+        }
+
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            for (int i = 0; i < selected.length; i++) {
+                int winner = random.nextInt(n);
+                for (int k = 1; k < size; k++) {
+                    int challenger = random.nextInt(n);
+                    if (fitness[challenger] > fitness[winner]) {
+                        winner = challenger;
+                    }
+                }
+                selected[i] = winner;
+            }
+        }
+    }
+
+    private static final class StochasticUniversalSampling implements Selection {
+        @Override
+        public void select(double[] fitness, int[] selected, Random random) {
+            int n = fitness.length;
+            double total = totalFitness(fitness);
+            if (total <= 0.0) {
+                selectUniform(n, selected, random);
+                return;
+            }
+            double step = total / selected.length;
+            double pointer = random.nextDouble() * step;
+            double cumulative = fitness[0];
+            int j = 0;
+            for (int i = 0; i < selected.length; i++) {
+                while (cumulative <= pointer && j < n - 1) {
+                    cumulative += fitness[++j];
+                }
+                selected[i] = j;
+                pointer += step;
+            }
+        }
+    }
+
+    // Асинхронная запись снимков с двойной буферизацией: пока фоновый поток
+    // пишет один буфер, следующий снимок заполняет другой. Если диск не успевает
+    // и заняты оба буфера, снимок пропускается, а не останавливает эволюцию.
+    // Файл заменяется атомарно, поэтому при сбое остается предыдущий целый снимок
+    private static final class CheckpointWriter implements AutoCloseable {
+        private final Path file;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final ByteBuffer[] buffers = new ByteBuffer[2];
+        private final Future<?>[] writes = {CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(null)};
+        private int turn;
+
+        CheckpointWriter(Path file) {
+            this.file = file;
+        }
+
+        // Свободный буфер нужного размера или null, если его прошлая запись еще идет
+        ByteBuffer begin(int bytes) {
+            if (!writes[turn].isDone()) {
+                return null;
+            }
+            await(writes[turn]);
+            if (buffers[turn] == null || buffers[turn].capacity() < bytes) {
+                buffers[turn] = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            ByteBuffer buffer = buffers[turn];
+            buffer.clear();
+            return buffer;
+        }
+
+        // Отдать заполненный буфер фоновому потоку
+        void commit() {
+            ByteBuffer buffer = buffers[turn];
+            buffer.flip();
+            writes[turn] = executor.submit(() -> {
+                write(buffer);
+                return null;
+            });
+            turn ^= 1;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void await(Future<?> write) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание записи снимка прервано", e);
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException("Не удалось записать снимок",
+                        e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                for (Future<?> write : writes) {
+                    await(write);
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Тот же генератор, что и java.util.Random (алгоритмы next и nextGaussian
+    // из его документации, последовательности совпадают), но с открытым
+    // состоянием: снимок сохраняет его без сериализации объекта
+    static final class CheckpointRandom extends Random {
+        private static final long serialVersionUID = 1L;
+        private static final long MULTIPLIER = 0x5DEECE66DL;
+        private static final long ADDEND = 0xBL;
+        private static final long MASK = (1L << 48) - 1;
+        static final int STATE_BYTES = 8 + 8 + 4;
+
+        private long seed;
+        private double nextNextGaussian;
+        private boolean haveNextNextGaussian;
+
+        CheckpointRandom() {
+        }
+
+        CheckpointRandom(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public void setSeed(long seed) {
+            this.seed = (seed ^ MULTIPLIER) & MASK;
+            this.haveNextNextGaussian = false;
+        }
+
+        @Override
+        protected int next(int bits) {
+            seed = (seed * MULTIPLIER + ADDEND) & MASK;
+            return (int) (seed >>> (48 - bits));
+        }
+
+        @Override
+        public double nextGaussian() {
+            if (haveNextNextGaussian) {
+                haveNextNextGaussian = false;
+                return nextNextGaussian;
+            }
+            double v1;
+            double v2;
+            double s;
+            do {
+                v1 = 2 * nextDouble() - 1;
+                v2 = 2 * nextDouble() - 1;
+                s = v1 * v1 + v2 * v2;
+            } while (s >= 1 || s == 0);
+            double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+            nextNextGaussian = v2 * multiplier;
+            haveNextNextGaussian = true;
+            return v1 * multiplier;
+        }
+
+        void save(ByteBuffer buffer) {
+            buffer.putLong(seed).putDouble(nextNextGaussian).putInt(haveNextNextGaussian ? 1 : 0);
+        }
+
+        void load(ByteBuffer buffer) {
+            seed = buffer.getLong();
+            nextNextGaussian = buffer.getDouble();
+            haveNextNextGaussian = buffer.getInt() != 0;
+        }
+    }
 
     // Класс для представления индивидуума (набор весов перцептрона)
     static class Individual {
@@ -24,6 +394,11 @@ public class GeneticPerceptron {
             }
             this.fitness = 0.0;
         }
+
+        // Особь с готовыми весами, например из снимка
+        Individual(double[] weights) {
+            this.weights = weights;
+        }
     }
 
     // Оценка фитнеса: правильная классификация данных
@@ -51,20 +426,16 @@ public class GeneticPerceptron {
         return 1.0 / (1.0 + Math.exp(-x));
     }
 
-    // Селекция методом рулетки
-    private static ArrayList<Individual> rouletteSelection(ArrayList<Individual> population) {
-        ArrayList<Individual> selected = new ArrayList<>();
-        double totalFitness = population.stream().mapToDouble(i -> i.fitness).sum();
-        for (int i = 0; i < POPULATION_SIZE / 2; i++) {
-            double rand = random.nextDouble() * totalFitness;
-            double cumulativeFitness = 0.0;
-            for (Individual individual : population) {
-                cumulativeFitness += individual.fitness;
-                if (cumulativeFitness >= rand) {
-                    selected.add(individual);
-                    break;
-                }
-            }
+    // Селекция выбранным оператором
+    private static ArrayList<Individual> select(ArrayList<Individual> population, Selection selection,
+                                                double[] fitness, int[] indices) {
+        for (int i = 0; i < fitness.length; i++) {
+            fitness[i] = population.get(i).fitness;
+        }
+        selection.select(fitness, indices, random);
+        ArrayList<Individual> selected = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            selected.add(population.get(index));
         }
         return selected;
     }
@@ -88,21 +459,68 @@ public class GeneticPerceptron {
         }
     }
 
-    // Генетический алгоритм для обучения перцептрона
+    // Генетический алгоритм для обучения перцептрона (исходная селекция рулеткой)
     private static Individual runGA(double[][] inputs, int[] targets, int numWeights) {
+        return runGA(inputs, targets, numWeights, Selection.roulette());
+    }
+
+    private static Individual runGA(double[][] inputs, int[] targets, int numWeights, Selection selection) {
+        try {
+            return runGA(inputs, targets, numWeights, selection, null, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Вариант со снимками: каждые interval поколений состояние пишется в checkpoint.
+    // Запуск всегда начинается с новой популяции, даже если снимок уже есть;
+    // продолжить прерванный запуск — resumeGA
+    private static Individual runGA(double[][] inputs, int[] targets, int numWeights, Selection selection,
+                                    Path checkpoint, int interval) throws IOException {
         ArrayList<Individual> population = new ArrayList<>();
         for (int i = 0; i < POPULATION_SIZE; i++) {
             population.add(new Individual(numWeights));
         }
+        return evolve(inputs, targets, selection, population, 0, false, checkpoint, interval);
+    }
+
+    // Продолжение запуска из снимка: с сохраненным состоянием генератора результат
+    // совпадает с непрерывным запуском. Следующие снимки пишутся в тот же файл
+    private static Individual resumeGA(double[][] inputs, int[] targets, int numWeights, Selection selection,
+                                       Path checkpoint, int interval) throws IOException {
+        ArrayList<Individual> population = new ArrayList<>();
+        int start = readCheckpoint(checkpoint, population, numWeights);
+        return evolve(inputs, targets, selection, population, start, true, checkpoint, interval);
+    }
+
+    private static Individual evolve(double[][] inputs, int[] targets, Selection selection,
+                                     ArrayList<Individual> population, int start, boolean evaluated,
+                                     Path checkpoint, int interval) throws IOException {
+        double[] fitness = new double[POPULATION_SIZE];
+        int[] indices = new int[POPULATION_SIZE / 2];
+        try (CheckpointWriter writer = checkpoint != null ? new CheckpointWriter(checkpoint) : null) {
+            return evolve(inputs, targets, selection, population, fitness, indices, start,
+                    evaluated, writer, interval);
+        }
+    }
 
-        for (int generation = 0; generation < MAX_GENERATIONS; generation++) {
-            // Оценка фитнеса
-            for (Individual individual : population) {
-                individual.fitness = evaluateFitness(individual, inputs, targets);
+    private static Individual evolve(double[][] inputs, int[] targets, Selection selection,
+                                     ArrayList<Individual> population, double[] fitness, int[] indices,
+                                     int start, boolean evaluated, CheckpointWriter writer, int interval) {
+        for (int generation = start; generation < MAX_GENERATIONS; generation++) {
+            // Оценка фитнеса (после продолжения из снимка фитнес первого поколения уже известен)
+            if (!evaluated) {
+                for (Individual individual : population) {
+                    individual.fitness = evaluateFitness(individual, inputs, targets);
+                }
+            }
+            evaluated = false;
+            if (writer != null && generation > start && generation % interval == 0) {
+                writeCheckpoint(writer, population, generation);
             }
 
             // Селекция
-            ArrayList<Individual> selected = rouletteSelection(population);
+            ArrayList<Individual> selected = select(population, selection, fitness, indices);
 
             // Создание нового поколения
             ArrayList<Individual> newGeneration = new ArrayList<>(selected);
@@ -127,7 +545,99 @@ public class GeneticPerceptron {
         return population.stream().max(Comparator.comparingDouble(i -> i.fitness)).orElse(null);
     }
 
-    public static void main(String[] args) {
+    // Формат снимка (little-endian): "GPCP", версия, поколение, размер популяции,
+    // число весов, состояние генератора, затем все веса и весь фитнес
+    private static final int CHECKPOINT_MAGIC = 0x50435047; // "GPCP" в little-endian
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private static void writeCheckpoint(CheckpointWriter writer, ArrayList<Individual> population, int generation) {
+        int numWeights = population.get(0).weights.length;
+        int bytes = 4 * 5 + CheckpointRandom.STATE_BYTES + 8 * population.size() * (numWeights + 1);
+        ByteBuffer buffer = writer.begin(bytes);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putInt(generation)
+                .putInt(population.size()).putInt(numWeights);
+        random.save(buffer);
+        for (Individual individual : population) {
+            for (double weight : individual.weights) {
+                buffer.putDouble(weight);
+            }
+        }
+        for (Individual individual : population) {
+            buffer.putDouble(individual.fitness);
+        }
+        writer.commit();
+    }
+
+    private static int readCheckpoint(Path file, ArrayList<Individual> population, int numWeights) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 24 || buffer.getInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Не снимок обучения перцептрона: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != CHECKPOINT_VERSION) {
+            throw new IOException("Неподдерживаемая версия снимка: " + version);
+        }
+        int generation = buffer.getInt();
+        int size = buffer.getInt();
+        if (size != POPULATION_SIZE || buffer.getInt() != numWeights) {
+            throw new IOException("Снимок сделан для другой популяции или другого числа весов");
+        }
+        random.load(buffer);
+        for (int i = 0; i < size; i++) {
+            double[] weights = new double[numWeights];
+            for (int w = 0; w < numWeights; w++) {
+                weights[w] = buffer.getDouble();
+            }
+            population.add(new Individual(weights));
+        }
+        for (Individual individual : population) {
+            individual.fitness = buffer.getDouble();
+        }
+        return generation;
+    }
+
+    // Продолжение из снимка дает те же веса, что и непрерывный запуск. Стоимость снимка
+    // почти не зависит от размера популяции, поэтому она выражена в поколениях:
+    // интервал снимков должен быть во много раз больше этого числа
+    private static void benchmarkCheckpoint(double[][] inputs, int[] targets, int numWeights) throws IOException {
+        Path file = Files.createTempFile("perceptron", ".ckpt");
+        Files.delete(file);
+        try {
+            random = new CheckpointRandom(7);
+            Individual expected = runGA(inputs, targets, numWeights, Selection.roulette(), file, 500);
+            Individual actual = resumeGA(inputs, targets, numWeights, Selection.roulette(), file, 500);
+            System.out.println("Продолжение с 500-го поколения совпадает с непрерывным запуском: "
+                    + Arrays.equals(expected.weights, actual.weights));
+
+            runGA(inputs, targets, numWeights); // Прогрев JIT
+            // Варианты чередуются, чтобы дрейф частоты и JIT одинаково влияли на оба
+            int repeats = 100;
+            long plain = 0;
+            long withSnapshots = 0;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                runGA(inputs, targets, numWeights);
+                plain += System.nanoTime() - start;
+                start = System.nanoTime();
+                runGA(inputs, targets, numWeights, Selection.roulette(), file, 100);
+                withSnapshots += System.nanoTime() - start;
+            }
+            // Поколений со снимком за запуск: 100, 200, ..., 900
+            int snapshots = (MAX_GENERATIONS - 1) / 100;
+            double generationMillis = plain / 1e6 / repeats / MAX_GENERATIONS;
+            double snapshotMillis = (withSnapshots - plain) / 1e6 / repeats / snapshots;
+            System.out.printf("Поколение: %.4f мс, снимок: %.3f мс (как %.0f поколений); при снимке каждые 100 поколений %+.1f%%%n",
+                    generationMillis, snapshotMillis, snapshotMillis / generationMillis,
+                    100.0 * (withSnapshots - plain) / plain);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
         // Пример данных для обучения: XOR
         double[][] inputs = {
             {0, 0}, {0, 1}, {1, 0}, {1, 1}
@@ -140,5 +650,9 @@ public class GeneticPerceptron {
         Individual bestIndividual = runGA(inputs, targets, numWeights);
         System.out.println("Лучшие веса: " + Arrays.toString(bestIndividual.weights));
         System.out.println("Точность: " + bestIndividual.fitness);
+
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkCheckpoint(inputs, targets, numWeights);
+        }
     }
 }
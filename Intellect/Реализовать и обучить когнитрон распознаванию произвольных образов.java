@@ -1,3 +1,16 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Random;
 
 public class Cognitron {
@@ -95,6 +108,283 @@ public class Cognitron {
         return currentInput;
     }
 
+    // Сохранение фильтров в файл модели: слой за слоем, фильтр за фильтром
+    public void save(Path file) throws IOException {
+        double[] flat = Arrays.stream(filters).flatMap(Arrays::stream).flatMapToDouble(Arrays::stream).toArray();
+        ModelFile.write(file, "COGN", new int[]{numLayers, numFilters, filterSize}, flat, new double[]{learningRate});
+    }
+
+    // Загрузка из файла модели: фильтры копируются из отображения
+    public static Cognitron load(Path file) throws IOException {
+        ModelFile model = ModelFile.map(file, "COGN");
+        int[] shape = model.shape(3);
+        int numLayers = shape[0];
+        int numFilters = shape[1];
+        int filterSize = shape[2];
+        DoubleBuffer flat = model.doubles(0, (long) numLayers * numFilters * filterSize * filterSize);
+        Cognitron cognitron = new Cognitron(numLayers, numFilters, filterSize, model.doubles(1, 1).get(0));
+        for (double[][] layer : cognitron.filters) {
+            for (double[] filter : layer) {
+                flat.get(filter);
+            }
+        }
+        return cognitron;
+    }
+
+    // Двоичный файл модели, один формат для всех сетей.
+    // Заголовок: магия "NNMF", версия, тип сети (4 символа ASCII), число измерений и сами
+    // измерения, число блоков и для каждого блока тип элементов и их количество.
+    // Дальше блоки весов little-endian, каждый с границы 8 байт. Каждый блок не больше 2 ГБ,
+    // а сам файл может быть и больше: он пишется и отображается в память по частям
+    private static final class ModelFile {
+        static final int MAGIC = 0x464D4E4E; // "NNMF" в порядке little-endian
+        static final int VERSION = 1;
+        static final int DOUBLES = 0;
+        static final int INTS = 1;
+        static final int SHORTS = 2;
+        static final int BYTES = 3;
+        // Размер элемента для каждого типа блока
+        private static final int[] ELEMENT_BYTES = {Double.BYTES, Integer.BYTES, Short.BYTES, Byte.BYTES};
+        // Буфер записи: блоки копируются в файл порциями этого размера
+        private static final int CHUNK = 1 << 20;
+
+        final int[] shape;
+        private final int[] types;
+        private final ByteBuffer[] blocks;
+
+        private ModelFile(int[] shape, int[] types, ByteBuffer[] blocks) {
+            this.shape = shape;
+            this.types = types;
+            this.blocks = blocks;
+        }
+
+        // Блоки — массивы double[], int[], short[] или byte[]. Файл пишется рядом и атомарно
+        // переименовывается, поэтому читатель никогда не увидит наполовину записанную модель
+        static void write(Path file, String kind, int[] shape, Object... blocks) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) align(4L * (5 + shape.length) + 8L * blocks.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).put(kind.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            header.putInt(shape.length);
+            for (int dimension : shape) {
+                header.putInt(dimension);
+            }
+            header.putInt(blocks.length);
+            for (Object block : blocks) {
+                if (size(block) > Integer.MAX_VALUE) {
+                    throw new IOException("Блок модели больше 2 ГБ: " + size(block) + " байт");
+                }
+                header.putInt(type(block));
+                header.putInt(length(block));
+            }
+            header.clear();
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                long position = header.capacity();
+                for (Object block : blocks) {
+                    writeBlock(channel, chunk, block);
+                    position += size(block);
+                    // Выравнивание следующего блока нулями
+                    chunk.clear().limit((int) (align(position) - position));
+                    while (chunk.hasRemaining()) {
+                        chunk.put((byte) 0);
+                    }
+                    writeFully(channel, chunk.flip());
+                    position = align(position);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeBlock(FileChannel channel, ByteBuffer chunk, Object block) throws IOException {
+            int type = type(block);
+            int size = ELEMENT_BYTES[type];
+            int length = length(block);
+            int step = CHUNK / size;
+            for (int from = 0; from < length; from += step) {
+                int count = Math.min(step, length - from);
+                chunk.clear();
+                switch (type) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) block, from, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) block, from, count);
+                        break;
+                    case SHORTS:
+                        chunk.asShortBuffer().put((short[]) block, from, count);
+                        break;
+                    default:
+                        chunk.put((byte[]) block, from, count);
+                        break;
+                }
+                writeFully(channel, chunk.position(0).limit(count * size));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Отображение файла в память без чтения и копирования весов: блоки становятся
+        // представлениями только для чтения, страницы подгружаются при первом обращении.
+        // Одно отображение ограничено 2 ГБ, поэтому блоки нарезаются из окон такого размера
+        static ModelFile map(Path file, String kind) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                ByteBuffer buffer = read(channel, 0, 16, file);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Не файл модели: " + file);
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IOException("Неподдерживаемая версия модели: " + buffer.getInt(4));
+                }
+                byte[] tag = new byte[4];
+                buffer.get(8, tag);
+                String actual = new String(tag, StandardCharsets.US_ASCII);
+                if (!actual.equals(kind)) {
+                    throw new IOException("В файле модель " + actual + ", ожидалась " + kind);
+                }
+                long position = 16;
+                int dimensions = buffer.getInt(12);
+                if (dimensions < 0 || 4L * dimensions + 4 > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 4 * dimensions + 4, file);
+                position += 4L * dimensions + 4;
+                int[] shape = new int[dimensions];
+                for (int i = 0; i < shape.length; i++) {
+                    shape[i] = buffer.getInt(4 * i);
+                    if (shape[i] < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                }
+                int count = buffer.getInt(4 * dimensions);
+                if (count < 0 || 8L * count > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 8 * count, file);
+                position += 8L * count;
+                int[] types = new int[count];
+                ByteBuffer[] blocks = new ByteBuffer[count];
+                long offset = align(position);
+                ByteBuffer window = null;
+                long windowStart = 0;
+                for (int b = 0; b < count; b++) {
+                    types[b] = buffer.getInt(8 * b);
+                    int elements = buffer.getInt(8 * b + 4);
+                    if (types[b] < 0 || types[b] >= ELEMENT_BYTES.length || elements < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    long length = (long) elements * ELEMENT_BYTES[types[b]];
+                    if (length > Integer.MAX_VALUE || offset + length > fileSize) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    if (window == null || offset + length > windowStart + window.capacity()) {
+                        windowStart = offset;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                Math.min(fileSize - offset, Integer.MAX_VALUE));
+                    }
+                    blocks[b] = window.slice((int) (offset - windowStart), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                    offset = align(offset + length);
+                }
+                return new ModelFile(shape, types, blocks);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+            }
+            return buffer.clear();
+        }
+
+        // Измерения, если их ровно length и все они положительны. Загрузчик сверяет с ними длины
+        // блоков до того, как выделять память под сеть, поэтому чужой или поврежденный файл
+        // дает IOException. Нулевое измерение не проверить по блокам: произведение с ним равно
+        // нулю при любом другом измерении
+        int[] shape(int length) throws IOException {
+            if (shape.length != length) {
+                throw new IOException("У модели " + shape.length + " измерений, ожидалось " + length);
+            }
+            for (int dimension : shape) {
+                if (dimension == 0) {
+                    throw new IOException("Нулевое измерение модели");
+                }
+            }
+            return shape;
+        }
+
+        // Блок как представление только для чтения; length — ожидаемое по измерениям число элементов
+        DoubleBuffer doubles(int block, long length) throws IOException {
+            check(block, DOUBLES, length);
+            return blocks[block].asDoubleBuffer();
+        }
+
+        IntBuffer ints(int block, long length) throws IOException {
+            check(block, INTS, length);
+            return blocks[block].asIntBuffer();
+        }
+
+        ShortBuffer shorts(int block, long length) throws IOException {
+            check(block, SHORTS, length);
+            return blocks[block].asShortBuffer();
+        }
+
+        ByteBuffer bytes(int block, long length) throws IOException {
+            check(block, BYTES, length);
+            return blocks[block].duplicate();
+        }
+
+        private void check(int block, int type, long length) throws IOException {
+            if (block >= blocks.length || types[block] != type
+                    || blocks[block].capacity() != length * ELEMENT_BYTES[type]) {
+                throw new IOException("Блок " + block + " модели не совпадает с ее измерениями");
+            }
+        }
+
+        private static int type(Object block) {
+            if (block instanceof double[]) {
+                return DOUBLES;
+            }
+            if (block instanceof int[]) {
+                return INTS;
+            }
+            return block instanceof short[] ? SHORTS : BYTES;
+        }
+
+        private static int length(Object block) {
+            switch (type(block)) {
+                case DOUBLES:
+                    return ((double[]) block).length;
+                case INTS:
+                    return ((int[]) block).length;
+                case SHORTS:
+                    return ((short[]) block).length;
+                default:
+                    return ((byte[]) block).length;
+            }
+        }
+
+        // Размер блока в байтах
+        private static long size(Object block) {
+            return (long) length(block) * ELEMENT_BYTES[type(block)];
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
     public static void main(String[] args) {
         // Пример бинарных образов (10x10)
         double[][][] trainingData = {
@@ -1,16 +1,49 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class HammingNetwork {
+    // Входов в блоке пакетной классификации: блок эталонов читается один раз на все входы блока
+    private static final int QUERIES = 64;
+    // Байт эталонов в блоке: блок остается в кэше L2, пока по нему проходят входы
+    private static final int BLOCK_BYTES = 1 << 17;
+    // Слов между проверками границы при досрочном отбрасывании эталона: отрезок считается
+    // простым циклом, который JIT векторизует
+    private static final int STRIDE = 16;
+    // Входов на задачу при распределении пакета по ядрам
+    private static final int CHUNK = 1024;
+    // Наибольшая длина подстроки многоиндексного хеширования: таблица подстроки — до 2^16 корзин
+    private static final int SUBSTRING = 16;
+    // Радиус проб по каждой подстроке при приближенном поиске
+    private static final int APPROXIMATE_RADIUS = 1;
+    // Проба корзины или проверка кандидата стоит примерно как перебор стольких эталонов:
+    // обе — случайное обращение к памяти, а перебор идет подряд
+    private static final int PROBE_COST = 4;
+
     private double[][] weights; // Матрица весов для первого слоя
     private double[] biases;    // Смещение для первого слоя
     private int numPatterns;    // Количество эталонных образов
     private int inputSize;      // Размер входного вектора
+    // Эталоны по биту на элемент, строятся при первой упакованной классификации
+    private PackedPattern[] exemplars;
+    // Индекс эталонов по подстрокам, строится при первом поиске через индекс
+    private MultiIndex index;
 
     public HammingNetwork(int[][] patterns) {
-        this.numPatterns = patterns.length;
-        this.inputSize = patterns[0].length;
-        this.weights = new double[numPatterns][inputSize];
-        this.biases = new double[numPatterns];
+        this(patterns.length, patterns[0].length);
 
         // Инициализация весов и смещений
         for (int i = 0; i < numPatterns; i++) {
@@ -21,30 +54,943 @@ public class HammingNetwork {
         }
     }
 
+    private HammingNetwork(int numPatterns, int inputSize) {
+        this.numPatterns = numPatterns;
+        this.inputSize = inputSize;
+        this.weights = new double[numPatterns][inputSize];
+        this.biases = new double[numPatterns];
+    }
+
     // Метод классификации входного вектора
     public int classify(int[] input) {
-        // Первый слой: вычисление расстояний до эталонов
-        double[] outputs = new double[numPatterns];
+        int winner = 0;
+        double best = 0;
         for (int i = 0; i < numPatterns; i++) {
+            // Первый слой: выход нейрона эталона i
             double sum = biases[i];
+            double[] row = weights[i];
             for (int j = 0; j < inputSize; j++) {
-                sum += input[j] * weights[i][j];
+                sum += input[j] * row[j];
+            }
+            // Второй слой: соревновательный выбор сразу по ходу, без массива выходов
+            if (i == 0 || sum > best) {
+                best = sum;
+                winner = i;
             }
-            outputs[i] = sum;
         }
+        return winner;
+    }
 
-        // Второй слой: соревновательный выбор
+    // Классификация упакованного образа. Для биполярных векторов выход первого слоя равен
+    // bias + n - 2 * (число несовпадений), он считается через Long.bitCount по 64 элемента
+    // за раз. Суммы целые и точны в double, поэтому победитель тот же, что у classify(int[])
+    public int classify(PackedPattern input) {
+        if (input.length() != inputSize) {
+            throw new IllegalArgumentException("Размер образа " + input.length() + ", ожидался " + inputSize);
+        }
+        PackedPattern[] packed = exemplars();
         int winner = 0;
-        for (int i = 1; i < numPatterns; i++) {
-            if (outputs[i] > outputs[winner]) {
+        double best = 0;
+        for (int i = 0; i < numPatterns; i++) {
+            double output = biases[i] + packed[i].dot(input);
+            if (i == 0 || output > best) {
+                best = output;
                 winner = i;
             }
         }
-
         return winner;
     }
 
+    // Итог пакетной классификации: до k лучших эталонов по убыванию выхода первого слоя,
+    // при равных выходах раньше идет меньший номер. classes[0] — тот же победитель, что у classify
+    public static final class Match {
+        public final int[] classes;
+        public final double[] outputs;
+
+        Match(int[] classes, double[] outputs) {
+            this.classes = classes;
+            this.outputs = outputs;
+        }
+    }
+
+    // k лучших эталонов для каждого входа пакета
+    public Match[] classifyBatch(PackedPattern[] inputs, int k) {
+        Match[] matches = new Match[inputs.length];
+        classify(inputs, 0, inputs.length, checkBatch(inputs, k), matches);
+        return matches;
+    }
+
+    // То же с разбиением пакета на части по CHUNK входов между потоками пула
+    public Match[] classifyBatch(PackedPattern[] inputs, int k, ForkJoinPool pool) {
+        int top = checkBatch(inputs, k);
+        Match[] matches = new Match[inputs.length];
+        int chunks = (inputs.length + CHUNK - 1) / CHUNK;
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(c ->
+                classify(inputs, c * CHUNK, Math.min(inputs.length, (c + 1) * CHUNK), top, matches))).join();
+        return matches;
+    }
+
+    private int checkBatch(PackedPattern[] inputs, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Нужен хотя бы один лучший эталон: k = " + k);
+        }
+        for (PackedPattern input : inputs) {
+            if (input.length() != inputSize) {
+                throw new IllegalArgumentException("Размер образа " + input.length() + ", ожидался " + inputSize);
+            }
+        }
+        exemplars();
+        return Math.min(k, numPatterns);
+    }
+
+    // Входы from..to-1 блоками по QUERIES, эталоны блоками по BLOCK_BYTES: блок эталонов
+    // проходится всеми входами блока, пока лежит в кэше. Короткие образы (до STRIDE слов)
+    // считаются по четыре входа за проход: слово эталона читается один раз на четыре входа.
+    // У длинных расстояние копится по STRIDE слов, и как только выход даже при полном
+    // совпадении остатка не больше k-го лучшего, эталон отбрасывается.
+    // Выход bias + (n - 2d) считается как в classify(PackedPattern)
+    private void classify(PackedPattern[] inputs, int from, int to, int k, Match[] matches) {
+        PackedPattern[] packed = exemplars;
+        int words = (inputSize + 63) >>> 6;
+        int block = Math.max(1, BLOCK_BYTES / Math.max(1, 8 * words));
+        TopK[] tops = new TopK[QUERIES];
+        for (int slot = 0; slot < QUERIES; slot++) {
+            tops[slot] = new TopK(k);
+        }
+        for (int start = from; start < to; start += QUERIES) {
+            int end = Math.min(to, start + QUERIES);
+            for (TopK top : tops) {
+                top.clear();
+            }
+            for (int first = 0; first < numPatterns; first += block) {
+                int last = Math.min(numPatterns, first + block);
+                int q = start;
+                if (words <= STRIDE) {
+                    for (; q + 4 <= end; q += 4) {
+                        long[] x0 = inputs[q].words;
+                        long[] x1 = inputs[q + 1].words;
+                        long[] x2 = inputs[q + 2].words;
+                        long[] x3 = inputs[q + 3].words;
+                        TopK t0 = tops[q - start];
+                        TopK t1 = tops[q - start + 1];
+                        TopK t2 = tops[q - start + 2];
+                        TopK t3 = tops[q - start + 3];
+                        for (int e = first; e < last; e++) {
+                            long[] exemplar = packed[e].words;
+                            int d0 = 0;
+                            int d1 = 0;
+                            int d2 = 0;
+                            int d3 = 0;
+                            for (int w = 0; w < words; w++) {
+                                long bits = exemplar[w];
+                                d0 += Long.bitCount(bits ^ x0[w]);
+                                d1 += Long.bitCount(bits ^ x1[w]);
+                                d2 += Long.bitCount(bits ^ x2[w]);
+                                d3 += Long.bitCount(bits ^ x3[w]);
+                            }
+                            t0.offer(e, biases[e] + (inputSize - 2 * d0));
+                            t1.offer(e, biases[e] + (inputSize - 2 * d1));
+                            t2.offer(e, biases[e] + (inputSize - 2 * d2));
+                            t3.offer(e, biases[e] + (inputSize - 2 * d3));
+                        }
+                    }
+                }
+                for (; q < end; q++) {
+                    long[] query = inputs[q].words;
+                    TopK top = tops[q - start];
+                    for (int e = first; e < last; e++) {
+                        long[] exemplar = packed[e].words;
+                        int distance = 0;
+                        for (int w = 0; w < words; w += STRIDE) {
+                            distance += distance(exemplar, query, w, Math.min(words, w + STRIDE));
+                            if (biases[e] + (inputSize - 2 * distance) <= top.threshold) {
+                                break;
+                            }
+                        }
+                        top.offer(e, biases[e] + (inputSize - 2 * distance));
+                    }
+                }
+            }
+            for (int q = start; q < end; q++) {
+                TopK top = tops[q - start];
+                matches[q] = new Match(Arrays.copyOf(top.classes, top.filled), Arrays.copyOf(top.outputs, top.filled));
+            }
+        }
+    }
+
+    private static int distance(long[] a, long[] b, int from, int to) {
+        int count = 0;
+        for (int w = from; w < to; w++) {
+            count += Long.bitCount(a[w] ^ b[w]);
+        }
+        return count;
+    }
+
+    // Упорядоченные k лучших одного входа. threshold — выход, который нужно превзойти, чтобы
+    // попасть в них; равный выход встает после прежних, поэтому меньший номер идет раньше
+    private static final class TopK {
+        final int[] classes;
+        final double[] outputs;
+        int filled;
+        double threshold;
+
+        TopK(int k) {
+            classes = new int[k];
+            outputs = new double[k];
+        }
+
+        void clear() {
+            filled = 0;
+            threshold = Double.NEGATIVE_INFINITY;
+        }
+
+        void offer(int index, double output) {
+            if (output <= threshold) {
+                return;
+            }
+            int k = classes.length;
+            int position = Math.min(filled, k - 1);
+            while (position > 0 && outputs[position - 1] < output) {
+                classes[position] = classes[position - 1];
+                outputs[position] = outputs[position - 1];
+                position--;
+            }
+            classes[position] = index;
+            outputs[position] = output;
+            if (filled < k) {
+                filled++;
+            }
+            if (filled == k) {
+                threshold = outputs[k - 1];
+            }
+        }
+    }
+
+    // Способ поиска победителя для упакованного образа
+    public enum Search {
+        SCAN,       // Полный перебор эталонов, как classify(PackedPattern)
+        EXACT,      // Многоиндексное хеширование: тот же победитель, что у перебора
+        APPROXIMATE // Пробы только по подстрокам на расстоянии до APPROXIMATE_RADIUS: быстрее,
+                    // но эталон, далекий от входа в каждой подстроке, может быть пропущен
+    }
+
+    public int classify(PackedPattern input, Search search) {
+        if (search == Search.SCAN) {
+            return classify(input);
+        }
+        if (input.length() != inputSize) {
+            throw new IllegalArgumentException("Размер образа " + input.length() + ", ожидался " + inputSize);
+        }
+        return search(input, search == Search.EXACT);
+    }
+
+    // Многоиндексное хеширование: образ режется на подстроки по b бит, и у каждой
+    // подстроки своя таблица эталонов по ее значению. Если эталон отличается от входа меньше
+    // чем на m (s + 1) бит при m подстроках, то хотя бы в одной подстроке он отличается
+    // не больше чем на s бит. Поэтому корзины перебираются по растущему радиусу s, и после
+    // радиуса s у любого непросмотренного эталона выход не больше maxBias + n - 2 m (s + 1).
+    // Как только лучший найденный выход строго больше этой границы, победитель точен.
+    // Если пробы обходятся дороже полного перебора (вход далек от всех эталонов или эталонов
+    // мало), поиск переходит на перебор: по прогнозу после каждого радиуса или по факту
+    private int search(PackedPattern input, boolean exact) {
+        MultiIndex table = index();
+        int parts = table.ids.length;
+        int words = input.words.length;
+        long[] query = input.words;
+        long[] seen = new long[(numPatterns + 63) >>> 6];
+        int seenCount = 0;
+        long work = 0;
+        long budget = numPatterns / PROBE_COST;
+        int winner = -1;
+        double best = Double.NEGATIVE_INFINITY;
+        int maxRadius = exact ? table.width : APPROXIMATE_RADIUS;
+        for (int radius = 0; radius <= maxRadius; radius++) {
+            for (int j = 0; j < parts; j++) {
+                int bits = table.lengths[j];
+                if (radius > bits) {
+                    continue;
+                }
+                int key = table.key(query, j);
+                int[] starts = table.starts[j];
+                int[] ids = table.ids[j];
+                // Ключи на расстоянии ровно radius; маски идут по возрастанию, и у короткой
+                // последней подстроки перебор кончается на первой маске шире нее
+                for (int mask : table.masks[radius]) {
+                    if (mask >= 1 << bits) {
+                        break;
+                    }
+                    int probe = key ^ mask;
+                    for (int p = starts[probe]; p < starts[probe + 1]; p++) {
+                        int e = ids[p];
+                        if ((seen[e >>> 6] & 1L << e) == 0) {
+                            seen[e >>> 6] |= 1L << e;
+                            seenCount++;
+                            work++;
+                            int distance = 0;
+                            for (int w = 0, base = e * words; w < words; w++) {
+                                distance += Long.bitCount(table.bits[base + w] ^ query[w]);
+                            }
+                            double output = biases[e] + (inputSize - 2 * distance);
+                            if (output > best || output == best && e < winner) {
+                                best = output;
+                                winner = e;
+                            }
+                        }
+                    }
+                    work++;
+                }
+                if (work > budget) {
+                    return classify(input);
+                }
+            }
+            if (seenCount == numPatterns
+                    || best > table.maxBias + (inputSize - 2.0 * parts * (radius + 1))) {
+                return winner;
+            }
+            // Радиус, на котором остановится поиск при нынешнем лучшем, и цена проб до него:
+            // если она уже больше перебора, перебор дешевле сразу
+            if (winner >= 0) {
+                int last = (int) Math.min(maxRadius, (table.maxBias + inputSize - best) / 2 / parts);
+                double buckets = 0;
+                for (int r = radius + 1; r <= last; r++) {
+                    buckets += table.masks[r].length;
+                }
+                if (work + buckets * parts * (1 + (double) numPatterns / (1 << table.width)) > budget) {
+                    return classify(input);
+                }
+            }
+        }
+        return winner >= 0 ? winner : classify(input);
+    }
+
+    private MultiIndex index() {
+        if (index == null) {
+            index = new MultiIndex(exemplars(), inputSize, Arrays.stream(biases).max().orElse(0));
+        }
+        return index;
+    }
+
+    // Таблицы подстрок в виде сжатых строк: эталоны подстроки j со значением key лежат
+    // в ids[j][starts[j][key]..starts[j][key + 1]) по возрастанию номера. Биты эталонов
+    // лежат подряд, чтобы проверка кандидата была одним обращением к памяти, а не тремя.
+    // Длина подстроки b = log2(numPatterns), но не больше SUBSTRING: в корзине в среднем
+    // около одного эталона, а таблицы малы и остаются в кэше.
+    // Память: m (2^b + 1 + numPatterns) int при m = ceil(n / b) и копия эталонов
+    private static final class MultiIndex {
+        final int width;     // b
+        final int[][] starts;
+        final int[][] ids;
+        final int[] lengths; // Бит в подстроке, у последней может быть меньше b
+        final long[] bits;   // Эталон e — слова e * words .. (e + 1) * words - 1
+        final int[][] masks; // Маски b бит с r единицами по возрастанию
+        final double maxBias;
+
+        MultiIndex(PackedPattern[] exemplars, int inputSize, double maxBias) {
+            int width = Math.max(4, Math.min(SUBSTRING, 31 - Integer.numberOfLeadingZeros(exemplars.length)));
+            int parts = (inputSize + width - 1) / width;
+            int words = (inputSize + 63) >>> 6;
+            this.width = width;
+            this.starts = new int[parts][];
+            this.ids = new int[parts][];
+            this.lengths = new int[parts];
+            this.bits = new long[exemplars.length * words];
+            this.masks = new int[width + 1][];
+            this.maxBias = maxBias;
+            for (int e = 0; e < exemplars.length; e++) {
+                System.arraycopy(exemplars[e].words, 0, bits, e * words, words);
+            }
+            int[] counts = new int[width + 1];
+            for (int mask = 0; mask < 1 << width; mask++) {
+                counts[Integer.bitCount(mask)]++;
+            }
+            for (int r = 0; r <= width; r++) {
+                masks[r] = new int[counts[r]];
+                counts[r] = 0;
+            }
+            for (int mask = 0; mask < 1 << width; mask++) {
+                int r = Integer.bitCount(mask);
+                masks[r][counts[r]++] = mask;
+            }
+            for (int j = 0; j < parts; j++) {
+                int bits = Math.min(width, inputSize - j * width);
+                lengths[j] = bits;
+                int[] offsets = new int[(1 << bits) + 1];
+                for (PackedPattern exemplar : exemplars) {
+                    offsets[key(exemplar.words, j) + 1]++;
+                }
+                for (int key = 0; key < 1 << bits; key++) {
+                    offsets[key + 1] += offsets[key];
+                }
+                int[] next = Arrays.copyOf(offsets, 1 << bits);
+                int[] members = new int[exemplars.length];
+                for (int e = 0; e < exemplars.length; e++) {
+                    members[next[key(exemplars[e].words, j)]++] = e;
+                }
+                starts[j] = offsets;
+                ids[j] = members;
+            }
+        }
+
+        // Подстрока j: биты j * b .. j * b + lengths[j] - 1, может переходить через границу слова
+        int key(long[] words, int j) {
+            int position = j * width;
+            int word = position >>> 6;
+            int offset = position & 63;
+            long value = words[word] >>> offset;
+            if (offset + lengths[j] > 64) {
+                value |= words[word + 1] << (64 - offset);
+            }
+            return (int) value & ((1 << lengths[j]) - 1);
+        }
+    }
+
+    private PackedPattern[] exemplars() {
+        if (exemplars == null) {
+            PackedPattern[] packed = new PackedPattern[numPatterns];
+            for (int i = 0; i < numPatterns; i++) {
+                packed[i] = new PackedPattern(inputSize);
+                for (int j = 0; j < inputSize; j++) {
+                    packed[i].set(j, (int) weights[i][j]);
+                }
+            }
+            exemplars = packed;
+        }
+        return exemplars;
+    }
+
+    // Биполярный образ (±1) по одному биту на элемент: 1 — бит установлен, -1 — сброшен.
+    // Занимает в 32 раза меньше памяти, чем int[], а скалярное произведение двух образов
+    // длины n равно n - 2 * popcount(a XOR b)
+    public static final class PackedPattern {
+        private final int length;
+        private final long[] words;
+
+        public PackedPattern(int length) {
+            this.length = length;
+            this.words = new long[(length + 63) >>> 6];
+        }
+
+        public static PackedPattern of(int[] values) {
+            PackedPattern pattern = new PackedPattern(values.length);
+            for (int i = 0; i < values.length; i++) {
+                pattern.set(i, values[i]);
+            }
+            return pattern;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int get(int i) {
+            return (words[i >>> 6] >>> i & 1) != 0 ? 1 : -1;
+        }
+
+        public void set(int i, int value) {
+            if (value == 1) {
+                words[i >>> 6] |= 1L << i;
+            } else if (value == -1) {
+                words[i >>> 6] &= ~(1L << i);
+            } else {
+                throw new IllegalArgumentException("Элемент биполярного образа должен быть 1 или -1: " + value);
+            }
+        }
+
+        public int[] toArray() {
+            int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = get(i);
+            }
+            return values;
+        }
+
+        // Число несовпадающих элементов
+        public int distance(PackedPattern other) {
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                count += Long.bitCount(words[w] ^ other.words[w]);
+            }
+            return count;
+        }
+
+        public int dot(PackedPattern other) {
+            return length - 2 * distance(other);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PackedPattern && length == ((PackedPattern) other).length
+                    && Arrays.equals(words, ((PackedPattern) other).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * length + Arrays.hashCode(words);
+        }
+    }
+
+    // Сохранение в файл модели: эталоны по строкам и смещения
+    public void save(Path file) throws IOException {
+        ModelFile.write(file, "HAMM", new int[]{numPatterns, inputSize},
+                Arrays.stream(weights).flatMapToDouble(Arrays::stream).toArray(), biases);
+    }
+
+    // Загрузка из файла модели: веса копируются из отображения построчно
+    public static HammingNetwork load(Path file) throws IOException {
+        ModelFile model = ModelFile.map(file, "HAMM");
+        int[] shape = model.shape(2);
+        DoubleBuffer matrix = model.doubles(0, (long) shape[0] * shape[1]);
+        DoubleBuffer biases = model.doubles(1, shape[0]);
+        HammingNetwork network = new HammingNetwork(shape[0], shape[1]);
+        for (double[] row : network.weights) {
+            matrix.get(row);
+        }
+        biases.get(network.biases);
+        return network;
+    }
+
+    // Двоичный файл модели, один формат для всех сетей.
+    // Заголовок: магия "NNMF", версия, тип сети (4 символа ASCII), число измерений и сами
+    // измерения, число блоков и для каждого блока тип элементов и их количество.
+    // Дальше блоки весов little-endian, каждый с границы 8 байт. Каждый блок не больше 2 ГБ,
+    // а сам файл может быть и больше: он пишется и отображается в память по частям
+    private static final class ModelFile {
+        static final int MAGIC = 0x464D4E4E; // "NNMF" в порядке little-endian
+        static final int VERSION = 1;
+        static final int DOUBLES = 0;
+        static final int INTS = 1;
+        static final int SHORTS = 2;
+        static final int BYTES = 3;
+        // Размер элемента для каждого типа блока
+        private static final int[] ELEMENT_BYTES = {Double.BYTES, Integer.BYTES, Short.BYTES, Byte.BYTES};
+        // Буфер записи: блоки копируются в файл порциями этого размера
+        private static final int CHUNK = 1 << 20;
+
+        final int[] shape;
+        private final int[] types;
+        private final ByteBuffer[] blocks;
+
+        private ModelFile(int[] shape, int[] types, ByteBuffer[] blocks) {
+            this.shape = shape;
+            this.types = types;
+            this.blocks = blocks;
+        }
+
+        // Блоки — массивы double[], int[], short[] или byte[]. Файл пишется рядом и атомарно
+        // переименовывается, поэтому читатель никогда не увидит наполовину записанную модель
+        static void write(Path file, String kind, int[] shape, Object... blocks) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) align(4L * (5 + shape.length) + 8L * blocks.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).put(kind.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            header.putInt(shape.length);
+            for (int dimension : shape) {
+                header.putInt(dimension);
+            }
+            header.putInt(blocks.length);
+            for (Object block : blocks) {
+                if (size(block) > Integer.MAX_VALUE) {
+                    throw new IOException("Блок модели больше 2 ГБ: " + size(block) + " байт");
+                }
+                header.putInt(type(block));
+                header.putInt(length(block));
+            }
+            header.clear();
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                long position = header.capacity();
+                for (Object block : blocks) {
+                    writeBlock(channel, chunk, block);
+                    position += size(block);
+                    // Выравнивание следующего блока нулями
+                    chunk.clear().limit((int) (align(position) - position));
+                    while (chunk.hasRemaining()) {
+                        chunk.put((byte) 0);
+                    }
+                    writeFully(channel, chunk.flip());
+                    position = align(position);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeBlock(FileChannel channel, ByteBuffer chunk, Object block) throws IOException {
+            int type = type(block);
+            int size = ELEMENT_BYTES[type];
+            int length = length(block);
+            int step = CHUNK / size;
+            for (int from = 0; from < length; from += step) {
+                int count = Math.min(step, length - from);
+                chunk.clear();
+                switch (type) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) block, from, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) block, from, count);
+                        break;
+                    case SHORTS:
+                        chunk.asShortBuffer().put((short[]) block, from, count);
+                        break;
+                    default:
+                        chunk.put((byte[]) block, from, count);
+                        break;
+                }
+                writeFully(channel, chunk.position(0).limit(count * size));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Отображение файла в память без чтения и копирования весов: блоки становятся
+        // представлениями только для чтения, страницы подгружаются при первом обращении.
+        // Одно отображение ограничено 2 ГБ, поэтому блоки нарезаются из окон такого размера
+        static ModelFile map(Path file, String kind) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                ByteBuffer buffer = read(channel, 0, 16, file);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Не файл модели: " + file);
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IOException("Неподдерживаемая версия модели: " + buffer.getInt(4));
+                }
+                byte[] tag = new byte[4];
+                buffer.get(8, tag);
+                String actual = new String(tag, StandardCharsets.US_ASCII);
+                if (!actual.equals(kind)) {
+                    throw new IOException("В файле модель " + actual + ", ожидалась " + kind);
+                }
+                long position = 16;
+                int dimensions = buffer.getInt(12);
+                if (dimensions < 0 || 4L * dimensions + 4 > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 4 * dimensions + 4, file);
+                position += 4L * dimensions + 4;
+                int[] shape = new int[dimensions];
+                for (int i = 0; i < shape.length; i++) {
+                    shape[i] = buffer.getInt(4 * i);
+                    if (shape[i] < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                }
+                int count = buffer.getInt(4 * dimensions);
+                if (count < 0 || 8L * count > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 8 * count, file);
+                position += 8L * count;
+                int[] types = new int[count];
+                ByteBuffer[] blocks = new ByteBuffer[count];
+                long offset = align(position);
+                ByteBuffer window = null;
+                long windowStart = 0;
+                for (int b = 0; b < count; b++) {
+                    types[b] = buffer.getInt(8 * b);
+                    int elements = buffer.getInt(8 * b + 4);
+                    if (types[b] < 0 || types[b] >= ELEMENT_BYTES.length || elements < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    long length = (long) elements * ELEMENT_BYTES[types[b]];
+                    if (length > Integer.MAX_VALUE || offset + length > fileSize) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    if (window == null || offset + length > windowStart + window.capacity()) {
+                        windowStart = offset;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                Math.min(fileSize - offset, Integer.MAX_VALUE));
+                    }
+                    blocks[b] = window.slice((int) (offset - windowStart), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                    offset = align(offset + length);
+                }
+                return new ModelFile(shape, types, blocks);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+            }
+            return buffer.clear();
+        }
+
+        // Измерения, если их ровно length и все они положительны. Загрузчик сверяет с ними длины
+        // блоков до того, как выделять память под сеть, поэтому чужой или поврежденный файл
+        // дает IOException. Нулевое измерение не проверить по блокам: произведение с ним равно
+        // нулю при любом другом измерении
+        int[] shape(int length) throws IOException {
+            if (shape.length != length) {
+                throw new IOException("У модели " + shape.length + " измерений, ожидалось " + length);
+            }
+            for (int dimension : shape) {
+                if (dimension == 0) {
+                    throw new IOException("Нулевое измерение модели");
+                }
+            }
+            return shape;
+        }
+
+        // Блок как представление только для чтения; length — ожидаемое по измерениям число элементов
+        DoubleBuffer doubles(int block, long length) throws IOException {
+            check(block, DOUBLES, length);
+            return blocks[block].asDoubleBuffer();
+        }
+
+        IntBuffer ints(int block, long length) throws IOException {
+            check(block, INTS, length);
+            return blocks[block].asIntBuffer();
+        }
+
+        ShortBuffer shorts(int block, long length) throws IOException {
+            check(block, SHORTS, length);
+            return blocks[block].asShortBuffer();
+        }
+
+        ByteBuffer bytes(int block, long length) throws IOException {
+            check(block, BYTES, length);
+            return blocks[block].duplicate();
+        }
+
+        private void check(int block, int type, long length) throws IOException {
+            if (block >= blocks.length || types[block] != type
+                    || blocks[block].capacity() != length * ELEMENT_BYTES[type]) {
+                throw new IOException("Блок " + block + " модели не совпадает с ее измерениями");
+            }
+        }
+
+        private static int type(Object block) {
+            if (block instanceof double[]) {
+                return DOUBLES;
+            }
+            if (block instanceof int[]) {
+                return INTS;
+            }
+            return block instanceof short[] ? SHORTS : BYTES;
+        }
+
+        private static int length(Object block) {
+            switch (type(block)) {
+                case DOUBLES:
+                    return ((double[]) block).length;
+                case INTS:
+                    return ((int[]) block).length;
+                case SHORTS:
+                    return ((short[]) block).length;
+                default:
+                    return ((byte[]) block).length;
+            }
+        }
+
+        // Размер блока в байтах
+        private static long size(Object block) {
+            return (long) length(block) * ELEMENT_BYTES[type(block)];
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    // Классификация int[] против упакованной на образах от 100 до 1 000 000 элементов:
+    // время на запрос и память на эталон
+    private static void benchmark() {
+        Random rand = new Random(1);
+        int numPatterns = 16;
+        for (int inputSize = 100; inputSize <= 1_000_000; inputSize *= 10) {
+            int[][] patterns = new int[numPatterns][inputSize];
+            for (int[] pattern : patterns) {
+                for (int j = 0; j < inputSize; j++) {
+                    pattern[j] = rand.nextBoolean() ? 1 : -1;
+                }
+            }
+            HammingNetwork network = new HammingNetwork(patterns);
+            int queries = Math.max(8, 20_000_000 / (numPatterns * inputSize));
+            int[][] inputs = new int[Math.min(queries, 64)][];
+            PackedPattern[] packed = new PackedPattern[inputs.length];
+            for (int q = 0; q < inputs.length; q++) {
+                inputs[q] = Arrays.copyOf(patterns[rand.nextInt(numPatterns)], inputSize);
+                for (int k = 0; k < inputSize / 5; k++) {
+                    inputs[q][rand.nextInt(inputSize)] *= -1;
+                }
+                packed[q] = PackedPattern.of(inputs[q]);
+            }
+
+            boolean same = true;
+            for (int q = 0; q < inputs.length; q++) {
+                same &= network.classify(inputs[q]) == network.classify(packed[q]);
+            }
+            int checksum = 0;
+            long plain = Long.MAX_VALUE;
+            long bits = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int q = 0; q < queries; q++) {
+                    checksum += network.classify(inputs[q % inputs.length]);
+                }
+                plain = Math.min(plain, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (int q = 0; q < queries; q++) {
+                    checksum -= network.classify(packed[q % packed.length]);
+                }
+                bits = Math.min(bits, System.nanoTime() - start);
+            }
+            same &= checksum == 0;
+            System.out.printf("%,9d элементов: int[] %,12.0f нс, биты %,10.0f нс (x%.0f); эталон %,10d Б против %,8d Б;"
+                            + " ответы совпадают: %b%n", inputSize, (double) plain / queries, (double) bits / queries,
+                    (double) plain / bits, 8L * inputSize, 8L * ((inputSize + 63) / 64), same);
+        }
+    }
+
+    // Пакетная классификация против тысяч эталонов: входов в секунду у вызова classify
+    // на каждый вход, у пакета с k = 1 и k = 5 и у пакета на пуле. Образы — глифы 16x16
+    // и 64x64; входы — эталоны с 5% шума, для них границы отбрасывают соперников рано,
+    // и случайные образы
+    private static void benchmarkBatch() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        Random rand = new Random(2);
+        System.out.printf("Пакетная классификация, пул на %d потоков%n", pool.getParallelism());
+        for (int[] config : new int[][]{{256, 1000}, {256, 4000}, {4096, 1000}, {4096, 4000}}) {
+            int inputSize = config[0];
+            int numPatterns = config[1];
+            int count = 5_120_000 / inputSize;
+            int[][] patterns = new int[numPatterns][inputSize];
+            for (int[] pattern : patterns) {
+                for (int j = 0; j < inputSize; j++) {
+                    pattern[j] = rand.nextBoolean() ? 1 : -1;
+                }
+            }
+            HammingNetwork network = new HammingNetwork(patterns);
+            for (boolean noisy : new boolean[]{true, false}) {
+                PackedPattern[] inputs = new PackedPattern[count];
+                for (int q = 0; q < count; q++) {
+                    int[] input = Arrays.copyOf(patterns[rand.nextInt(numPatterns)], inputSize);
+                    for (int j = 0; j < inputSize; j++) {
+                        if (!noisy || rand.nextInt(20) == 0) {
+                            input[j] = noisy ? -input[j] : rand.nextBoolean() ? 1 : -1;
+                        }
+                    }
+                    inputs[q] = PackedPattern.of(input);
+                }
+                int[] winners = new int[count];
+                Match[][] results = new Match[3][];
+                long[] nanos = new long[4];
+                Arrays.fill(nanos, Long.MAX_VALUE);
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    for (int q = 0; q < count; q++) {
+                        winners[q] = network.classify(inputs[q]);
+                    }
+                    nanos[0] = Math.min(nanos[0], System.nanoTime() - start);
+                    start = System.nanoTime();
+                    results[0] = network.classifyBatch(inputs, 1);
+                    nanos[1] = Math.min(nanos[1], System.nanoTime() - start);
+                    start = System.nanoTime();
+                    results[1] = network.classifyBatch(inputs, 5);
+                    nanos[2] = Math.min(nanos[2], System.nanoTime() - start);
+                    start = System.nanoTime();
+                    results[2] = network.classifyBatch(inputs, 5, pool);
+                    nanos[3] = Math.min(nanos[3], System.nanoTime() - start);
+                }
+                // Проверка: победители совпадают с classify, k лучших — с полной сортировкой выходов
+                boolean same = true;
+                for (int q = 0; q < count; q++) {
+                    same &= results[0][q].classes[0] == winners[q] && results[1][q].classes[0] == winners[q]
+                            && Arrays.equals(results[1][q].classes, results[2][q].classes);
+                }
+                PackedPattern[] packed = network.exemplars();
+                for (int q = 0; q < count; q += 97) {
+                    PackedPattern input = inputs[q];
+                    int[] order = IntStream.range(0, numPatterns).boxed()
+                            .sorted((a, b) -> Double.compare(network.biases[b] + packed[b].dot(input),
+                                    network.biases[a] + packed[a].dot(input)))
+                            .mapToInt(Integer::intValue).limit(5).toArray();
+                    same &= Arrays.equals(order, results[1][q].classes);
+                }
+                System.out.printf("  %4d элементов, %,5d эталонов, %-9s: classify %,9.0f/с, пакет k=1 %,9.0f/с, k=5 %,9.0f/с,"
+                                + " k=5 на пуле %,9.0f/с; ответы совпадают: %b%n", inputSize, numPatterns,
+                        noisy ? "шум 5%" : "случайные", count / (nanos[0] / 1e9), count / (nanos[1] / 1e9),
+                        count / (nanos[2] / 1e9), count / (nanos[3] / 1e9), same);
+            }
+        }
+    }
+
+    // Задержка поиска победителя от числа эталонов: перебор, точный и приближенный индекс.
+    // Образы по 256 бит; входы — эталоны с 5% и 15% шума и случайные образы, для которых
+    // близкого эталона нет и точный поиск уходит в перебор
+    private static void benchmarkIndex() {
+        Random rand = new Random(3);
+        int inputSize = 256;
+        int queries = 200;
+        System.out.printf("Поиск победителя, образы по %d бит, %d запросов%n", inputSize, queries);
+        for (int numPatterns = 1000; numPatterns <= 100_000; numPatterns *= 10) {
+            int[][] patterns = new int[numPatterns][inputSize];
+            for (int[] pattern : patterns) {
+                for (int j = 0; j < inputSize; j++) {
+                    pattern[j] = rand.nextBoolean() ? 1 : -1;
+                }
+            }
+            HammingNetwork network = new HammingNetwork(patterns);
+            long start = System.nanoTime();
+            network.index();
+            System.out.printf("  %,7d эталонов, индекс строится %.1f мс%n", numPatterns,
+                    (System.nanoTime() - start) / 1e6);
+            for (int percent : new int[]{5, 15, 50}) {
+                PackedPattern[] inputs = new PackedPattern[queries];
+                for (int q = 0; q < queries; q++) {
+                    int[] input = Arrays.copyOf(patterns[rand.nextInt(numPatterns)], inputSize);
+                    for (int j = 0; j < inputSize; j++) {
+                        if (rand.nextInt(100) < percent) {
+                            input[j] = -input[j];
+                        }
+                    }
+                    inputs[q] = PackedPattern.of(input);
+                }
+                Search[] searches = Search.values();
+                int[][] winners = new int[searches.length][queries];
+                long[] nanos = new long[searches.length];
+                Arrays.fill(nanos, Long.MAX_VALUE);
+                for (int round = 0; round < 3; round++) {
+                    for (int m = 0; m < searches.length; m++) {
+                        start = System.nanoTime();
+                        for (int q = 0; q < queries; q++) {
+                            winners[m][q] = network.classify(inputs[q], searches[m]);
+                        }
+                        nanos[m] = Math.min(nanos[m], System.nanoTime() - start);
+                    }
+                }
+                int approximate = 0;
+                for (int q = 0; q < queries; q++) {
+                    approximate += winners[2][q] == winners[0][q] ? 1 : 0;
+                }
+                System.out.printf("    %-9s перебор %,9.1f мкс, точный %,9.1f мкс, приближенный %,9.1f мкс;"
+                                + " точный совпадает: %b, приближенный верен в %d/%d%n",
+                        percent == 50 ? "случайные" : "шум " + percent + "%", nanos[0] / 1e3 / queries,
+                        nanos[1] / 1e3 / queries, nanos[2] / 1e3 / queries,
+                        Arrays.equals(winners[0], winners[1]), approximate, queries);
+            }
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkIndex();
+            benchmarkBatch();
+            benchmark();
+            return;
+        }
+
         // Эталонные образы (например, 10x10 цифры, упрощенные до 1D массивов)
         int[][] patterns = {
             {1, -1, 1, -1, 1, -1, 1, -1, 1, -1, /* другие пиксели */ -1, 1, -1},
@@ -1,43 +1,1860 @@
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 public class HopfieldNetwork {
-    private int[][] weights; // Матрица весов (100x100)
+    // Строк на задачу при параллельном пересчете полей
+    private static final int BAND = 64;
+    // Столбцов в плитке при накоплении весов Хебба: суммы плитки остаются в L1
+    private static final int TILE = 1024;
+
+    private Weights weights; // Веса (100x100)
     private int size; // Количество нейронов
+    private Precision precision;
+    // Запомненные образы по биту на нейрон. Пока веса — ровно сумма их внешних произведений,
+    // упакованное восстановление считает поля через перекрытия; null — веса получены иначе
+    private List<PackedPattern> memories = new ArrayList<>();
+    // Правило, которым получены веса, и масштаб: вес в хранилище = вещественный вес * scale.
+    // Вещественный вес Хебба — Σ_p x_i x_j / size, поэтому для Хебба scale = size
+    private Rule rule = Rule.HEBB;
+    private double scale;
+    // Вещественные веса Сторки, верхний треугольник float: остаются у сети, чтобы
+    // следующие образы продолжали правило, а не перестраивали веса; null — веса не Сторки
+    private float[][] real;
+
+    // Хранение весов. Веса Хебба симметричны с нулевой диагональю, поэтому достаточно
+    // верхнего треугольника; узкие типы копят веса с насыщением на границах типа
+    public enum Precision {
+        FULL(Integer.MAX_VALUE), // Полная матрица int[size][size], как раньше
+        INT(Integer.MAX_VALUE),  // Треугольник int: вдвое меньше памяти, веса те же
+        SHORT(Short.MAX_VALUE),  // Треугольник short: в 4 раза меньше, точно до 32 767 образов
+        BYTE(Byte.MAX_VALUE);    // Треугольник byte: в 8 раз меньше, точно до 127 образов
+
+        // Наибольший по модулю вес
+        final int max;
+
+        Precision(int max) {
+            this.max = max;
+        }
+    }
+
+    // Правило обучения
+    public enum Rule {
+        HEBB,          // w_ij += x_i x_j: образы добавляются к уже запомненным
+        STORKEY,       // Правило Сторки: учитывает локальные поля, емкость выше, чем у Хебба
+        PSEUDO_INVERSE // Проекция на линейную оболочку образов: каждый образ — неподвижная точка
+    }
 
     public HopfieldNetwork(int size) {
+        this(size, Precision.FULL);
+    }
+
+    public HopfieldNetwork(int size, Precision precision) {
         this.size = size;
-        this.weights = new int[size][size];
+        this.precision = precision;
+        this.weights = weights(size, precision);
+        this.scale = size;
     }
 
     // Обучение сети на наборе паттернов
     public void train(int[][] patterns) {
+        hebb(patterns, 1, null);
+    }
+
+    // Обучение по правилу на пуле: полосы по BAND строк считаются параллельно, у каждой
+    // полосы свои строки весов; без пула (null) полосы идут подряд в вызывающем потоке.
+    // HEBB добавляет образы к весам Хебба, STORKEY продолжает правило от текущих весов,
+    // PSEUDO_INVERSE строит веса заново по переданным образам
+    public void train(int[][] patterns, Rule rule, ForkJoinPool pool) {
+        switch (rule) {
+            case STORKEY:
+                storkey(patterns, pool);
+                break;
+            case PSEUDO_INVERSE:
+                pseudoInverse(patterns, pool);
+                break;
+            default:
+                hebb(patterns, 1, pool);
+        }
+    }
+
+    // Добавление одного образа без переобучения по правилу, которым получены веса, O(size²).
+    // Проекцию нельзя дополнить одним шагом: ее нужно строить заново
+    public void learn(int[] pattern) {
+        if (rule == Rule.STORKEY) {
+            storkey(new int[][]{pattern}, null);
+        } else if (rule == Rule.PSEUDO_INVERSE) {
+            throw new IllegalStateException("Веса получены проекционным правилом: образ добавляется только"
+                    + " переобучением train(patterns, PSEUDO_INVERSE, pool)");
+        } else {
+            hebb(new int[][]{pattern}, 1, null);
+        }
+    }
+
+    // Забывание образа, добавленного по Хеббу: его внешнее произведение вычитается из весов.
+    // Без насыщения веса становятся такими, будто образ не запоминался
+    public void unlearn(int[] pattern) {
+        hebb(new int[][]{pattern}, -1, null);
+    }
+
+    // Веса += sign * Σ_p x^p (x^p)ᵀ. Без пула все строки идут одним вызовом. К весам Сторки
+    // и проекции целые шаги Хебба неприменимы: у них другой масштаб и другое правило
+    private void hebb(int[][] patterns, int sign, ForkJoinPool pool) {
+        if (rule != Rule.HEBB) {
+            throw new IllegalStateException("Веса получены правилом " + rule + ", правило Хебба к ним неприменимо");
+        }
         for (int[] pattern : patterns) {
+            if (memories == null || !bipolar(pattern)) {
+                memories = null;
+            } else if (sign > 0) {
+                memories.add(PackedPattern.of(pattern));
+            } else if (!memories.remove(PackedPattern.of(pattern))) {
+                memories = null;
+            }
+        }
+        boolean saturated;
+        if (pool == null) {
+            saturated = weights.hebb(patterns, sign, 0, size);
+        } else {
+            int bands = (size + BAND - 1) / BAND;
+            saturated = pool.submit(() -> IntStream.range(0, bands).parallel()
+                    .map(b -> weights.hebb(patterns, sign, b * BAND, Math.min(size, b * BAND + BAND)) ? 1 : 0)
+                    .sum()).join() > 0;
+        }
+        // После насыщения веса уже не сумма внешних произведений образов
+        if (saturated) {
+            memories = null;
+        }
+    }
+
+    // Правило Сторки, образ за образом: w_ij += (x_i x_j - x_i h_ji - h_ij x_j) / n, где
+    // h_ij = Σ_{k≠i,j} w_ik x_k. При нулевой диагонали h_ij = h_i - w_ij x_j, и шаг равен
+    // (x_i x_j - x_i h_j - h_i x_j + 2 w_ij) / n. Шаг симметричен, поэтому вещественные веса
+    // копятся в верхнем треугольнике float — вдвое меньше полной матрицы int. Правило
+    // продолжается от текущих весов: от своего треугольника или от весов другого правила,
+    // переведенных масштабом обратно в вещественные; затем веса снова квантуются
+    private void storkey(int[][] patterns, ForkJoinPool pool) {
+        if (real == null) {
+            real = new float[size][];
             for (int i = 0; i < size; i++) {
+                real[i] = new float[size - i - 1];
+                for (int j = i + 1; j < size; j++) {
+                    real[i][j - i - 1] = (float) (weights.get(i, j) / scale);
+                }
+            }
+        }
+        float[][] real = this.real;
+        int bands = (size + BAND - 1) / BAND;
+        // Строка треугольника дает и h_i, и вклады в h_j при j > i. Полосы чередуются между
+        // исполнителями, у каждого свои частичные суммы полей, затем они складываются
+        int workers = pool == null ? 1 : Math.min(pool.getParallelism(), bands);
+        double[][] partial = new double[workers][size];
+        double[] field = new double[size];
+        double rate = 1.0 / size;
+        for (int[] pattern : patterns) {
+            forEach(pool, workers, worker -> {
+                double[] sums = partial[worker];
+                Arrays.fill(sums, 0);
+                for (int b = worker; b < bands; b += workers) {
+                    for (int i = b * BAND, end = Math.min(size, i + BAND); i < end; i++) {
+                        float[] row = real[i];
+                        double xi = pattern[i];
+                        double sum = 0;
+                        for (int k = 0, j = i + 1; k < row.length; k++, j++) {
+                            double w = row[k];
+                            sum += w * pattern[j];
+                            sums[j] += w * xi;
+                        }
+                        sums[i] += sum;
+                    }
+                }
+            });
+            Arrays.fill(field, 0);
+            for (double[] sums : partial) {
                 for (int j = 0; j < size; j++) {
-                    if (i != j) {
-                        weights[i][j] += pattern[i] * pattern[j];
+                    field[j] += sums[j];
+                }
+            }
+            forEach(pool, bands, b -> {
+                for (int i = b * BAND, end = Math.min(size, i + BAND); i < end; i++) {
+                    float[] row = real[i];
+                    double xi = pattern[i];
+                    double hi = field[i];
+                    for (int k = 0, j = i + 1; k < row.length; k++, j++) {
+                        row[k] += (float) ((xi * pattern[j] - xi * field[j] - hi * pattern[j] + 2 * row[k]) * rate);
+                    }
+                }
+            });
+        }
+        quantize((i, row) -> {
+            float[] upper = real[i];
+            for (int k = 0; k < upper.length; k++) {
+                row[i + 1 + k] = upper[k];
+            }
+        }, pool);
+        rule = Rule.STORKEY;
+    }
+
+    // Проекционное правило: W = Xᵀ (X Xᵀ)⁻¹ X с нулевой диагональю, X — образы по строкам.
+    // Матрица перекрытий P x P обращается методом Гаусса, затем C = (X Xᵀ)⁻¹ X, и строка
+    // весов w_ij = Σ_p x_i^p c_pj считается за O(P size) без матрицы size x size в double
+    private void pseudoInverse(int[][] patterns, ForkJoinPool pool) {
+        int count = patterns.length;
+        double[][] overlaps = new double[count][count];
+        forEach(pool, count, p -> {
+            for (int q = 0; q < count; q++) {
+                long dot = 0;
+                for (int j = 0; j < size; j++) {
+                    dot += patterns[p][j] * patterns[q][j];
+                }
+                overlaps[p][q] = dot;
+            }
+        });
+        double[][] inverse = invert(overlaps);
+        double[][] c = new double[count][size];
+        forEach(pool, count, p -> {
+            for (int q = 0; q < count; q++) {
+                double a = inverse[p][q];
+                int[] pattern = patterns[q];
+                for (int j = 0; j < size; j++) {
+                    c[p][j] += a * pattern[j];
+                }
+            }
+        });
+        quantize((i, row) -> {
+            Arrays.fill(row, 0);
+            for (int p = 0; p < count; p++) {
+                double xi = patterns[p][i];
+                double[] cp = c[p];
+                for (int j = 0; j < size; j++) {
+                    row[j] += xi * cp[j];
+                }
+            }
+        }, pool);
+        rule = Rule.PSEUDO_INVERSE;
+        real = null;
+    }
+
+    // Задачи 0..count-1 на пуле параллельно, без пула — подряд в вызывающем потоке
+    private static void forEach(ForkJoinPool pool, int count, IntConsumer task) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(task)).join();
+        }
+    }
+
+    // Обращение методом Гаусса — Жордана с выбором ведущего элемента по столбцу
+    private static double[][] invert(double[][] matrix) {
+        int n = matrix.length;
+        double[][] a = new double[n][];
+        double[][] inverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            a[i] = Arrays.copyOf(matrix[i], n);
+            inverse[i][i] = 1;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < n; r++) {
+                if (Math.abs(a[r][col]) > Math.abs(a[pivot][col])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(a[pivot][col]) < 1e-9) {
+                throw new IllegalArgumentException("Образы линейно зависимы, проекционное правило неприменимо");
+            }
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            swap = inverse[col];
+            inverse[col] = inverse[pivot];
+            inverse[pivot] = swap;
+            double scale = 1 / a[col][col];
+            for (int j = 0; j < n; j++) {
+                a[col][j] *= scale;
+                inverse[col][j] *= scale;
+            }
+            for (int r = 0; r < n; r++) {
+                double factor = a[r][col];
+                if (r != col && factor != 0) {
+                    for (int j = 0; j < n; j++) {
+                        a[r][j] -= factor * a[col][j];
+                        inverse[r][j] -= factor * inverse[col][j];
                     }
                 }
             }
         }
+        return inverse;
+    }
+
+    // Источник вещественных строк весов для quantize: заполняет row[j] при j > i
+    private interface RealRows {
+        void row(int i, double[] row);
+    }
+
+    // Вещественные веса в хранилище сети. Масштаб переводит наибольший по модулю вес в предел
+    // типа, но не дальше Integer.MAX_VALUE / size, чтобы поле Σ_j w_ij s_j не переполняло int.
+    // Строки читаются дважды: сначала ищется наибольший вес, потом пишутся округленные
+    private void quantize(RealRows real, ForkJoinPool pool) {
+        int bands = (size + BAND - 1) / BAND;
+        double[] largest = new double[bands];
+        forEach(pool, bands, b -> {
+            double[] row = new double[size];
+            for (int i = b * BAND, end = Math.min(size, i + BAND); i < end; i++) {
+                real.row(i, row);
+                for (int j = i + 1; j < size; j++) {
+                    largest[b] = Math.max(largest[b], Math.abs(row[j]));
+                }
+            }
+        });
+        double max = Arrays.stream(largest).max().orElse(0);
+        double factor = max > 0 ? Math.min(precision.max, Integer.MAX_VALUE / size) / max : size;
+        Weights quantized = weights(size, precision);
+        forEach(pool, bands, b -> {
+            double[] row = new double[size];
+            for (int i = b * BAND, end = Math.min(size, i + BAND); i < end; i++) {
+                real.row(i, row);
+                for (int j = i + 1; j < size; j++) {
+                    quantized.set(i, j, (int) Math.round(row[j] * factor));
+                }
+            }
+        });
+        weights = quantized;
+        scale = factor;
+        memories = null;
+    }
+
+    // Память под веса в байтах, вместе с треугольником Сторки
+    public long weightBytes() {
+        return weights.bytes() + (real == null ? 0 : 2L * size * (size - 1));
+    }
+    // Порядок обновления нейронов при асинхронном восстановлении
+    public enum UpdateOrder {
+        SEQUENTIAL, // По возрастанию номера, как в recover
+        RANDOM      // Новая случайная перестановка на каждом проходе
+    }
+
+    // Итог восстановления: состояние, число проходов, число переключений нейронов,
+    // энергия E = -1/2 Σ w_ij s_i s_j и признак того, что последний проход ничего не изменил
+    public static final class Recall {
+        public final int[] state;
+        public final int iterations;
+        public final long flips;
+        public final double energy;
+        public final boolean converged;
+
+        Recall(int[] state, int iterations, long flips, double energy, boolean converged) {
+            this.state = state;
+            this.iterations = iterations;
+            this.flips = flips;
+            this.energy = energy;
+            this.converged = converged;
+        }
     }
 
     // Восстановление поврежденного паттерна
     public int[] recover(int[] input, int maxIterations) {
+        return recall(input, maxIterations, UpdateOrder.SEQUENTIAL, 0).state;
+    }
+
+    // Асинхронное восстановление с инкрементными полями h = W s: поля считаются один раз
+    // за O(size²), а переключение нейрона i сдвигает все поля на его столбец за O(size).
+    // Работа кончается, как только проход ничего не изменил: дальше состояние не меняется.
+    // При SEQUENTIAL ответ совпадает с прежними maxIterations полными проходами
+    public Recall recall(int[] input, int maxIterations, UpdateOrder order, long seed) {
+        int[] state = Arrays.copyOf(input, input.length);
+        int[] field = new int[size];
+        weights.fields(state, field);
+        int[] sequence = IntStream.range(0, size).toArray();
+        int[] deltas = new int[size];
+        Random random = order == UpdateOrder.RANDOM ? new Random(seed) : null;
+        long flips = 0;
+        int iter = 0;
+        boolean converged = false;
+        while (iter < maxIterations && !converged) {
+            int changed = 0;
+            if (random == null) {
+                changed = weights.sweep(state, field, sequence, deltas);
+            } else {
+                for (int k = size - 1; k > 0; k--) {
+                    int other = random.nextInt(k + 1);
+                    int swap = sequence[k];
+                    sequence[k] = sequence[other];
+                    sequence[other] = swap;
+                }
+                for (int k = 0; k < size; k++) {
+                    int i = sequence[k];
+                    int next = field[i] >= 0 ? 1 : -1; // Пороговая активация
+                    int delta = next - state[i];
+                    if (delta != 0) {
+                        state[i] = next;
+                        changed++;
+                        weights.addColumn(i, delta, field);
+                    }
+                }
+            }
+            iter++;
+            flips += changed;
+            converged = changed == 0;
+        }
+        return new Recall(state, iter, flips, energy(state, field), converged);
+    }
+
+    // Синхронное восстановление: все нейроны обновляются разом по полям предыдущего шага.
+    // Поля сдвигаются только на столбцы переключившихся нейронов, полосы по BAND строк
+    // считаются параллельно на пуле. Синхронная динамика может зациклиться на двух
+    // состояниях, тогда converged = false и работа кончается на maxIterations
+    public Recall recallSynchronous(int[] input, int maxIterations, ForkJoinPool pool) {
+        int[] state = Arrays.copyOf(input, input.length);
+        int[] field = new int[size];
+        weights.fields(state, field);
+        int[] changed = new int[size];
+        int[] deltas = new int[size];
+        int bands = (size + BAND - 1) / BAND;
+        long flips = 0;
+        int iter = 0;
+        boolean converged = false;
+        while (iter < maxIterations) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int next = field[i] >= 0 ? 1 : -1;
+                if (next != state[i]) {
+                    changed[count] = i;
+                    deltas[count] = next - state[i];
+                    count++;
+                    state[i] = next;
+                }
+            }
+            iter++;
+            flips += count;
+            if (count == 0) {
+                converged = true;
+                break;
+            }
+            int updates = count;
+            pool.submit(() -> IntStream.range(0, bands).parallel().forEach(b -> weights.addColumns(
+                    b * BAND, Math.min(size, b * BAND + BAND), changed, deltas, updates, field))).join();
+        }
+        return new Recall(state, iter, flips, energy(state, field), converged);
+    }
+
+    private static double energy(int[] state, int[] field) {
+        long sum = 0;
+        for (int i = 0; i < state.length; i++) {
+            sum += (long) state[i] * field[i];
+        }
+        return -0.5 * sum;
+    }
+
+    // Веса сети: w_ij = w_ji, диагональ нулевая. Реализации различаются только хранением
+    private interface Weights {
+        int get(int i, int j);
+
+        // Записать w_ij = w_ji
+        void set(int i, int j, int value);
+
+        // Строки from..to += sign * Σ_p x^p (x^p)ᵀ без диагонали; true — какой-то вес
+        // уперся в границу типа
+        boolean hebb(int[][] patterns, int sign, int from, int to);
+
+        // field = W state
+        void fields(int[] state, int[] field);
+
+        // Последовательный проход по возрастанию номера с поддержанием field = W state.
+        // flipped и deltas — рабочие массивы длины size; возвращает число переключений
+        int sweep(int[] state, int[] field, int[] flipped, int[] deltas);
+
+        // field += delta * (столбец i)
+        void addColumn(int i, int delta, int[] field);
+
+        // field[i] += Σ_k w(i, changed[k]) deltas[k] для строк from..to
+        void addColumns(int from, int to, int[] changed, int[] deltas, int count, int[] field);
+
+        // Память под веса в байтах
+        long bytes();
+    }
+
+    private static Weights weights(int size, Precision precision) {
+        switch (precision) {
+            case INT:
+                return new IntTriangle(size);
+            case SHORT:
+                return new ShortTriangle(size);
+            case BYTE:
+                return new ByteTriangle(size);
+            default:
+                return new FullWeights(size);
+        }
+    }
+
+    // Полная матрица size x size
+    private static final class FullWeights implements Weights {
+        private final int[][] matrix;
+        // Симметрична ли матрица: тогда столбец нейрона читается как его строка.
+        // Правило Хебба симметрию сохраняет, загруженные веса проверяются
+        private boolean symmetric = true;
+
+        FullWeights(int size) {
+            matrix = new int[size][size];
+        }
+
+        @Override
+        public int get(int i, int j) {
+            return matrix[i][j];
+        }
+
+        @Override
+        public void set(int i, int j, int value) {
+            matrix[i][j] = value;
+            matrix[j][i] = value;
+        }
+
+        // Суммы по всем образам копятся в плитке из TILE столбцов и добавляются к строке
+        // один раз, а не по разу на образ
+        @Override
+        public boolean hebb(int[][] patterns, int sign, int from, int to) {
+            int size = matrix.length;
+            int[] sums = new int[TILE];
+            for (int i = from; i < to; i++) {
+                int[] row = matrix[i];
+                for (int start = 0; start < size; start += TILE) {
+                    int length = Math.min(TILE, size - start);
+                    Arrays.fill(sums, 0, length, 0);
+                    for (int[] pattern : patterns) {
+                        int xi = pattern[i] * sign;
+                        for (int k = 0; k < length; k++) {
+                            sums[k] += xi * pattern[start + k];
+                        }
+                    }
+                    if (i >= start && i < start + length) {
+                        sums[i - start] = 0;
+                    }
+                    for (int k = 0; k < length; k++) {
+                        row[start + k] += sums[k];
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void fields(int[] state, int[] field) {
+            for (int i = 0; i < matrix.length; i++) {
+                int[] row = matrix[i];
+                int sum = 0;
+                for (int j = 0; j < row.length; j++) {
+                    sum += row[j] * state[j];
+                }
+                field[i] = sum;
+            }
+        }
+
+        @Override
+        public int sweep(int[] state, int[] field, int[] flipped, int[] deltas) {
+            int changed = 0;
+            for (int i = 0; i < matrix.length; i++) {
+                int next = field[i] >= 0 ? 1 : -1; // Пороговая активация
+                int delta = next - state[i];
+                if (delta != 0) {
+                    state[i] = next;
+                    changed++;
+                    addColumn(i, delta, field);
+                }
+            }
+            return changed;
+        }
+
+        @Override
+        public void addColumn(int i, int delta, int[] field) {
+            if (symmetric) {
+                int[] row = matrix[i];
+                for (int j = 0; j < row.length; j++) {
+                    field[j] += row[j] * delta;
+                }
+            } else {
+                for (int j = 0; j < matrix.length; j++) {
+                    field[j] += matrix[j][i] * delta;
+                }
+            }
+        }
+
+        @Override
+        public void addColumns(int from, int to, int[] changed, int[] deltas, int count, int[] field) {
+            for (int i = from; i < to; i++) {
+                int[] row = matrix[i];
+                int sum = 0;
+                for (int k = 0; k < count; k++) {
+                    sum += row[changed[k]] * deltas[k];
+                }
+                field[i] += sum;
+            }
+        }
+
+        @Override
+        public long bytes() {
+            return 4L * matrix.length * matrix.length;
+        }
+
+        private boolean isSymmetric() {
+            for (int i = 0; i < matrix.length; i++) {
+                for (int j = i + 1; j < matrix.length; j++) {
+                    if (matrix[i][j] != matrix[j][i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    // Верхний треугольник без диагонали в int: строка i хранит w_ij для j > i
+    private static final class IntTriangle implements Weights {
+        private final int[][] rows;
+
+        IntTriangle(int size) {
+            rows = new int[size][];
+            for (int i = 0; i < size; i++) {
+                rows[i] = new int[size - i - 1];
+            }
+        }
+
+        @Override
+        public int get(int i, int j) {
+            return i < j ? rows[i][j - i - 1] : i > j ? rows[j][i - j - 1] : 0;
+        }
+
+        @Override
+        public void set(int i, int j, int value) {
+            rows[Math.min(i, j)][Math.abs(j - i) - 1] = value;
+        }
+
+        @Override
+        public boolean hebb(int[][] patterns, int sign, int from, int to) {
+            boolean saturated = false;
+            int[] sums = new int[TILE];
+            for (int i = from; i < to; i++) {
+                int[] row = rows[i];
+                for (int start = 0; start < row.length; start += TILE) {
+                    int length = Math.min(TILE, row.length - start);
+                    int offset = i + 1 + start;
+                    Arrays.fill(sums, 0, length, 0);
+                    for (int[] pattern : patterns) {
+                        int xi = pattern[i] * sign;
+                        for (int k = 0; k < length; k++) {
+                            sums[k] += xi * pattern[offset + k];
+                        }
+                    }
+                    for (int k = 0; k < length; k++) {
+                        long value = (long) row[start + k] + sums[k];
+                        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+                            saturated = true;
+                            value = value > 0 ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+                        }
+                        row[start + k] = (int) value;
+                    }
+                }
+            }
+            return saturated;
+        }
+
+        // Строка i дает скалярное произведение для h_i и сдвиг полей h_j, j > i
+        @Override
+        public void fields(int[] state, int[] field) {
+            Arrays.fill(field, 0);
+            for (int i = 0; i < rows.length; i++) {
+                int[] row = rows[i];
+                int si = state[i];
+                int sum = 0;
+                for (int k = 0; k < row.length; k++) {
+                    sum += row[k] * state[i + 1 + k];
+                }
+                field[i] += sum;
+                for (int k = 0; k < row.length; k++) {
+                    field[i + 1 + k] += row[k] * si;
+                }
+            }
+        }
+
+        // Переключение нейрона i сразу сдвигает поля j > i по его непрерывной строке. Вклад
+        // в поля j < i лежит по столбцу i в разных строках; эти нейроны в проходе уже пройдены,
+        // поэтому вклад откладывается и добавляется после прохода строка за строкой
+        @Override
+        public int sweep(int[] state, int[] field, int[] flipped, int[] deltas) {
+            int changed = 0;
+            for (int i = 0; i < rows.length; i++) {
+                int next = field[i] >= 0 ? 1 : -1;
+                int delta = next - state[i];
+                if (delta != 0) {
+                    state[i] = next;
+                    flipped[changed] = i;
+                    deltas[changed] = delta;
+                    changed++;
+                    int[] row = rows[i];
+                    for (int k = 0; k < row.length; k++) {
+                        field[i + 1 + k] += row[k] * delta;
+                    }
+                }
+            }
+            int first = 0;
+            for (int j = 0; j < rows.length; j++) {
+                while (first < changed && flipped[first] <= j) {
+                    first++;
+                }
+                if (first == changed) {
+                    break;
+                }
+                int[] row = rows[j];
+                int sum = 0;
+                for (int k = first; k < changed; k++) {
+                    sum += row[flipped[k] - j - 1] * deltas[k];
+                }
+                field[j] += sum;
+            }
+            return changed;
+        }
+
+        @Override
+        public void addColumn(int i, int delta, int[] field) {
+            for (int j = 0; j < i; j++) {
+                field[j] += rows[j][i - j - 1] * delta;
+            }
+            int[] row = rows[i];
+            for (int k = 0; k < row.length; k++) {
+                field[i + 1 + k] += row[k] * delta;
+            }
+        }
+
+        @Override
+        public void addColumns(int from, int to, int[] changed, int[] deltas, int count, int[] field) {
+            for (int i = from; i < to; i++) {
+                int sum = 0;
+                for (int k = 0; k < count; k++) {
+                    sum += get(i, changed[k]) * deltas[k];
+                }
+                field[i] += sum;
+            }
+        }
+
+        @Override
+        public long bytes() {
+            long n = rows.length;
+            return n * (n - 1) / 2 * Integer.BYTES;
+        }
+    }
+
+    // Верхний треугольник без диагонали в short: строка i хранит w_ij для j > i
+    private static final class ShortTriangle implements Weights {
+        private final short[][] rows;
+
+        ShortTriangle(int size) {
+            rows = new short[size][];
+            for (int i = 0; i < size; i++) {
+                rows[i] = new short[size - i - 1];
+            }
+        }
+
+        @Override
+        public int get(int i, int j) {
+            return i < j ? rows[i][j - i - 1] : i > j ? rows[j][i - j - 1] : 0;
+        }
+
+        @Override
+        public void set(int i, int j, int value) {
+            rows[Math.min(i, j)][Math.abs(j - i) - 1] = (short) value;
+        }
+
+        @Override
+        public boolean hebb(int[][] patterns, int sign, int from, int to) {
+            boolean saturated = false;
+            int[] sums = new int[TILE];
+            for (int i = from; i < to; i++) {
+                short[] row = rows[i];
+                for (int start = 0; start < row.length; start += TILE) {
+                    int length = Math.min(TILE, row.length - start);
+                    int offset = i + 1 + start;
+                    Arrays.fill(sums, 0, length, 0);
+                    for (int[] pattern : patterns) {
+                        int xi = pattern[i] * sign;
+                        for (int k = 0; k < length; k++) {
+                            sums[k] += xi * pattern[offset + k];
+                        }
+                    }
+                    for (int k = 0; k < length; k++) {
+                        long value = (long) row[start + k] + sums[k];
+                        if (value > Short.MAX_VALUE || value < Short.MIN_VALUE) {
+                            saturated = true;
+                            value = value > 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+                        }
+                        row[start + k] = (short) value;
+                    }
+                }
+            }
+            return saturated;
+        }
+
+        // Строка i дает скалярное произведение для h_i и сдвиг полей h_j, j > i
+        @Override
+        public void fields(int[] state, int[] field) {
+            Arrays.fill(field, 0);
+            for (int i = 0; i < rows.length; i++) {
+                short[] row = rows[i];
+                int si = state[i];
+                int sum = 0;
+                for (int k = 0; k < row.length; k++) {
+                    sum += row[k] * state[i + 1 + k];
+                }
+                field[i] += sum;
+                for (int k = 0; k < row.length; k++) {
+                    field[i + 1 + k] += row[k] * si;
+                }
+            }
+        }
+
+        // Переключение нейрона i сразу сдвигает поля j > i по его непрерывной строке. Вклад
+        // в поля j < i лежит по столбцу i в разных строках; эти нейроны в проходе уже пройдены,
+        // поэтому вклад откладывается и добавляется после прохода строка за строкой
+        @Override
+        public int sweep(int[] state, int[] field, int[] flipped, int[] deltas) {
+            int changed = 0;
+            for (int i = 0; i < rows.length; i++) {
+                int next = field[i] >= 0 ? 1 : -1;
+                int delta = next - state[i];
+                if (delta != 0) {
+                    state[i] = next;
+                    flipped[changed] = i;
+                    deltas[changed] = delta;
+                    changed++;
+                    short[] row = rows[i];
+                    for (int k = 0; k < row.length; k++) {
+                        field[i + 1 + k] += row[k] * delta;
+                    }
+                }
+            }
+            int first = 0;
+            for (int j = 0; j < rows.length; j++) {
+                while (first < changed && flipped[first] <= j) {
+                    first++;
+                }
+                if (first == changed) {
+                    break;
+                }
+                short[] row = rows[j];
+                int sum = 0;
+                for (int k = first; k < changed; k++) {
+                    sum += row[flipped[k] - j - 1] * deltas[k];
+                }
+                field[j] += sum;
+            }
+            return changed;
+        }
+
+        @Override
+        public void addColumn(int i, int delta, int[] field) {
+            for (int j = 0; j < i; j++) {
+                field[j] += rows[j][i - j - 1] * delta;
+            }
+            short[] row = rows[i];
+            for (int k = 0; k < row.length; k++) {
+                field[i + 1 + k] += row[k] * delta;
+            }
+        }
+
+        @Override
+        public void addColumns(int from, int to, int[] changed, int[] deltas, int count, int[] field) {
+            for (int i = from; i < to; i++) {
+                int sum = 0;
+                for (int k = 0; k < count; k++) {
+                    sum += get(i, changed[k]) * deltas[k];
+                }
+                field[i] += sum;
+            }
+        }
+
+        @Override
+        public long bytes() {
+            long n = rows.length;
+            return n * (n - 1) / 2 * Short.BYTES;
+        }
+    }
+
+    // Верхний треугольник без диагонали в byte: строка i хранит w_ij для j > i
+    private static final class ByteTriangle implements Weights {
+        private final byte[][] rows;
+
+        ByteTriangle(int size) {
+            rows = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                rows[i] = new byte[size - i - 1];
+            }
+        }
+
+        @Override
+        public int get(int i, int j) {
+            return i < j ? rows[i][j - i - 1] : i > j ? rows[j][i - j - 1] : 0;
+        }
+
+        @Override
+        public void set(int i, int j, int value) {
+            rows[Math.min(i, j)][Math.abs(j - i) - 1] = (byte) value;
+        }
+
+        @Override
+        public boolean hebb(int[][] patterns, int sign, int from, int to) {
+            boolean saturated = false;
+            int[] sums = new int[TILE];
+            for (int i = from; i < to; i++) {
+                byte[] row = rows[i];
+                for (int start = 0; start < row.length; start += TILE) {
+                    int length = Math.min(TILE, row.length - start);
+                    int offset = i + 1 + start;
+                    Arrays.fill(sums, 0, length, 0);
+                    for (int[] pattern : patterns) {
+                        int xi = pattern[i] * sign;
+                        for (int k = 0; k < length; k++) {
+                            sums[k] += xi * pattern[offset + k];
+                        }
+                    }
+                    for (int k = 0; k < length; k++) {
+                        long value = (long) row[start + k] + sums[k];
+                        if (value > Byte.MAX_VALUE || value < Byte.MIN_VALUE) {
+                            saturated = true;
+                            value = value > 0 ? Byte.MAX_VALUE : Byte.MIN_VALUE;
+                        }
+                        row[start + k] = (byte) value;
+                    }
+                }
+            }
+            return saturated;
+        }
+
+        // Строка i дает скалярное произведение для h_i и сдвиг полей h_j, j > i
+        @Override
+        public void fields(int[] state, int[] field) {
+            Arrays.fill(field, 0);
+            for (int i = 0; i < rows.length; i++) {
+                byte[] row = rows[i];
+                int si = state[i];
+                int sum = 0;
+                for (int k = 0; k < row.length; k++) {
+                    sum += row[k] * state[i + 1 + k];
+                }
+                field[i] += sum;
+                for (int k = 0; k < row.length; k++) {
+                    field[i + 1 + k] += row[k] * si;
+                }
+            }
+        }
+
+        // Переключение нейрона i сразу сдвигает поля j > i по его непрерывной строке. Вклад
+        // в поля j < i лежит по столбцу i в разных строках; эти нейроны в проходе уже пройдены,
+        // поэтому вклад откладывается и добавляется после прохода строка за строкой
+        @Override
+        public int sweep(int[] state, int[] field, int[] flipped, int[] deltas) {
+            int changed = 0;
+            for (int i = 0; i < rows.length; i++) {
+                int next = field[i] >= 0 ? 1 : -1;
+                int delta = next - state[i];
+                if (delta != 0) {
+                    state[i] = next;
+                    flipped[changed] = i;
+                    deltas[changed] = delta;
+                    changed++;
+                    byte[] row = rows[i];
+                    for (int k = 0; k < row.length; k++) {
+                        field[i + 1 + k] += row[k] * delta;
+                    }
+                }
+            }
+            int first = 0;
+            for (int j = 0; j < rows.length; j++) {
+                while (first < changed && flipped[first] <= j) {
+                    first++;
+                }
+                if (first == changed) {
+                    break;
+                }
+                byte[] row = rows[j];
+                int sum = 0;
+                for (int k = first; k < changed; k++) {
+                    sum += row[flipped[k] - j - 1] * deltas[k];
+                }
+                field[j] += sum;
+            }
+            return changed;
+        }
+
+        @Override
+        public void addColumn(int i, int delta, int[] field) {
+            for (int j = 0; j < i; j++) {
+                field[j] += rows[j][i - j - 1] * delta;
+            }
+            byte[] row = rows[i];
+            for (int k = 0; k < row.length; k++) {
+                field[i + 1 + k] += row[k] * delta;
+            }
+        }
+
+        @Override
+        public void addColumns(int from, int to, int[] changed, int[] deltas, int count, int[] field) {
+            for (int i = from; i < to; i++) {
+                int sum = 0;
+                for (int k = 0; k < count; k++) {
+                    sum += get(i, changed[k]) * deltas[k];
+                }
+                field[i] += sum;
+            }
+        }
+
+        @Override
+        public long bytes() {
+            long n = rows.length;
+            return n * (n - 1) / 2 * Byte.BYTES;
+        }
+    }
+
+    // Восстановление упакованного образа, ответ совпадает с recover(int[]).
+    // Для весов Хебба w_ij = Σ_p x_i^p x_j^p (i ≠ j) поле нейрона выражается через перекрытия
+    // m_p = x^p · s, которые считаются по 64 нейрона за раз через Long.bitCount:
+    // h_i = Σ_p x_i^p m_p - P s_i. Это O(P) на нейрон вместо O(size), а смена знака
+    // нейрона i меняет каждое m_p на ±2. Без запомненных образов используется recover(int[])
+    public PackedPattern recover(PackedPattern input, int maxIterations) {
+        if (memories == null) {
+            return PackedPattern.of(recover(input.toArray(), maxIterations));
+        }
+        int count = memories.size();
+        long[][] bits = new long[count][];
+        int[] overlaps = new int[count];
+        PackedPattern state = new PackedPattern(size);
+        System.arraycopy(input.words, 0, state.words, 0, state.words.length);
+        for (int p = 0; p < count; p++) {
+            bits[p] = memories.get(p).words;
+            overlaps[p] = memories.get(p).dot(state);
+        }
+        boolean changed = true;
+        for (int iter = 0; iter < maxIterations && changed; iter++) {
+            changed = false;
+            for (int i = 0; i < size; i++) {
+                int word = i >>> 6;
+                long mask = 1L << i;
+                boolean active = (state.words[word] & mask) != 0;
+                int sum = active ? -count : count;
+                for (int p = 0; p < count; p++) {
+                    sum += (bits[p][word] & mask) != 0 ? overlaps[p] : -overlaps[p];
+                }
+                if (sum >= 0 != active) {
+                    changed = true;
+                    state.words[word] ^= mask;
+                    int change = sum >= 0 ? 2 : -2;
+                    for (int p = 0; p < count; p++) {
+                        overlaps[p] += (bits[p][word] & mask) != 0 ? change : -change;
+                    }
+                }
+            }
+        }
+        return state;
+    }
+
+    private static boolean bipolar(int[] pattern) {
+        for (int value : pattern) {
+            if (value != 1 && value != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Биполярный образ (±1) по одному биту на элемент: 1 — бит установлен, -1 — сброшен.
+    // Занимает в 32 раза меньше памяти, чем int[], а скалярное произведение двух образов
+    // длины n равно n - 2 * popcount(a XOR b)
+    public static final class PackedPattern {
+        private final int length;
+        private final long[] words;
+
+        public PackedPattern(int length) {
+            this.length = length;
+            this.words = new long[(length + 63) >>> 6];
+        }
+
+        public static PackedPattern of(int[] values) {
+            PackedPattern pattern = new PackedPattern(values.length);
+            for (int i = 0; i < values.length; i++) {
+                pattern.set(i, values[i]);
+            }
+            return pattern;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public int get(int i) {
+            return (words[i >>> 6] >>> i & 1) != 0 ? 1 : -1;
+        }
+
+        public void set(int i, int value) {
+            if (value == 1) {
+                words[i >>> 6] |= 1L << i;
+            } else if (value == -1) {
+                words[i >>> 6] &= ~(1L << i);
+            } else {
+                throw new IllegalArgumentException("Элемент биполярного образа должен быть 1 или -1: " + value);
+            }
+        }
+
+        public int[] toArray() {
+            int[] values = new int[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = get(i);
+            }
+            return values;
+        }
+
+        // Число несовпадающих элементов
+        public int distance(PackedPattern other) {
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                count += Long.bitCount(words[w] ^ other.words[w]);
+            }
+            return count;
+        }
+
+        public int dot(PackedPattern other) {
+            return length - 2 * distance(other);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PackedPattern && length == ((PackedPattern) other).length
+                    && Arrays.equals(words, ((PackedPattern) other).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * length + Arrays.hashCode(words);
+        }
+    }
+
+    // Сохранение весов в файл модели: по блоку на строку в типе хранения (полная матрица —
+    // строки целиком, треугольник — части правее диагонали) и последним блоком масштаб,
+    // с измерениями {size, номер Precision, 1, номер Rule}. Файл BYTE не больше весов в памяти,
+    // число весов не ограничено длиной одного массива, а загруженная сеть знает свое правило.
+    // Прежние файлы {size}, {size, номер Precision} и {size, номер Precision, 1} загружаются
+    // как веса Хебба
+    public void save(Path file) throws IOException {
+        Object[] blocks = Arrays.copyOf(precision == Precision.FULL ? ((FullWeights) weights).matrix
+                : triangleRows(weights), size + 1, Object[].class);
+        blocks[size] = new double[]{scale};
+        ModelFile.write(file, "HOPF", new int[]{size, precision.ordinal(), 1, rule.ordinal()}, blocks);
+    }
+
+    // Строки треугольника как массивы хранения, без копирования
+    private static Object[] triangleRows(Weights weights) {
+        if (weights instanceof ByteTriangle) {
+            return ((ByteTriangle) weights).rows;
+        }
+        if (weights instanceof ShortTriangle) {
+            return ((ShortTriangle) weights).rows;
+        }
+        return ((IntTriangle) weights).rows;
+    }
+
+    // Загрузка из файла модели: строки весов копируются из отображения файла одним
+    // блочным чтением, обучение не повторяется. Измерения и блоки проверяются до того,
+    // как выделяется память под веса
+    public static HopfieldNetwork load(Path file) throws IOException {
+        ModelFile model = ModelFile.map(file, "HOPF");
+        int[] shape = model.shape;
+        if (shape.length < 1 || shape.length > 4) {
+            throw new IOException("У модели " + shape.length + " измерений, ожидалось от 1 до 4");
+        }
+        int size = shape[0];
+        if (shape.length == 1) {
+            IntBuffer matrix = model.ints(0, (long) size * size);
+            HopfieldNetwork network = new HopfieldNetwork(size);
+            network.memories = null;
+            FullWeights full = (FullWeights) network.weights;
+            for (int[] row : full.matrix) {
+                matrix.get(row);
+            }
+            full.symmetric = full.isSymmetric();
+            return network;
+        }
+        if (shape[1] >= Precision.values().length || shape.length == 2 && shape[1] == Precision.FULL.ordinal()) {
+            throw new IOException("Неизвестное хранение весов: " + shape[1]);
+        }
+        Precision precision = Precision.values()[shape[1]];
+        if (shape.length == 2) {
+            IntBuffer triangle = model.ints(0, (long) size * (size - 1) / 2);
+            HopfieldNetwork network = new HopfieldNetwork(size, precision);
+            network.memories = null;
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    network.weights.set(i, j, triangle.get());
+                }
+            }
+            return network;
+        }
+        if (shape[2] != 1) {
+            throw new IOException("Неизвестная раскладка весов: " + shape[2]);
+        }
+        if (shape.length > 3 && shape[3] >= Rule.values().length) {
+            throw new IOException("Неизвестное правило обучения: " + shape[3]);
+        }
+        // Последняя строка проверяется первой: так блоков в файле не меньше size,
+        // и массив представлений строк ограничен размером файла
+        if (size > 0) {
+            row(model, size - 1, size, precision);
+        }
+        Buffer[] blocks = new Buffer[size];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = row(model, i, size, precision);
+        }
+        double scale = shape.length > 3 ? model.doubles(size, 1).get(0) : size;
+
+        HopfieldNetwork network = new HopfieldNetwork(size, precision);
+        network.memories = null;
+        Object[] rows = precision == Precision.FULL ? ((FullWeights) network.weights).matrix
+                : triangleRows(network.weights);
+        for (int i = 0; i < size; i++) {
+            Object row = rows[i];
+            if (row instanceof byte[]) {
+                ((ByteBuffer) blocks[i]).get((byte[]) row);
+            } else if (row instanceof short[]) {
+                ((ShortBuffer) blocks[i]).get((short[]) row);
+            } else {
+                ((IntBuffer) blocks[i]).get((int[]) row);
+            }
+        }
+        if (precision == Precision.FULL) {
+            ((FullWeights) network.weights).symmetric = ((FullWeights) network.weights).isSymmetric();
+        }
+        if (shape.length > 3) {
+            network.rule = Rule.values()[shape[3]];
+            network.scale = scale;
+        }
+        return network;
+    }
+
+    // Строка i весов в файле: у полной матрицы целиком, у треугольника правее диагонали
+    private static Buffer row(ModelFile model, int i, int size, Precision precision) throws IOException {
+        int length = precision == Precision.FULL ? size : size - i - 1;
+        switch (precision) {
+            case BYTE:
+                return model.bytes(i, length);
+            case SHORT:
+                return model.shorts(i, length);
+            default:
+                return model.ints(i, length);
+        }
+    }
+
+    // Холодный старт: обучение большой сети против загрузки сохраненной модели,
+    // и размер файла треугольника BYTE
+    private static void benchmarkColdStart() throws IOException {
+        int size = 2048;
+        int[][] patterns = new int[100][size];
+        Random rand = new Random(1);
+        for (int[] pattern : patterns) {
+            for (int i = 0; i < size; i++) {
+                pattern[i] = rand.nextBoolean() ? 1 : -1;
+            }
+        }
+        int[] damaged = Arrays.copyOf(patterns[0], size);
+        for (int i = 0; i < size / 10; i++) {
+            damaged[rand.nextInt(size)] *= -1;
+        }
+
+        Path file = Files.createTempFile("hopfield", ".model");
+        try {
+            long start = System.nanoTime();
+            HopfieldNetwork trained = new HopfieldNetwork(size);
+            trained.train(patterns);
+            long trainNanos = System.nanoTime() - start;
+            int[] expected = trained.recover(damaged, 5);
+            trained.save(file);
+
+            start = System.nanoTime();
+            HopfieldNetwork loaded = HopfieldNetwork.load(file);
+            long loadNanos = System.nanoTime() - start;
+            System.out.printf("Сеть %d нейронов, %d образов, файл %d МБ%n", size, patterns.length,
+                    Files.size(file) >> 20);
+            System.out.printf("обучение %.1f мс, загрузка %.2f мс, восстановление совпадает: %b%n",
+                    trainNanos / 1e6, loadNanos / 1e6, Arrays.equals(expected, loaded.recover(damaged, 5)));
+
+            // Треугольник BYTE пишется построчно в байтах: файл размером с веса в памяти
+            HopfieldNetwork compact = new HopfieldNetwork(size, Precision.BYTE);
+            compact.train(patterns);
+            compact.save(file);
+            HopfieldNetwork reloaded = HopfieldNetwork.load(file);
+            System.out.printf("BYTE: веса %d КБ, файл %d КБ, восстановление совпадает: %b%n",
+                    compact.weightBytes() >> 10, Files.size(file) >> 10,
+                    Arrays.equals(compact.recover(damaged, 5), reloaded.recover(damaged, 5)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Двоичный файл модели, один формат для всех сетей.
+    // Заголовок: магия "NNMF", версия, тип сети (4 символа ASCII), число измерений и сами
+    // измерения, число блоков и для каждого блока тип элементов и их количество.
+    // Дальше блоки весов little-endian, каждый с границы 8 байт. Каждый блок не больше 2 ГБ,
+    // а сам файл может быть и больше: он пишется и отображается в память по частям
+    private static final class ModelFile {
+        static final int MAGIC = 0x464D4E4E; // "NNMF" в порядке little-endian
+        static final int VERSION = 1;
+        static final int DOUBLES = 0;
+        static final int INTS = 1;
+        static final int SHORTS = 2;
+        static final int BYTES = 3;
+        // Размер элемента для каждого типа блока
+        private static final int[] ELEMENT_BYTES = {Double.BYTES, Integer.BYTES, Short.BYTES, Byte.BYTES};
+        // Буфер записи: блоки копируются в файл порциями этого размера
+        private static final int CHUNK = 1 << 20;
+
+        final int[] shape;
+        private final int[] types;
+        private final ByteBuffer[] blocks;
+
+        private ModelFile(int[] shape, int[] types, ByteBuffer[] blocks) {
+            this.shape = shape;
+            this.types = types;
+            this.blocks = blocks;
+        }
+
+        // Блоки — массивы double[], int[], short[] или byte[]. Файл пишется рядом и атомарно
+        // переименовывается, поэтому читатель никогда не увидит наполовину записанную модель
+        static void write(Path file, String kind, int[] shape, Object... blocks) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate((int) align(4L * (5 + shape.length) + 8L * blocks.length))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).put(kind.getBytes(StandardCharsets.US_ASCII), 0, 4);
+            header.putInt(shape.length);
+            for (int dimension : shape) {
+                header.putInt(dimension);
+            }
+            header.putInt(blocks.length);
+            for (Object block : blocks) {
+                if (size(block) > Integer.MAX_VALUE) {
+                    throw new IOException("Блок модели больше 2 ГБ: " + size(block) + " байт");
+                }
+                header.putInt(type(block));
+                header.putInt(length(block));
+            }
+            header.clear();
+
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                long position = header.capacity();
+                for (Object block : blocks) {
+                    writeBlock(channel, chunk, block);
+                    position += size(block);
+                    // Выравнивание следующего блока нулями
+                    chunk.clear().limit((int) (align(position) - position));
+                    while (chunk.hasRemaining()) {
+                        chunk.put((byte) 0);
+                    }
+                    writeFully(channel, chunk.flip());
+                    position = align(position);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeBlock(FileChannel channel, ByteBuffer chunk, Object block) throws IOException {
+            int type = type(block);
+            int size = ELEMENT_BYTES[type];
+            int length = length(block);
+            int step = CHUNK / size;
+            for (int from = 0; from < length; from += step) {
+                int count = Math.min(step, length - from);
+                chunk.clear();
+                switch (type) {
+                    case DOUBLES:
+                        chunk.asDoubleBuffer().put((double[]) block, from, count);
+                        break;
+                    case INTS:
+                        chunk.asIntBuffer().put((int[]) block, from, count);
+                        break;
+                    case SHORTS:
+                        chunk.asShortBuffer().put((short[]) block, from, count);
+                        break;
+                    default:
+                        chunk.put((byte[]) block, from, count);
+                        break;
+                }
+                writeFully(channel, chunk.position(0).limit(count * size));
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        // Отображение файла в память без чтения и копирования весов: блоки становятся
+        // представлениями только для чтения, страницы подгружаются при первом обращении.
+        // Одно отображение ограничено 2 ГБ, поэтому блоки нарезаются из окон такого размера
+        static ModelFile map(Path file, String kind) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                ByteBuffer buffer = read(channel, 0, 16, file);
+                if (buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Не файл модели: " + file);
+                }
+                if (buffer.getInt(4) != VERSION) {
+                    throw new IOException("Неподдерживаемая версия модели: " + buffer.getInt(4));
+                }
+                byte[] tag = new byte[4];
+                buffer.get(8, tag);
+                String actual = new String(tag, StandardCharsets.US_ASCII);
+                if (!actual.equals(kind)) {
+                    throw new IOException("В файле модель " + actual + ", ожидалась " + kind);
+                }
+                long position = 16;
+                int dimensions = buffer.getInt(12);
+                if (dimensions < 0 || 4L * dimensions + 4 > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 4 * dimensions + 4, file);
+                position += 4L * dimensions + 4;
+                int[] shape = new int[dimensions];
+                for (int i = 0; i < shape.length; i++) {
+                    shape[i] = buffer.getInt(4 * i);
+                    if (shape[i] < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                }
+                int count = buffer.getInt(4 * dimensions);
+                if (count < 0 || 8L * count > fileSize - position) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+                buffer = read(channel, position, 8 * count, file);
+                position += 8L * count;
+                int[] types = new int[count];
+                ByteBuffer[] blocks = new ByteBuffer[count];
+                long offset = align(position);
+                ByteBuffer window = null;
+                long windowStart = 0;
+                for (int b = 0; b < count; b++) {
+                    types[b] = buffer.getInt(8 * b);
+                    int elements = buffer.getInt(8 * b + 4);
+                    if (types[b] < 0 || types[b] >= ELEMENT_BYTES.length || elements < 0) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    long length = (long) elements * ELEMENT_BYTES[types[b]];
+                    if (length > Integer.MAX_VALUE || offset + length > fileSize) {
+                        throw new IOException("Файл модели поврежден или обрезан: " + file);
+                    }
+                    if (window == null || offset + length > windowStart + window.capacity()) {
+                        windowStart = offset;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                                Math.min(fileSize - offset, Integer.MAX_VALUE));
+                    }
+                    blocks[b] = window.slice((int) (offset - windowStart), (int) length).order(ByteOrder.LITTLE_ENDIAN);
+                    offset = align(offset + length);
+                }
+                return new ModelFile(shape, types, blocks);
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length, Path file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Файл модели поврежден или обрезан: " + file);
+                }
+            }
+            return buffer.clear();
+        }
+
+        // Измерения, если их ровно length и все они положительны. Загрузчик сверяет с ними длины
+        // блоков до того, как выделять память под сеть, поэтому чужой или поврежденный файл
+        // дает IOException. Нулевое измерение не проверить по блокам: произведение с ним равно
+        // нулю при любом другом измерении
+        int[] shape(int length) throws IOException {
+            if (shape.length != length) {
+                throw new IOException("У модели " + shape.length + " измерений, ожидалось " + length);
+            }
+            for (int dimension : shape) {
+                if (dimension == 0) {
+                    throw new IOException("Нулевое измерение модели");
+                }
+            }
+            return shape;
+        }
+
+        // Блок как представление только для чтения; length — ожидаемое по измерениям число элементов
+        DoubleBuffer doubles(int block, long length) throws IOException {
+            check(block, DOUBLES, length);
+            return blocks[block].asDoubleBuffer();
+        }
+
+        IntBuffer ints(int block, long length) throws IOException {
+            check(block, INTS, length);
+            return blocks[block].asIntBuffer();
+        }
+
+        ShortBuffer shorts(int block, long length) throws IOException {
+            check(block, SHORTS, length);
+            return blocks[block].asShortBuffer();
+        }
+
+        ByteBuffer bytes(int block, long length) throws IOException {
+            check(block, BYTES, length);
+            return blocks[block].duplicate();
+        }
+
+        private void check(int block, int type, long length) throws IOException {
+            if (block >= blocks.length || types[block] != type
+                    || blocks[block].capacity() != length * ELEMENT_BYTES[type]) {
+                throw new IOException("Блок " + block + " модели не совпадает с ее измерениями");
+            }
+        }
+
+        private static int type(Object block) {
+            if (block instanceof double[]) {
+                return DOUBLES;
+            }
+            if (block instanceof int[]) {
+                return INTS;
+            }
+            return block instanceof short[] ? SHORTS : BYTES;
+        }
+
+        private static int length(Object block) {
+            switch (type(block)) {
+                case DOUBLES:
+                    return ((double[]) block).length;
+                case INTS:
+                    return ((int[]) block).length;
+                case SHORTS:
+                    return ((short[]) block).length;
+                default:
+                    return ((byte[]) block).length;
+            }
+        }
+
+        // Размер блока в байтах
+        private static long size(Object block) {
+            return (long) length(block) * ELEMENT_BYTES[type(block)];
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+    }
+
+    // Восстановление int[] против упакованного: 10 образов, 10% поврежденных нейронов
+    private static void benchmarkPacked() {
+        Random rand = new Random(1);
+        for (int size = 100; size <= 10_000; size *= 10) {
+            int[][] patterns = new int[10][size];
+            for (int[] pattern : patterns) {
+                for (int i = 0; i < size; i++) {
+                    pattern[i] = rand.nextBoolean() ? 1 : -1;
+                }
+            }
+            HopfieldNetwork network = new HopfieldNetwork(size);
+            network.train(patterns);
+            int[] damaged = Arrays.copyOf(patterns[3], size);
+            for (int i = 0; i < size / 10; i++) {
+                damaged[rand.nextInt(size)] *= -1;
+            }
+            PackedPattern packed = PackedPattern.of(damaged);
+            int repeats = Math.max(1, 100_000_000 / size / size);
+
+            long plain = Long.MAX_VALUE;
+            long bits = Long.MAX_VALUE;
+            int[] expected = null;
+            PackedPattern actual = null;
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int r = 0; r < repeats; r++) {
+                    expected = network.recover(damaged, 5);
+                }
+                plain = Math.min(plain, System.nanoTime() - start);
+                start = System.nanoTime();
+                for (int r = 0; r < repeats; r++) {
+                    actual = network.recover(packed, 5);
+                }
+                bits = Math.min(bits, System.nanoTime() - start);
+            }
+            System.out.printf("%,6d нейронов: int[] %,10.1f мкс, биты %,8.1f мкс (x%.0f); ответы совпадают: %b,"
+                            + " образ восстановлен: %b%n", size, plain / 1e3 / repeats, bits / 1e3 / repeats,
+                    (double) plain / bits, Arrays.equals(expected, actual.toArray()),
+                    Arrays.equals(patterns[3], expected));
+        }
+    }
+
+    // Прежнее восстановление: maxIterations полных проходов, поле каждого нейрона с нуля
+    private int[] recoverFullSweeps(int[] input, int maxIterations) {
+        int[][] matrix = ((FullWeights) weights).matrix;
         int[] state = Arrays.copyOf(input, input.length);
         for (int iter = 0; iter < maxIterations; iter++) {
             for (int i = 0; i < size; i++) {
                 int sum = 0;
                 for (int j = 0; j < size; j++) {
-                    sum += weights[i][j] * state[j];
+                    sum += matrix[i][j] * state[j];
                 }
-                state[i] = sum >= 0 ? 1 : -1; // Пороговая активация
+                state[i] = sum >= 0 ? 1 : -1;
             }
         }
         return state;
     }
 
-    public static void main(String[] args) {
+    // Задержка восстановления сети из 10 000 нейронов: прежние полные проходы против
+    // инкрементных полей в трех режимах; замер третьего запуска, первые прогревают JIT
+    private static void benchmarkRecall() {
+        int size = 10_000;
+        int maxIterations = 10;
+        Random rand = new Random(2);
+        int[][] patterns = new int[20][size];
+        for (int[] pattern : patterns) {
+            for (int i = 0; i < size; i++) {
+                pattern[i] = rand.nextBoolean() ? 1 : -1;
+            }
+        }
+        HopfieldNetwork network = new HopfieldNetwork(size);
+        network.train(patterns);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        System.out.printf("Сеть %,d нейронов, %d образов, до %d проходов, пул на %d потоков%n",
+                size, patterns.length, maxIterations, pool.getParallelism());
+        for (int percent : new int[]{10, 30}) {
+            int[] damaged = Arrays.copyOf(patterns[0], size);
+            for (int i = 0; i < size * percent / 100; i++) {
+                damaged[rand.nextInt(size)] *= -1;
+            }
+            long[] nanos = new long[4];
+            int[] expected = null;
+            Recall[] results = new Recall[3];
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                expected = network.recoverFullSweeps(damaged, maxIterations);
+                nanos[0] = System.nanoTime() - start;
+                start = System.nanoTime();
+                results[0] = network.recall(damaged, maxIterations, UpdateOrder.SEQUENTIAL, 0);
+                nanos[1] = System.nanoTime() - start;
+                start = System.nanoTime();
+                results[1] = network.recall(damaged, maxIterations, UpdateOrder.RANDOM, 7);
+                nanos[2] = System.nanoTime() - start;
+                start = System.nanoTime();
+                results[2] = network.recallSynchronous(damaged, maxIterations, pool);
+                nanos[3] = System.nanoTime() - start;
+            }
+            System.out.printf("  %d%% шума: полные проходы %.1f мс; совпадает с ними: %b%n", percent, nanos[0] / 1e6,
+                    Arrays.equals(expected, results[0].state));
+            String[] names = {"последовательно", "случайный порядок", "синхронно"};
+            for (int m = 0; m < 3; m++) {
+                Recall result = results[m];
+                System.out.printf("    %-17s %7.1f мс, проходов %d, переключений %d, энергия %.0f, сошлось %b,"
+                                + " образ восстановлен %b%n", names[m], nanos[m + 1] / 1e6, result.iterations,
+                        result.flips, result.energy, result.converged, Arrays.equals(patterns[0], result.state));
+            }
+        }
+    }
+
+    // Память и точность хранения весов: 4096 нейронов, 10% шума; 100 образов — с запасом
+    // по емкости, 300 — у ее границы
+    private static void benchmarkPrecision() {
+        int size = 4096;
+        int queries = 20;
+        Random rand = new Random(3);
+        for (int count : new int[]{100, 300}) {
+            int[][] patterns = new int[count][size];
+            for (int[] pattern : patterns) {
+                for (int i = 0; i < size; i++) {
+                    pattern[i] = rand.nextBoolean() ? 1 : -1;
+                }
+            }
+            int[][] damaged = new int[queries][];
+            for (int q = 0; q < queries; q++) {
+                damaged[q] = Arrays.copyOf(patterns[q], size);
+                for (int i = 0; i < size / 10; i++) {
+                    damaged[q][rand.nextInt(size)] *= -1;
+                }
+            }
+            System.out.printf("Сеть %d нейронов, %d образов, %d запросов%n", size, count, queries);
+            int[][] reference = new int[queries][];
+            for (Precision precision : Precision.values()) {
+                HopfieldNetwork network = new HopfieldNetwork(size, precision);
+                long start = System.nanoTime();
+                network.train(patterns);
+                long trainNanos = System.nanoTime() - start;
+                long nanos = Long.MAX_VALUE;
+                int[][] results = new int[queries][];
+                for (int round = 0; round < 3; round++) {
+                    start = System.nanoTime();
+                    for (int q = 0; q < queries; q++) {
+                        results[q] = network.recover(damaged[q], 10);
+                    }
+                    nanos = Math.min(nanos, System.nanoTime() - start);
+                }
+                int recovered = 0;
+                int same = 0;
+                for (int q = 0; q < queries; q++) {
+                    if (precision == Precision.FULL) {
+                        reference[q] = results[q];
+                    }
+                    recovered += Arrays.equals(patterns[q], results[q]) ? 1 : 0;
+                    same += Arrays.equals(reference[q], results[q]) ? 1 : 0;
+                }
+                System.out.printf("  %-5s веса %4d МБ, обучение %6.0f мс, восстановление %5.1f мс;"
+                                + " восстановлено %d/%d, совпадает с FULL %d/%d, насыщение: %b%n",
+                        precision, network.weightBytes() >> 20, trainNanos / 1e6, nanos / 1e6 / queries,
+                        recovered, queries, same, queries, network.memories == null);
+            }
+        }
+    }
+
+    // Прежнее обучение: тройной цикл образы x size x size, веса обновляются по разу на образ
+    private static int[][] trainTripleLoop(int size, int[][] patterns) {
+        int[][] weights = new int[size][size];
+        for (int[] pattern : patterns) {
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    if (i != j) {
+                        weights[i][j] += pattern[i] * pattern[j];
+                    }
+                }
+            }
+        }
+        return weights;
+    }
+
+    private static int[][] randomPatterns(int count, int size, Random rand) {
+        int[][] patterns = new int[count][size];
+        for (int[] pattern : patterns) {
+            for (int i = 0; i < size; i++) {
+                pattern[i] = rand.nextBoolean() ? 1 : -1;
+            }
+        }
+        return patterns;
+    }
+
+    // Скорость обучения в образах в секунду и емкость трех правил
+    private static void benchmarkTraining() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        Random rand = new Random(4);
+        int size = 2048;
+        int[][] patterns = randomPatterns(200, size, rand);
+        System.out.printf("Обучение сети %d нейронов на %d образах, пул на %d потоков%n",
+                size, patterns.length, pool.getParallelism());
+        String[] names = {"тройной цикл", "плитки FULL", "плитки BYTE", "плитки FULL, пул", "learn по одному",
+                "Сторки, пул", "проекция, пул"};
+        long[] nanos = new long[names.length];
+        Arrays.fill(nanos, Long.MAX_VALUE);
+        int[][] expected = null;
+        HopfieldNetwork[] networks = new HopfieldNetwork[names.length];
+        for (int round = 0; round < 3; round++) {
+            for (int m = 0; m < names.length; m++) {
+                long start = System.nanoTime();
+                if (m == 0) {
+                    expected = trainTripleLoop(size, patterns);
+                } else {
+                    HopfieldNetwork network = new HopfieldNetwork(size, m == 2 ? Precision.BYTE : Precision.FULL);
+                    if (m <= 2) {
+                        network.train(patterns);
+                    } else if (m == 3) {
+                        network.train(patterns, Rule.HEBB, pool);
+                    } else if (m == 4) {
+                        for (int[] pattern : patterns) {
+                            network.learn(pattern);
+                        }
+                    } else {
+                        network.train(patterns, m == 5 ? Rule.STORKEY : Rule.PSEUDO_INVERSE, pool);
+                    }
+                    networks[m] = network;
+                }
+                nanos[m] = Math.min(nanos[m], System.nanoTime() - start);
+            }
+        }
+        for (int m = 0; m < names.length; m++) {
+            String check = m >= 1 && m <= 4 && m != 2
+                    ? ", веса совпадают: " + Arrays.deepEquals(expected, ((FullWeights) networks[m].weights).matrix)
+                    : "";
+            System.out.printf("  %-17s %8.1f мс, %,8.0f образов/с%s%n", names[m], nanos[m] / 1e6,
+                    patterns.length / (nanos[m] / 1e9), check);
+        }
+        HopfieldNetwork network = networks[3];
+        network.unlearn(patterns[7]);
+        network.learn(patterns[7]);
+        System.out.printf("  unlearn + learn возвращает прежние веса: %b%n",
+                Arrays.deepEquals(expected, ((FullWeights) network.weights).matrix));
+
+        // Сторки продолжает от своих весов: половина набора через train без пула и остальное
+        // через learn дают те же веса, что весь набор сразу, с точностью до порядка сложения полей
+        HopfieldNetwork halves = new HopfieldNetwork(size);
+        halves.train(Arrays.copyOf(patterns, patterns.length / 2), Rule.STORKEY, null);
+        for (int p = patterns.length / 2; p < patterns.length; p++) {
+            halves.learn(patterns[p]);
+        }
+        int difference = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                difference = Math.max(difference, Math.abs(halves.weights.get(i, j) - networks[5].weights.get(i, j)));
+            }
+        }
+        System.out.printf("  Сторки по частям против набора сразу: расхождение весов %d из %d%n",
+                difference, Integer.MAX_VALUE / size);
+
+        // Доля образов, восстановленных из 10% шума, при растущей загрузке сети
+        size = 512;
+        int queries = 50;
+        System.out.printf("Емкость сети %d нейронов: восстановлено из %d запросов с 10%% шума%n", size, queries);
+        for (int count = 50; count <= 250; count += 50) {
+            patterns = randomPatterns(count, size, rand);
+            StringBuilder line = new StringBuilder(String.format("  %3d образов (%.2f n):", count, (double) count / size));
+            for (Rule rule : Rule.values()) {
+                network = new HopfieldNetwork(size);
+                network.train(patterns, rule, pool);
+                int recovered = 0;
+                for (int q = 0; q < queries; q++) {
+                    int[] pattern = patterns[q % count];
+                    int[] damaged = Arrays.copyOf(pattern, size);
+                    for (int i = 0; i < size / 10; i++) {
+                        damaged[rand.nextInt(size)] *= -1;
+                    }
+                    recovered += Arrays.equals(pattern, network.recover(damaged, 20)) ? 1 : 0;
+                }
+                line.append(String.format(" %s %d", rule, recovered));
+            }
+            System.out.println(line);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("bench")) {
+            benchmarkTraining();
+            benchmarkPrecision();
+            benchmarkRecall();
+            benchmarkPacked();
+            benchmarkColdStart();
+            return;
+        }
+
         // Пример паттернов (10x10 изображений цифр, упрощенные до массивов из +1 и -1)
         int[][] patterns = {
             {1, 1, -1, -1, 1, -1, -1, 1, 1, 1, /* ... другие пиксели */ -1, -1, -1},